@@ -0,0 +1,51 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsproducer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodec;
+import com.ashishnitw.eventsproducer.codec.JsonEventCodec;
+import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization of an {@link Event} with each codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventCodecBenchmark {
+
+    @Param({JsonEventCodec.FORMAT, BinaryEventCodec.FORMAT})
+    String format;
+
+    EventCodec codec;
+
+    Event event;
+
+    byte[] payload;
+
+    @Setup
+    public void setUp() {
+        codec = JsonEventCodec.FORMAT.equals(format) ? new JsonEventCodec(new ObjectMapper()) : new BinaryEventCodec();
+        event = Event.builder().id(4711).type(EventType.UPDATE)
+                .book(Book.builder().id(123).name("Kafka Using Spring Boot").build()).build();
+        payload = codec.encode(event);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(event);
+    }
+
+    @Benchmark
+    public Event decode() {
+        return codec.decode(payload);
+    }
+}
@@ -0,0 +1,84 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsconsumer.constant.EventHeaders;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.listener.RecordInterceptor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end latency of the records of a {@link PipelineLoadGenerator} run : from the producer building the record
+ * ({@link EventHeaders#PRODUCED_AT}) until the record listener returned, i.e. the event is committed to the database.
+ * Registered as a bean of the consumer context, Spring Boot hands it to the listener container factories. Records
+ * that failed are not measured, neither are batch listeners.
+ */
+class LatencyProbe implements RecordInterceptor<Object, Object> {
+
+    private final long[] latencies;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private volatile long since = Long.MAX_VALUE;
+
+    LatencyProbe(int capacity) {
+        this.latencies = new long[capacity];
+    }
+
+    /**
+     * Measures the records produced from now on, the ones of the warmup still in flight are left out.
+     */
+    void start(long sinceMillis) {
+        since = sinceMillis;
+    }
+
+    @Override
+    public ConsumerRecord<Object, Object> intercept(ConsumerRecord<Object, Object> record,
+                                                    Consumer<Object, Object> consumer) {
+        return record;
+    }
+
+    /**
+     * Still abstract in this spring-kafka version, the containers only call the variant with the consumer.
+     */
+    @Override
+    @Deprecated
+    public ConsumerRecord<Object, Object> intercept(ConsumerRecord<Object, Object> record) {
+        return record;
+    }
+
+    @Override
+    public void success(ConsumerRecord<Object, Object> record, Consumer<Object, Object> consumer) {
+        long now = System.currentTimeMillis();
+        Header producedAt = record.headers().lastHeader(EventHeaders.PRODUCED_AT);
+        if (producedAt == null || producedAt.value().length != Long.BYTES)
+            return;
+        long produced = ByteBuffer.wrap(producedAt.value()).getLong();
+        if (produced < since)
+            return;
+        int index = count.getAndIncrement();
+        if (index < latencies.length)
+            latencies[index] = Math.max(0, now - produced);
+    }
+
+    /**
+     * The latencies measured so far in millis, sorted.
+     */
+    long[] sorted() {
+        long[] sorted = Arrays.copyOf(latencies, Math.min(count.get(), latencies.length));
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * The quantile of sorted latencies, -1 without any.
+     */
+    static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0)
+            return -1;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * quantile))];
+    }
+}
@@ -0,0 +1,82 @@
+package com.ashishnitw.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Results of a {@link PipelineLoadGenerator} run as properties, and the check of a run against a stored baseline :
+ * the throughput may not drop and the latencies and the lag may not grow by more than the tolerance.
+ */
+class LoadBaseline {
+
+    static final String MIX = "mix";
+    static final String THROUGHPUT = "throughput";
+    static final String P50 = "p50-ms";
+    static final String P99 = "p99-ms";
+    static final String P999 = "p999-ms";
+    static final String MAX_LAG = "max-lag";
+
+    private LoadBaseline() {
+    }
+
+    static Properties load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    static void store(Path path, Properties properties, String comment) throws IOException {
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            properties.store(writer, comment);
+        }
+    }
+
+    /**
+     * The regressions of a run, empty when it is within the tolerance of the baseline.
+     */
+    static List<String> regressions(Properties baseline, Properties result, LoadMix mix) {
+        List<String> regressions = new ArrayList<>();
+        atLeast(regressions, THROUGHPUT, baseline, result, mix.tolerance);
+        for (String latency : new String[]{P50, P99, P999})
+            atMost(regressions, latency, baseline, result, mix.tolerance, mix.latencySlackMs);
+        atMost(regressions, MAX_LAG, baseline, result, mix.tolerance, mix.lagSlack);
+        return regressions;
+    }
+
+    private static void atLeast(List<String> regressions, String key, Properties baseline, Properties result, double tolerance) {
+        double expected = value(baseline, key);
+        double actual = value(result, key);
+        double limit = expected * (1 - tolerance);
+        if (actual < limit)
+            regressions.add(String.format("%s %.1f is below %.1f (baseline %.1f)", key, actual, limit, expected));
+    }
+
+    private static void atMost(List<String> regressions, String key, Properties baseline, Properties result, double tolerance, double slack) {
+        double expected = value(baseline, key);
+        double actual = value(result, key);
+        // -1 : nothing measured, e.g. no latencies with a batch listener
+        if (expected < 0 || actual < 0)
+            return;
+        double limit = expected * (1 + tolerance) + slack;
+        if (actual > limit)
+            regressions.add(String.format("%s %.1f is above %.1f (baseline %.1f)", key, actual, limit, expected));
+    }
+
+    private static double value(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null)
+            throw new IllegalStateException("No " + key + " in the results");
+        return Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,152 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The load of a {@link PipelineLoadGenerator} run, parsed from {@code key=value} arguments. {@code consumer.*} and
+ * {@code producer.*} arguments are passed on as properties of the application, e.g.
+ * {@code consumer.events.consumer.mode=batch}.
+ */
+class LoadMix {
+
+    // the id the consumer fails with a RecoverableDataAccessException, see EventService.checkEventId
+    static final int RECOVERABLE_ID = 999;
+
+    int records = 60_000;           // measured requests
+    int warmup = 10_000;            // requests of the same mix before the measurement
+    int keys = 2_000;               // events created before the warmup, the ids the updates go to
+    int clients = 8;                // threads sending the requests
+    int rate = 2_000;               // requests per second over all clients, 0 sends as fast as the clients go
+    double updateRatio = 0.8;       // PUT /event, the rest is POST /event
+    double hotKeys = 0.01;          // share of the keys that are hot
+    double hotShare = 0.8;          // share of the updates that go to a hot key
+    int payloadBytes = 64;          // length of the book name, at most the 255 of the book.name column
+    double failureRate = 0.001;     // updates of unknown ids, DEAD at the first attempt
+    double recoverableShare = 0.05; // share of the failures updating id 999, retried by the error handler then RETRY
+    long seed = 42;
+
+    long lagIntervalMs = 1_000;
+    long drainTimeoutSeconds = 300;
+
+    String baseline = "baseline/pipeline-load.properties";
+    boolean updateBaseline;
+    double tolerance = 0.2;         // relative, for throughput, latencies and lag
+    long latencySlackMs = 5;        // absolute, on top of the tolerance, low latencies are dominated by noise
+    long lagSlack = 500;            // records, on top of the tolerance
+
+    final Map<String, String> consumerProperties = new TreeMap<>();
+
+    final Map<String, String> producerProperties = new TreeMap<>();
+
+    private String name;
+
+    static LoadMix parse(String... args) {
+        LoadMix mix = new LoadMix();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            mix.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        if (mix.payloadBytes < 1 || mix.payloadBytes > 255)
+            throw new IllegalArgumentException("payload-bytes must be between 1 and 255");
+        if (mix.clients < 1 || mix.records < 1 || mix.keys < 1)
+            throw new IllegalArgumentException("records, keys and clients must be positive");
+        mix.name = padding(mix.payloadBytes);
+        return mix;
+    }
+
+    private void set(String key, String value) {
+        if (key.startsWith("consumer.")) {
+            consumerProperties.put(key.substring("consumer.".length()), value);
+            return;
+        }
+        if (key.startsWith("producer.")) {
+            producerProperties.put(key.substring("producer.".length()), value);
+            return;
+        }
+        switch (key) {
+            case "records": records = Integer.parseInt(value); break;
+            case "warmup": warmup = Integer.parseInt(value); break;
+            case "keys": keys = Integer.parseInt(value); break;
+            case "clients": clients = Integer.parseInt(value); break;
+            case "rate": rate = Integer.parseInt(value); break;
+            case "update-ratio": updateRatio = Double.parseDouble(value); break;
+            case "hot-keys": hotKeys = Double.parseDouble(value); break;
+            case "hot-share": hotShare = Double.parseDouble(value); break;
+            case "payload-bytes": payloadBytes = Integer.parseInt(value); break;
+            case "failure-rate": failureRate = Double.parseDouble(value); break;
+            case "recoverable-share": recoverableShare = Double.parseDouble(value); break;
+            case "seed": seed = Long.parseLong(value); break;
+            case "lag-interval-ms": lagIntervalMs = Long.parseLong(value); break;
+            case "drain-timeout-seconds": drainTimeoutSeconds = Long.parseLong(value); break;
+            case "baseline": baseline = value; break;
+            case "update-baseline": updateBaseline = Boolean.parseBoolean(value); break;
+            case "tolerance": tolerance = Double.parseDouble(value); break;
+            case "latency-slack-ms": latencySlackMs = Long.parseLong(value); break;
+            case "lag-slack": lagSlack = Long.parseLong(value); break;
+            default: throw new IllegalArgumentException("Unknown argument " + key);
+        }
+    }
+
+    /**
+     * Everything that shapes the load, stored with a baseline : results of another mix are not comparable.
+     */
+    String describe() {
+        return "records=" + records + " warmup=" + warmup + " keys=" + keys + " clients=" + clients + " rate=" + rate
+                + " update-ratio=" + updateRatio + " hot-keys=" + hotKeys + " hot-share=" + hotShare
+                + " payload-bytes=" + payloadBytes + " failure-rate=" + failureRate
+                + " recoverable-share=" + recoverableShare + " seed=" + seed
+                + " consumer=" + consumerProperties + " producer=" + producerProperties;
+    }
+
+    /**
+     * The next request of a client, an event without a type : the controller sets NEW for a POST and UPDATE for a
+     * PUT, the request is a PUT when the event has an id.
+     *
+     * @param ids     existing event ids, the first ones are the hot keys
+     * @param bookIds the book of each of the ids
+     */
+    Event next(SplittableRandom random, int[] ids, int[] bookIds, AtomicInteger nextBookId) {
+        if (random.nextDouble() < failureRate) {
+            int id = random.nextDouble() < recoverableShare ? RECOVERABLE_ID : -1 - random.nextInt(keys);
+            return event(id, id);
+        }
+        if (ids.length > 0 && random.nextDouble() < updateRatio) {
+            int hot = Math.max(1, (int) (ids.length * hotKeys));
+            int index = random.nextDouble() < hotShare ? random.nextInt(hot) : random.nextInt(ids.length);
+            return event(ids[index], bookIds[index]);
+        }
+        return create(nextBookId);
+    }
+
+    /**
+     * A new event with a book of its own.
+     */
+    Event create(AtomicInteger nextBookId) {
+        return event(null, nextBookId.getAndIncrement());
+    }
+
+    private Event event(Integer id, int bookId) {
+        return Event.builder().id(id).book(Book.builder().id(bookId).name(name).build()).build();
+    }
+
+    static boolean isUpdate(Event event) {
+        return event.getId() != null;
+    }
+
+    private static String padding(int length) {
+        char[] name = new char[length];
+        Arrays.fill(name, 'x');
+        String prefix = "Kafka Using Spring Boot ";
+        prefix.getChars(0, Math.min(prefix.length(), length), name, 0);
+        return new String(name);
+    }
+}
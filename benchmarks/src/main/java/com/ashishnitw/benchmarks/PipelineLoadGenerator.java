@@ -0,0 +1,352 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsconsumer.EventsConsumerApplication;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsproducer.EventsProducerApplication;
+import com.ashishnitw.eventsproducer.model.Event;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of events through the whole pipeline : HTTP requests to the EventController of the producer, the
+ * library-events topic of an {@link EmbeddedKafkaBroker} with 3 partitions, the EventConsumer and the H2 database of
+ * the consumer, both applications running in this JVM with their own application.yml. Prints the sustained
+ * throughput, the end-to-end latency percentiles and the consumer lag over time, and exits with 1 when the run
+ * regressed past the baseline committed under {@code baseline/}. A run with {@code update-baseline=true} stores its
+ * results as the new baseline, without it a missing baseline fails the run before any load is sent.
+ * <p>
+ * Arguments : key=value pairs, see {@link LoadMix}
+ */
+public class PipelineLoadGenerator {
+
+    static final String TOPIC = "library-events";
+
+    static final int PARTITIONS = 3;
+
+    static final String GROUP = "library-events-listener-group";
+
+    static final Path RESULT = Paths.get("target/pipeline-load.properties");
+
+    static final Path LAG = Paths.get("target/pipeline-load-lag.csv");
+
+    private final LoadMix mix;
+
+    private final AdminClient admin;
+
+    private final String url;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    private final AtomicInteger nextBookId = new AtomicInteger(1);
+
+    // the events the updates go to, sorted by id, the first ones are the hot keys
+    private int[] ids = new int[0];
+
+    private int[] bookIds = new int[0];
+
+    private int phases;
+
+    PipelineLoadGenerator(LoadMix mix, AdminClient admin, String url) {
+        this.mix = mix;
+        this.admin = admin;
+        this.url = url;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadMix mix = LoadMix.parse(args);
+        if (!mix.updateBaseline && !Files.exists(Paths.get(mix.baseline))) {
+            System.out.printf("No baseline at %s, record one with update-baseline=true%n", Paths.get(mix.baseline).toAbsolutePath());
+            System.exit(1);
+        }
+        // keep-alive connections of the HttpURLConnection behind the RestTemplate, one per client
+        System.setProperty("http.maxConnections", String.valueOf(mix.clients));
+
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, PARTITIONS, TOPIC);
+        broker.afterPropertiesSet();
+        LatencyProbe latencyProbe = new LatencyProbe(mix.records);
+        ConfigurableApplicationContext consumer = null;
+        ConfigurableApplicationContext producer = null;
+        int exitCode = 1;
+        try (AdminClient admin = AdminClient.create(Collections.<String, Object>singletonMap(
+                AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString()))) {
+            consumer = start(EventsConsumerApplication.class, consumerProperties(broker, mix),
+                    context -> context.getBeanFactory().registerSingleton("latencyProbe", latencyProbe));
+            producer = start(EventsProducerApplication.class, producerProperties(broker, mix), context -> {
+            });
+            String url = "http://localhost:" + producer.getEnvironment().getProperty("local.server.port") + "/event";
+            exitCode = new PipelineLoadGenerator(mix, admin, url).run(consumer.getBean(EventRepository.class), latencyProbe);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (producer != null)
+                producer.close();
+            if (consumer != null)
+                consumer.close();
+            broker.destroy();
+        }
+        System.exit(exitCode);
+    }
+
+    int run(EventRepository eventRepository, LatencyProbe latencyProbe) throws Exception {
+        // the ids of new events come from the database sequence of the consumer, create the ones to update first
+        System.out.printf("%nCreating %d events%n", mix.keys);
+        awaitDrained(send(mix.keys, true));
+        loadKeys(eventRepository);
+
+        System.out.printf("Warming up with %d requests%n", mix.warmup);
+        awaitDrained(send(mix.warmup, false));
+
+        System.out.printf("Measuring %d requests : %s%n", mix.records, mix.describe());
+        List<long[]> lagSamples = Collections.synchronizedList(new ArrayList<>());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        long start = System.currentTimeMillis();
+        latencyProbe.start(start);
+        sampler.scheduleAtFixedRate(() -> {
+            try {
+                lagSamples.add(new long[]{System.currentTimeMillis() - start, offsets().lag});
+            } catch (Exception e) {
+                System.out.printf("Lag sample failed : %s%n", e.getMessage());
+            }
+        }, 0, mix.lagIntervalMs, TimeUnit.MILLISECONDS);
+        Phase measured;
+        long drained;
+        try {
+            measured = send(mix.records, false);
+            drained = awaitDrained(measured);
+        } finally {
+            sampler.shutdownNow();
+        }
+
+        long[] latencies = latencyProbe.sorted();
+        double seconds = (drained - start) / 1000.0;
+        long maxLag = 0;
+        synchronized (lagSamples) {
+            for (long[] sample : lagSamples)
+                maxLag = Math.max(maxLag, sample[1]);
+        }
+        Properties result = new Properties();
+        result.setProperty(LoadBaseline.MIX, mix.describe());
+        result.setProperty(LoadBaseline.THROUGHPUT, String.valueOf(Math.round(measured.sent / seconds * 10) / 10.0));
+        result.setProperty(LoadBaseline.P50, String.valueOf(LatencyProbe.percentile(latencies, 0.50)));
+        result.setProperty(LoadBaseline.P99, String.valueOf(LatencyProbe.percentile(latencies, 0.99)));
+        result.setProperty(LoadBaseline.P999, String.valueOf(LatencyProbe.percentile(latencies, 0.999)));
+        result.setProperty(LoadBaseline.MAX_LAG, String.valueOf(maxLag));
+        result.setProperty("sent", String.valueOf(measured.sent));
+        result.setProperty("rejected", String.valueOf(measured.rejected));
+        result.setProperty("latency-samples", String.valueOf(latencies.length));
+        result.setProperty("seconds", String.valueOf(seconds));
+        print(result, lagSamples);
+        LoadBaseline.store(RESULT, result, "pipeline load result");
+
+        Path baselinePath = Paths.get(mix.baseline);
+        if (mix.updateBaseline) {
+            LoadBaseline.store(baselinePath, result, "pipeline load baseline, replace it with update-baseline=true");
+            System.out.printf("%nBaseline written to %s%n", baselinePath.toAbsolutePath());
+            return 0;
+        }
+        Properties baseline = LoadBaseline.load(baselinePath);
+        if (!mix.describe().equals(baseline.getProperty(LoadBaseline.MIX))) {
+            System.out.printf("%nThe baseline was recorded with another mix, compare the same mix or replace it with update-baseline=true :%n  %s%n",
+                    baseline.getProperty(LoadBaseline.MIX));
+            return 1;
+        }
+        List<String> regressions = LoadBaseline.regressions(baseline, result, mix);
+        if (regressions.isEmpty()) {
+            System.out.printf("%nNo regression against %s%n", baselinePath);
+            return 0;
+        }
+        System.out.printf("%nRegressed against %s :%n", baselinePath);
+        regressions.forEach(regression -> System.out.printf("  %s%n", regression));
+        return 1;
+    }
+
+    private Phase send(int requests, boolean create) throws Exception {
+        long endBefore = offsets().end;
+        int phase = phases++;
+        ExecutorService clients = Executors.newFixedThreadPool(mix.clients);
+        try {
+            List<Future<int[]>> futures = new ArrayList<>(mix.clients);
+            for (int client = 0; client < mix.clients; client++) {
+                int share = requests / mix.clients + (client < requests % mix.clients ? 1 : 0);
+                // the same seed, phase and client send the same requests on every run
+                SplittableRandom random = new SplittableRandom(mix.seed * 1_000_003 + phase * 1_009 + client);
+                futures.add(clients.submit(() -> sendShare(share, random, create)));
+            }
+            Phase result = new Phase();
+            for (Future<int[]> future : futures) {
+                int[] counts = future.get();
+                result.sent += counts[0];
+                result.rejected += counts[1];
+            }
+            result.expectedEnd = endBefore + result.sent;
+            return result;
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    // the requests of one client, paced to its share of the rate : a request that is late goes out right away
+    private int[] sendShare(int requests, SplittableRandom random, boolean create) {
+        long intervalNanos = mix.rate > 0 ? TimeUnit.SECONDS.toNanos(mix.clients) / mix.rate : 0;
+        long next = System.nanoTime();
+        int sent = 0;
+        int rejected = 0;
+        for (int i = 0; i < requests; i++) {
+            if (intervalNanos > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+                next += intervalNanos;
+            }
+            Event event = create ? mix.create(nextBookId) : mix.next(random, ids, bookIds, nextBookId);
+            try {
+                restTemplate.exchange(url, LoadMix.isUpdate(event) ? HttpMethod.PUT : HttpMethod.POST, new HttpEntity<>(event), String.class);
+                sent++;
+            } catch (RestClientException e) {
+                // 429 from the admission control, 400, or the producer not reachable
+                rejected++;
+            }
+        }
+        return new int[]{sent, rejected};
+    }
+
+    // until every accepted request is on the topic and the listener has committed past it
+    private long awaitDrained(Phase phase) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(mix.drainTimeoutSeconds);
+        while (true) {
+            Offsets offsets = offsets();
+            if (offsets.end >= phase.expectedEnd && offsets.lag == 0)
+                return System.currentTimeMillis();
+            if (System.nanoTime() > deadline)
+                throw new IllegalStateException("Not drained after " + mix.drainTimeoutSeconds + "s, " + (phase.expectedEnd - offsets.end)
+                        + " records not on the topic, lag " + offsets.lag);
+            Thread.sleep(100);
+        }
+    }
+
+    private Offsets offsets() throws Exception {
+        Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(GROUP).partitionsToOffsetAndMetadata().get();
+        Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+        for (int partition = 0; partition < PARTITIONS; partition++)
+            latest.put(new TopicPartition(TOPIC, partition), OffsetSpec.latest());
+        Offsets offsets = new Offsets();
+        for (Map.Entry<TopicPartition, ListOffsetsResultInfo> end : admin.listOffsets(latest).all().get().entrySet()) {
+            OffsetAndMetadata position = committed.get(end.getKey());
+            offsets.end += end.getValue().offset();
+            offsets.lag += end.getValue().offset() - (position == null ? 0 : position.offset());
+        }
+        return offsets;
+    }
+
+    private void loadKeys(EventRepository eventRepository) {
+        // an update of 999 fails on purpose, it is only sent as one of the failures
+        Map<Integer, Integer> books = new TreeMap<>();
+        for (com.ashishnitw.eventsconsumer.model.Event event : eventRepository.findAll()) {
+            if (event.getBook() != null && event.getId() != LoadMix.RECOVERABLE_ID)
+                books.put(event.getId(), event.getBook().getId());
+        }
+        ids = books.keySet().stream().mapToInt(Integer::intValue).toArray();
+        bookIds = books.values().stream().mapToInt(Integer::intValue).toArray();
+        nextBookId.set(books.values().stream().mapToInt(Integer::intValue).max().orElse(0) + 1);
+    }
+
+    private static void print(Properties result, List<long[]> lagSamples) throws Exception {
+        System.out.printf("%n%12s %10s %10s %10s %10s %10s %10s%n", "records/sec", "p50 ms", "p99 ms", "p999 ms", "max lag", "rejected", "seconds");
+        System.out.printf("%12s %10s %10s %10s %10s %10s %10s%n", result.getProperty(LoadBaseline.THROUGHPUT),
+                result.getProperty(LoadBaseline.P50), result.getProperty(LoadBaseline.P99), result.getProperty(LoadBaseline.P999),
+                result.getProperty(LoadBaseline.MAX_LAG), result.getProperty("rejected"), result.getProperty("seconds"));
+
+        System.out.printf("%nConsumer lag over time, seconds : records%n");
+        Files.createDirectories(LAG.getParent());
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(LAG, StandardCharsets.UTF_8))) {
+            csv.println("seconds,lag");
+            int column = 0;
+            synchronized (lagSamples) {
+                for (long[] sample : lagSamples) {
+                    csv.printf("%.1f,%d%n", sample[0] / 1000.0, sample[1]);
+                    System.out.printf("%6.0f : %-8d%s", sample[0] / 1000.0, sample[1], ++column % 8 == 0 ? System.lineSeparator() : "");
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    static ConfigurableApplicationContext start(Class<?> application, Map<String, String> properties,
+                                                ApplicationContextInitializer<ConfigurableApplicationContext> initializer) throws Exception {
+        List<String> args = new ArrayList<>();
+        // both jars have an application.yml, each application reads its own
+        args.add("--spring.config.location=" + ProducerProfileLoadGenerator.applicationYml(application).getURL());
+        args.add("--server.port=0");
+        properties.forEach((key, value) -> args.add("--" + key + "=" + value));
+        return new SpringApplicationBuilder(application).initializers(initializer).run(args.toArray(new String[0]));
+    }
+
+    static Map<String, String> consumerProperties(EmbeddedKafkaBroker broker, LoadMix mix) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.kafka.consumer.bootstrap-servers", broker.getBrokersAsString());
+        properties.put("spring.kafka.producer.bootstrap-servers", broker.getBrokersAsString());
+        properties.put("spring.kafka.consumer.auto-offset-reset", "earliest");
+        properties.put("logging.level.events.records", "WARN");
+        properties.put("logging.level.events.payloads", "WARN");
+        properties.putAll(mix.consumerProperties);
+        return properties;
+    }
+
+    static Map<String, String> producerProperties(EmbeddedKafkaBroker broker, LoadMix mix) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.kafka.producer.bootstrap-servers", broker.getBrokersAsString());
+        properties.put("spring.kafka.admin.properties.bootstrap.servers", broker.getBrokersAsString());
+        // a fresh spool per run, clear of a local producer and of the records a previous run spooled
+        properties.put("events.spool.dir", Files.createTempDirectory("pipeline-load-spool").toString());
+        properties.put("logging.level.events.records", "WARN");
+        properties.put("logging.level.events.payloads", "WARN");
+        properties.putAll(mix.producerProperties);
+        return properties;
+    }
+
+    static class Phase {
+        int sent;
+        int rejected;
+        long expectedEnd;
+    }
+
+    static class Offsets {
+        long end;
+        long lag;
+    }
+}
@@ -0,0 +1,90 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsconsumer.EventsConsumerApplication;
+import com.ashishnitw.eventsconsumer.codec.EventCodec;
+import com.ashishnitw.eventsconsumer.codec.EventCodecs;
+import com.ashishnitw.eventsconsumer.constant.EventType;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventService#processEvent} against the consumer application context backed by an in-memory H2, with the
+ * Kafka listeners switched off. Covers decode, dispatch on the event type, validation and the JPA write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessEventBenchmark {
+
+    @Param({"json", "binary"})
+    String format;
+
+    ConfigurableApplicationContext context;
+
+    EventService eventService;
+
+    EventCodec codec;
+
+    int updateEventId;
+
+    int nextBookId = 1_000;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(EventsConsumerApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        // both applications ship an application.yml, do not pick up either of them
+                        "spring.config.name=process-event-benchmark",
+                        "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "spring.jpa.generate-ddl=true",
+                        "topics.retry=library-events-retry",
+                        "libraryListener.startup=false",
+                        "retryListener.startup=false",
+                        "events.retry.interval-ms=3600000",
+                        "logging.level.com.ashishnitw=WARN")
+                .run();
+        eventService = context.getBean(EventService.class);
+        codec = context.getBean(EventCodecs.class).forFormat(format);
+
+        Event event = Event.builder().type(EventType.NEW).book(Book.builder().id(1).name("Kafka Book").build()).build();
+        event.getBook().setEvent(event);
+        updateEventId = context.getBean(EventRepository.class).save(event).getId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void processNewEvent() {
+        Event event = Event.builder().type(EventType.NEW).book(Book.builder().id(nextBookId++).name("Kafka Book").build()).build();
+        eventService.processEvent(record(event));
+    }
+
+    @Benchmark
+    public void processUpdateEvent() {
+        Event event = Event.builder().id(updateEventId).type(EventType.UPDATE).book(Book.builder().id(1).name("Kafka Book 2.0").build()).build();
+        eventService.processEvent(record(event));
+    }
+
+    private ConsumerRecord<Integer, byte[]> record(Event event) {
+        ConsumerRecord<Integer, byte[]> consumerRecord = new ConsumerRecord<>("library-events", 0, 0L, event.getId(), codec.encode(event));
+        consumerRecord.headers().add(EventCodec.FORMAT_HEADER, format.getBytes(StandardCharsets.UTF_8));
+        return consumerRecord;
+    }
+}
@@ -0,0 +1,183 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsproducer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodecs;
+import com.ashishnitw.eventsproducer.codec.JsonEventCodec;
+import com.ashishnitw.eventsproducer.config.AdmissionProperties;
+import com.ashishnitw.eventsproducer.config.ProducerProfileProperties;
+import com.ashishnitw.eventsproducer.config.SpoolProperties;
+import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.logging.RecordLogger;
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+import com.ashishnitw.eventsproducer.producer.EventProducer;
+import com.ashishnitw.eventsproducer.producer.EventSpool;
+import com.ashishnitw.eventsproducer.producer.ProducerProfiles;
+import com.ashishnitw.eventsproducer.producer.SendAdmission;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.Metric;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the same load through every producer profile of the producer's application.yml against an
+ * {@link EmbeddedKafkaBroker} and prints records/sec, bytes/record on the wire and the send latency percentiles.
+ * <p>
+ * Arguments : [records per profile, default 200000] [comma separated profiles, default all of them]
+ */
+public class ProducerProfileLoadGenerator {
+
+    static final String TOPIC = "library-events";
+
+    static final String[] WORDS = {"Kafka", "Spring", "Boot", "Streams", "Consumer", "Producer", "Guide", "Patterns", "Event", "Driven"};
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        ProducerProfileProperties profileProperties = loadProducerProfiles();
+        List<String> names = args.length > 1 ? Arrays.asList(args[1].split(",")) : new ArrayList<>(profileProperties.getProfiles().keySet());
+
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, 3, TOPIC);
+        broker.afterPropertiesSet();
+        KafkaProperties kafkaProperties = new KafkaProperties();
+        kafkaProperties.getProducer().setBootstrapServers(Collections.singletonList(broker.getBrokersAsString()));
+        kafkaProperties.getProducer().setAcks("all");
+        ProducerProfiles producerProfiles = new ProducerProfiles(kafkaProperties, profileProperties);
+        try {
+            EventProducer eventProducer = eventProducer(producerProfiles);
+            System.out.printf("%n%-16s %10s %12s %14s %10s %10s %8s%n", "profile", "records", "records/sec", "bytes/record", "p50 ms", "p99 ms", "failed");
+            for (String name : names) {
+                // warm up the producer and the broker side of the profile before measuring it
+                send(eventProducer, producerProfiles, name, Math.max(1, records / 10));
+                Result result = send(eventProducer, producerProfiles, name, records);
+                System.out.printf("%-16s %10d %12.0f %14.1f %10.2f %10.2f %8d%n", name, records, result.recordsPerSecond,
+                        result.bytesPerRecord, result.p50Millis, result.p99Millis, result.failed);
+            }
+        } finally {
+            producerProfiles.destroy();
+            broker.destroy();
+        }
+    }
+
+    static Result send(EventProducer eventProducer, ProducerProfiles producerProfiles, String profile, int records) throws Exception {
+        long[] latencies = new long[records];
+        CountDownLatch done = new CountDownLatch(records);
+        AtomicInteger failed = new AtomicInteger();
+        double bytesBefore = outgoingBytes(producerProfiles, profile);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            int index = i;
+            long sent = System.nanoTime();
+            ListenableFuture<?> future = eventProducer.sendLibraryEvent_Approach2(event(i), profile);
+            future.addCallback(result -> {
+                latencies[index] = System.nanoTime() - sent;
+                done.countDown();
+            }, ex -> {
+                latencies[index] = System.nanoTime() - sent;
+                failed.incrementAndGet();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        Result result = new Result();
+        result.recordsPerSecond = records / (elapsed / 1e9);
+        result.bytesPerRecord = (outgoingBytes(producerProfiles, profile) - bytesBefore) / records;
+        result.p50Millis = latencies[(int) (records * 0.50)] / 1e6;
+        result.p99Millis = latencies[Math.min(records - 1, (int) (records * 0.99))] / 1e6;
+        result.failed = failed.get();
+        return result;
+    }
+
+    static Event event(int i) {
+        String name = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + (i % 97);
+        return Event.builder()
+                .id(i % 10_000)
+                .type(EventType.UPDATE)
+                .book(Book.builder().id(i % 10_000).name(name).build())
+                .build();
+    }
+
+    // bytes the producer of the profile has written to the broker, compressed and with the request overhead
+    static double outgoingBytes(ProducerProfiles producerProfiles, String profile) {
+        return producerProfiles.template(profile).metrics().entrySet().stream()
+                .filter(metric -> metric.getKey().name().equals("outgoing-byte-total") && metric.getKey().group().equals("producer-metrics"))
+                .map(metric -> ((Metric) metric.getValue()).metricValue())
+                .mapToDouble(value -> ((Number) value).doubleValue())
+                .findFirst()
+                .orElse(0);
+    }
+
+    static EventProducer eventProducer(ProducerProfiles producerProfiles) throws Exception {
+        EventProducer eventProducer = new EventProducer();
+        set(eventProducer, "eventCodecs", new EventCodecs(Arrays.asList(new JsonEventCodec(new ObjectMapper()), new BinaryEventCodec()), JsonEventCodec.FORMAT));
+        set(eventProducer, "meterRegistry", new SimpleMeterRegistry());
+        set(eventProducer, "producerProfiles", producerProfiles);
+        set(eventProducer, "sendAdmission", unlimitedAdmission());
+        set(eventProducer, "eventSpool", disabledSpool());
+        // summaries only, no payloads
+        set(eventProducer, "recordLogger", new RecordLogger(0));
+        return eventProducer;
+    }
+
+    static ProducerProfileProperties loadProducerProfiles() throws Exception {
+        Resource yml = applicationYml(EventProducer.class);
+        Binder binder = new Binder(ConfigurationPropertySources.from(new YamlPropertySourceLoader().load("events-producer", yml)));
+        return binder.bind("events.producer", ProducerProfileProperties.class).get();
+    }
+
+    // the consumer jar on the classpath has an application.yml as well, the one of the module of the class
+    static Resource applicationYml(Class<?> moduleClass) throws Exception {
+        URL location = moduleClass.getProtectionDomain().getCodeSource().getLocation();
+        return location.getPath().endsWith(".jar")
+                ? new UrlResource("jar:" + location + "!/application.yml")
+                : new UrlResource(new URL(location, "application.yml"));
+    }
+
+    // the records are sent open loop, admission control would shed most of them instead of measuring the profile
+    static SendAdmission unlimitedAdmission() {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setEnabled(false);
+        return new SendAdmission(properties, new SimpleMeterRegistry());
+    }
+
+    // a failed send should show up as a failure of the profile, not be replayed later
+    static EventSpool disabledSpool() {
+        SpoolProperties properties = new SpoolProperties();
+        properties.setEnabled(false);
+        return new EventSpool(properties, new SimpleMeterRegistry());
+    }
+
+    static void set(Object target, String field, Object value) throws Exception {
+        Field declaredField = target.getClass().getDeclaredField(field);
+        declaredField.setAccessible(true);
+        declaredField.set(target, value);
+    }
+
+    static class Result {
+        double recordsPerSecond;
+        double bytesPerRecord;
+        double p50Millis;
+        double p99Millis;
+        int failed;
+    }
+}
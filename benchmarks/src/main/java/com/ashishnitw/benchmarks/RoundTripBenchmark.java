@@ -0,0 +1,131 @@
+package com.ashishnitw.benchmarks;
+
+import com.ashishnitw.eventsproducer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodecs;
+import com.ashishnitw.eventsproducer.codec.JsonEventCodec;
+import com.ashishnitw.eventsproducer.config.ProducerProfileProperties;
+import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.logging.RecordLogger;
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+import com.ashishnitw.eventsproducer.producer.EventProducer;
+import com.ashishnitw.eventsproducer.producer.ProducerProfiles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.apache.kafka.common.serialization.IntegerSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One event sent through {@link EventProducer} to an {@link EmbeddedKafkaBroker} and polled back and decoded by a
+ * plain consumer, measured as a latency distribution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    static final String TOPIC = "library-events";
+
+    @Param({JsonEventCodec.FORMAT, BinaryEventCodec.FORMAT})
+    String format;
+
+    EmbeddedKafkaBroker broker;
+
+    DefaultKafkaProducerFactory<Integer, byte[]> producerFactory;
+
+    EventProducer eventProducer;
+
+    KafkaConsumer<Integer, byte[]> consumer;
+
+    com.ashishnitw.eventsconsumer.codec.EventCodecs consumerCodecs;
+
+    Event event;
+
+    Iterator<ConsumerRecord<Integer, byte[]>> pending = Collections.emptyIterator();
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = new EmbeddedKafkaBroker(1, false, 1, TOPIC);
+        broker.afterPropertiesSet();
+
+        Map<String, Object> producerProps = new HashMap<>();
+        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        producerProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, IntegerSerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        producerFactory = new DefaultKafkaProducerFactory<>(producerProps);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        eventProducer = new EventProducer();
+        set(eventProducer, "kafkaTemplate", new KafkaTemplate<>(producerFactory));
+        set(eventProducer, "eventCodecs", new EventCodecs(Arrays.asList(new JsonEventCodec(objectMapper), new BinaryEventCodec()), format));
+        set(eventProducer, "meterRegistry", new SimpleMeterRegistry());
+        set(eventProducer, "producerProfiles", new ProducerProfiles(new KafkaProperties(), new ProducerProfileProperties()));
+        set(eventProducer, "sendAdmission", ProducerProfileLoadGenerator.unlimitedAdmission());
+        set(eventProducer, "eventSpool", ProducerProfileLoadGenerator.disabledSpool());
+        // summaries only, no payloads
+        set(eventProducer, "recordLogger", new RecordLogger(0));
+
+        Map<String, Object> consumerProps = new HashMap<>();
+        consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProps.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, 1);
+        consumer = new KafkaConsumer<>(consumerProps, new IntegerDeserializer(), new ByteArrayDeserializer());
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        consumer.assign(Collections.singletonList(partition));
+        consumer.seekToEnd(Collections.singletonList(partition));
+        consumer.position(partition);
+
+        consumerCodecs = new com.ashishnitw.eventsconsumer.codec.EventCodecs(Arrays.asList(
+                new com.ashishnitw.eventsconsumer.codec.JsonEventCodec(objectMapper),
+                new com.ashishnitw.eventsconsumer.codec.BinaryEventCodec()));
+
+        event = Event.builder().id(4711).type(EventType.UPDATE)
+                .book(Book.builder().id(123).name("Kafka Using Spring Boot").build()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        consumer.close();
+        producerFactory.destroy();
+        broker.destroy();
+    }
+
+    @Benchmark
+    public com.ashishnitw.eventsconsumer.model.Event roundTrip() throws Exception {
+        eventProducer.sendLibraryEvent_Approach2(event).get();
+        while (!pending.hasNext())
+            pending = consumer.poll(Duration.ofMillis(100)).iterator();
+        return consumerCodecs.decode(pending.next());
+    }
+
+    private static void set(Object target, String field, Object value) throws ReflectiveOperationException {
+        Field declaredField = target.getClass().getDeclaredField(field);
+        declaredField.setAccessible(true);
+        declaredField.set(target, value);
+    }
+}
@@ -0,0 +1,68 @@
+package com.ashishnitw.eventsproducer.producer;
+
+import com.ashishnitw.eventsproducer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodecs;
+import com.ashishnitw.eventsproducer.codec.JsonEventCodec;
+import com.ashishnitw.eventsproducer.constant.EventHeaders;
+import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventProducer#buildProducerRecord} in isolation : value encoding plus header construction. Lives in the
+ * producer package because the method is package private.
+ * <p>
+ * {@code previousBuildProducerRecord} keeps the construction the producer used before the constant headers were
+ * shared (a header list per record, {@code getBytes} per header, a {@code ByteBuffer} for the timestamp). Run with
+ * {@code -prof gc} and compare {@code gc.alloc.rate.norm}, the bytes allocated per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildProducerRecordBenchmark {
+
+    @Param({JsonEventCodec.FORMAT, BinaryEventCodec.FORMAT})
+    String format;
+
+    EventProducer eventProducer;
+
+    Event event;
+
+    @Setup
+    public void setUp() {
+        eventProducer = new EventProducer();
+        eventProducer.eventCodecs = new EventCodecs(Arrays.asList(new JsonEventCodec(new ObjectMapper()), new BinaryEventCodec()), format);
+        event = Event.builder().id(4711).type(EventType.UPDATE)
+                .book(Book.builder().id(123).name("Kafka Using Spring Boot").build()).build();
+    }
+
+    @Benchmark
+    public ProducerRecord<Integer, byte[]> buildProducerRecord() {
+        return eventProducer.buildProducerRecord(event.getId(), event, "library-events");
+    }
+
+    @Benchmark
+    public ProducerRecord<Integer, byte[]> previousBuildProducerRecord() {
+        EventCodec codec = eventProducer.eventCodecs.writer();
+        byte[] value = codec.encode(event);
+        List<Header> recordHeaders = Arrays.asList(new RecordHeader("event-source", "scanner".getBytes()),
+                new RecordHeader(EventCodec.FORMAT_HEADER, codec.format().getBytes(StandardCharsets.UTF_8)),
+                new RecordHeader(EventHeaders.PRODUCED_AT, ByteBuffer.allocate(Long.BYTES).putLong(System.currentTimeMillis()).array()));
+        return new ProducerRecord<>("library-events", null, event.getId(), value, recordHeaders);
+    }
+}
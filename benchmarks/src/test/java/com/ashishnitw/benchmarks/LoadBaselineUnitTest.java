@@ -0,0 +1,81 @@
+package com.ashishnitw.benchmarks;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+public class LoadBaselineUnitTest {
+
+    @TempDir
+    Path dir;
+
+    // tolerance 0.2, latency slack 5 ms, lag slack 500 records
+    LoadMix mix = LoadMix.parse();
+
+    @Test
+    void regressions_noneWithinTolerance() {
+        Properties baseline = result(1000, 10, 50, 100, 2000);
+        // throughput down almost 20 %, latencies and lag up almost 20 % plus the slack
+        Properties result = result(801, 16, 64, 124, 2899);
+
+        Assertions.assertTrue(LoadBaseline.regressions(baseline, result, mix).isEmpty());
+    }
+
+    @Test
+    void regressions_throughputBelowTolerance() {
+        List<String> regressions = LoadBaseline.regressions(result(1000, 10, 50, 100, 2000), result(799, 10, 50, 100, 2000), mix);
+
+        Assertions.assertEquals(1, regressions.size());
+        Assertions.assertTrue(regressions.get(0).startsWith(LoadBaseline.THROUGHPUT));
+    }
+
+    @Test
+    void regressions_latencyAndLagAboveTolerance() {
+        List<String> regressions = LoadBaseline.regressions(result(1000, 10, 50, 100, 2000), result(1000, 10, 66, 100, 2901), mix);
+
+        Assertions.assertEquals(2, regressions.size());
+        Assertions.assertTrue(regressions.get(0).startsWith(LoadBaseline.P99));
+        Assertions.assertTrue(regressions.get(1).startsWith(LoadBaseline.MAX_LAG));
+    }
+
+    @Test
+    void regressions_skipLatenciesNotMeasured() {
+        Properties baseline = result(1000, -1, -1, -1, 2000);
+
+        Assertions.assertTrue(LoadBaseline.regressions(baseline, result(1000, 500, 500, 500, 2000), mix).isEmpty());
+    }
+
+    @Test
+    void regressions_failOnMissingValue() {
+        Properties result = result(1000, 10, 50, 100, 2000);
+        result.remove(LoadBaseline.MAX_LAG);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> LoadBaseline.regressions(result(1000, 10, 50, 100, 2000), result, mix));
+    }
+
+    @Test
+    void storeAndLoad_roundTrip() throws IOException {
+        Path path = dir.resolve("baseline/pipeline-load.properties");
+        Properties result = result(1000, 10, 50, 100, 2000);
+        result.setProperty(LoadBaseline.MIX, mix.describe());
+
+        LoadBaseline.store(path, result, "test");
+
+        Assertions.assertEquals(result, LoadBaseline.load(path));
+    }
+
+    private static Properties result(double throughput, long p50, long p99, long p999, long maxLag) {
+        Properties result = new Properties();
+        result.setProperty(LoadBaseline.THROUGHPUT, String.valueOf(throughput));
+        result.setProperty(LoadBaseline.P50, String.valueOf(p50));
+        result.setProperty(LoadBaseline.P99, String.valueOf(p99));
+        result.setProperty(LoadBaseline.P999, String.valueOf(p999));
+        result.setProperty(LoadBaseline.MAX_LAG, String.valueOf(maxLag));
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ashishnitw.eventsconsumer.codec;
+
+import com.ashishnitw.eventsconsumer.model.Event;
+
+/**
+ * Turns the record value back into an {@link Event}. The name of the codec travels in the {@link #FORMAT_HEADER} header
+ * so the consumer can pick the matching decoder, records without the header are JSON.
+ */
+public interface EventCodec {
+
+    String FORMAT_HEADER = "event-format";
+
+    String format();
+
+    byte[] encode(Event event);
+
+    Event decode(byte[] payload);
+}
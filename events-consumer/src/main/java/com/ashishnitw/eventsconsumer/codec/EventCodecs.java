@@ -0,0 +1,46 @@
+package com.ashishnitw.eventsconsumer.codec;
+
+import com.ashishnitw.eventsconsumer.model.Event;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the available {@link EventCodec}s. A record is decoded with the codec named in its format header, so
+ * JSON and binary records can be consumed side by side while producers migrate.
+ */
+@Component
+public class EventCodecs {
+
+    private final Map<String, EventCodec> codecs = new HashMap<>();
+
+    public EventCodecs(List<EventCodec> codecs) {
+        codecs.forEach(codec -> this.codecs.put(codec.format(), codec));
+    }
+
+    public Event decode(ConsumerRecord<Integer, byte[]> consumerRecord) {
+        return reader(consumerRecord.headers()).decode(consumerRecord.value());
+    }
+
+    public EventCodec reader(Headers headers) {
+        return forFormat(formatOf(headers));
+    }
+
+    public EventCodec forFormat(String format) {
+        EventCodec codec = codecs.get(format);
+        if (codec == null)
+            throw new IllegalArgumentException("No event codec for format " + format);
+        return codec;
+    }
+
+    public static String formatOf(Headers headers) {
+        Header header = headers.lastHeader(EventCodec.FORMAT_HEADER);
+        return header == null ? JsonEventCodec.FORMAT : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
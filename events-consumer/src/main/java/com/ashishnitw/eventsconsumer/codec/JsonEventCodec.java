@@ -0,0 +1,129 @@
+package com.ashishnitw.eventsconsumer.codec;
+
+import com.ashishnitw.eventsconsumer.constant.EventType;
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Decodes with the streaming token API instead of data binding : only {@code id}, {@code type} and the {@code id} and
+ * {@code name} of the book are read, every other field is skipped without being materialized. The producer writes
+ * {@code id} and {@code type} first, so an unknown type is rejected before the book is parsed.
+ */
+@Component
+public class JsonEventCodec implements EventCodec {
+
+    public static final String FORMAT = "json";
+
+    private final ObjectMapper objectMapper;
+
+    private final JsonFactory jsonFactory;
+
+    public JsonEventCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    public String format() {
+        return FORMAT;
+    }
+
+    @Override
+    public byte[] encode(Event event) {
+        try {
+            // straight to UTF-8 bytes, no intermediate String
+            return objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new SerializationException("Unable to encode event as json", e);
+        }
+    }
+
+    @Override
+    public Event decode(byte[] payload) {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new SerializationException("Json event is not an object");
+            Event event = new Event();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id":
+                        event.setId(readInteger(parser, value, "id"));
+                        break;
+                    case "type":
+                        event.setType(readType(parser, value));
+                        break;
+                    case "book":
+                        event.setBook(readBook(parser, value));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return event;
+        } catch (IOException e) {
+            throw new SerializationException("Unable to decode json event", e);
+        }
+    }
+
+    private static Book readBook(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL)
+            return null;
+        if (token != JsonToken.START_OBJECT)
+            throw new SerializationException("Json event book is not an object");
+        Book book = new Book();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id":
+                    book.setId(readInteger(parser, value, "book.id"));
+                    break;
+                case "name":
+                    book.setName(value == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return book;
+    }
+
+    private static EventType readType(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL)
+            return null;
+        String type = parser.getValueAsString();
+        try {
+            return EventType.valueOf(type);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new SerializationException("Unknown event type " + type);
+        }
+    }
+
+    // numbers in strings are accepted like the data binding did
+    private static Integer readInteger(JsonParser parser, JsonToken token, String field) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return parser.getIntValue();
+            case VALUE_STRING:
+                try {
+                    return Integer.valueOf(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw new SerializationException("Json event " + field + " is not a number");
+                }
+            default:
+                throw new SerializationException("Json event " + field + " is not a number");
+        }
+    }
+}
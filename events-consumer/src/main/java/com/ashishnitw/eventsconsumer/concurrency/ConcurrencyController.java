@@ -0,0 +1,267 @@
+package com.ashishnitw.eventsconsumer.concurrency;
+
+import com.ashishnitw.eventsconsumer.concurrency.ConcurrencyDecision.Action;
+import com.ashishnitw.eventsconsumer.config.ConcurrencyProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the {@code library-events} listener containers to the load ({@code events.consumer.concurrency.adaptive}).
+ * Every {@code interval-ms} it reads three signals : the records lag of the most lagging partition (consumer
+ * metrics of the containers), the mean time of {@code EventService.processEvent} since the previous run
+ * ({@code events.consumer.process}) and the connection pool usage ({@code hikaricp.connections.*}).
+ * <ul>
+ *     <li>A saturated pool pauses the containers, they resume once it drained below {@code resume-pool-usage}.</li>
+ *     <li>A lag above {@code scale-up-lag} adds a thread, unless processing is slower than {@code target-process-ms},
+ *     more threads would only queue on the database then.</li>
+ *     <li>A lag below {@code scale-down-lag} removes a thread.</li>
+ * </ul>
+ * The threads stay between {@code min} and {@code max}, and never above the partitions of the topic. Changing them
+ * restarts the containers, which rebalances the group, so changes are at least {@code cooldown-ms} apart. The last
+ * decision is exposed on the {@code concurrency} actuator endpoint. It runs on its own thread, stopping the
+ * containers blocks until their consumers closed and would hold up the other scheduled tasks.
+ */
+@Component
+@ConditionalOnProperty(name = "events.consumer.concurrency.adaptive", havingValue = "true")
+@Slf4j
+public class ConcurrencyController {
+
+    static final String TOPIC = "library-events";
+
+    private final ConcurrencyProperties properties;
+
+    private final KafkaListenerEndpointRegistry endpointRegistry;
+
+    private final KafkaTemplate<?, ?> kafkaTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("concurrency-controller-"));
+
+    private volatile ConcurrencyDecision lastDecision;
+
+    private long lastChange;
+
+    // totals of the processing timers at the previous run
+    private long processCount;
+
+    private double processTotalMs;
+
+    public ConcurrencyController(ConcurrencyProperties properties, KafkaListenerEndpointRegistry endpointRegistry,
+                                 KafkaTemplate<?, ?> kafkaTemplate, MeterRegistry meterRegistry) {
+        if (properties.getMin() < 1 || properties.getMin() > properties.getMax())
+            throw new IllegalStateException("events.consumer.concurrency.min must be between 1 and max");
+        this.properties = properties;
+        this.endpointRegistry = endpointRegistry;
+        this.kafkaTemplate = kafkaTemplate;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("events.consumer.concurrency", this, controller -> controller.lastDecision == null ? Double.NaN : controller.lastDecision.getConcurrency())
+                .description("Listener threads of the library-events containers").register(meterRegistry);
+        Gauge.builder("events.consumer.paused", this, controller -> controller.lastDecision != null && controller.lastDecision.isPaused() ? 1 : 0)
+                .description("1 while the controller keeps the containers paused").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void schedule() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                adjust();
+            } catch (Exception e) {
+                // a failed run must not cancel the next ones
+                log.warn("Adjusting the concurrency failed : {}", e.getMessage(), e);
+            }
+        }, properties.getIntervalMs(), properties.getIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public void adjust() {
+        List<ConcurrentMessageListenerContainer<?, ?>> containers = containers();
+        if (containers.isEmpty())
+            return;
+        ConcurrentMessageListenerContainer<?, ?> first = containers.get(0);
+        ConcurrencyDecision observed = ConcurrencyDecision.builder()
+                .concurrency(first.getConcurrency())
+                .maxConcurrency(Math.min(properties.getMax(), partitions()))
+                .paused(first.isPauseRequested())
+                .lag(lag(containers))
+                .processMs(processMs())
+                .poolActive(gauge("hikaricp.connections.active"))
+                .poolMax(gauge("hikaricp.connections.max"))
+                .poolPending(gauge("hikaricp.connections.pending"))
+                .build();
+
+        long now = System.currentTimeMillis();
+        ConcurrencyDecision decision = decide(observed, now - lastChange >= properties.getCooldownMs());
+        apply(containers, observed, decision);
+        if (decision.getAction() == Action.SCALE_UP || decision.getAction() == Action.SCALE_DOWN)
+            lastChange = now;
+        lastDecision = decision;
+    }
+
+    /**
+     * What to do about the observed state, {@code cooledDown} when the threads may be changed again.
+     */
+    public ConcurrencyDecision decide(ConcurrencyDecision observed, boolean cooledDown) {
+        int current = observed.getConcurrency();
+        double lag = observed.getLag();
+        double poolUsage = observed.getPoolMax() > 0 ? observed.getPoolActive() / observed.getPoolMax() : Double.NaN;
+
+        if (observed.getPoolPending() > 0 || poolUsage >= properties.getPausePoolUsage())
+            return decision(observed, observed.isPaused() ? Action.HOLD : Action.PAUSE, current, true,
+                    String.format("database pool saturated, %.0f of %.0f connections active, %.0f threads waiting",
+                            observed.getPoolActive(), observed.getPoolMax(), observed.getPoolPending()));
+        if (observed.isPaused()) {
+            if (poolUsage >= properties.getResumePoolUsage())
+                return decision(observed, Action.HOLD, current, true,
+                        String.format("paused until the pool usage of %.0f%% drops below %.0f%%", poolUsage * 100, properties.getResumePoolUsage() * 100));
+            return decision(observed, Action.RESUME, current, false, "database pool no longer saturated");
+        }
+        if (current > observed.getMaxConcurrency())
+            return decision(observed, Action.SCALE_DOWN, observed.getMaxConcurrency(), false,
+                    String.format("%d threads but only %d can get a partition", current, observed.getMaxConcurrency()));
+        if (!cooledDown)
+            return decision(observed, Action.HOLD, current, false, "threads changed less than cooldown-ms ago");
+        if (Double.isNaN(lag))
+            return decision(observed, Action.HOLD, current, false, "no lag reported by the consumers yet");
+        if (lag > properties.getScaleUpLag()) {
+            if (current >= observed.getMaxConcurrency())
+                return decision(observed, Action.HOLD, current, false,
+                        String.format("lag of %.0f records but already at the maximum of %d threads", lag, observed.getMaxConcurrency()));
+            if (observed.getProcessMs() > properties.getTargetProcessMs())
+                return decision(observed, Action.HOLD, current, false,
+                        String.format("lag of %.0f records but processing takes %.1f ms, more threads would only add load on the database", lag, observed.getProcessMs()));
+            return decision(observed, Action.SCALE_UP, current + 1, false,
+                    String.format("lag of %.0f records above %d", lag, properties.getScaleUpLag()));
+        }
+        if (lag < properties.getScaleDownLag() && current > properties.getMin())
+            return decision(observed, Action.SCALE_DOWN, current - 1, false,
+                    String.format("lag of %.0f records below %d", lag, properties.getScaleDownLag()));
+        return decision(observed, Action.HOLD, current, false, String.format("lag of %.0f records", lag));
+    }
+
+    public ConcurrencyDecision lastDecision() {
+        return lastDecision;
+    }
+
+    private ConcurrencyDecision decision(ConcurrencyDecision observed, Action action, int concurrency, boolean paused, String reason) {
+        return observed.toBuilder()
+                .at(Instant.now())
+                .action(action)
+                .reason(reason)
+                .concurrency(concurrency)
+                .paused(paused)
+                .build();
+    }
+
+    private void apply(List<ConcurrentMessageListenerContainer<?, ?>> containers, ConcurrencyDecision observed, ConcurrencyDecision decision) {
+        switch (decision.getAction()) {
+            case PAUSE:
+                containers.forEach(MessageListenerContainer::pause);
+                break;
+            case RESUME:
+                containers.forEach(MessageListenerContainer::resume);
+                break;
+            case SCALE_UP:
+            case SCALE_DOWN:
+                // the concurrency only applies when the container starts
+                containers.forEach(container -> {
+                    boolean running = container.isRunning();
+                    if (running)
+                        container.stop();
+                    container.setConcurrency(decision.getConcurrency());
+                    if (running)
+                        container.start();
+                });
+                break;
+            default:
+                return;
+        }
+        log.info("Concurrency {} from {} to {} threads{} : {}", decision.getAction(), observed.getConcurrency(),
+                decision.getConcurrency(), decision.isPaused() ? " (paused)" : "", decision.getReason());
+        meterRegistry.counter("events.consumer.concurrency.changes", "action", decision.getAction().name()).increment();
+    }
+
+    private List<ConcurrentMessageListenerContainer<?, ?>> containers() {
+        List<ConcurrentMessageListenerContainer<?, ?>> containers = new ArrayList<>();
+        for (MessageListenerContainer container : endpointRegistry.getListenerContainers()) {
+            String[] topics = container.getContainerProperties().getTopics();
+            // the retry topic containers keep their own threads
+            if (container instanceof ConcurrentMessageListenerContainer && topics != null && Arrays.asList(topics).contains(TOPIC))
+                containers.add((ConcurrentMessageListenerContainer<?, ?>) container);
+        }
+        return containers;
+    }
+
+    private int partitions() {
+        try {
+            return kafkaTemplate.partitionsFor(TOPIC).size();
+        } catch (Exception e) {
+            log.warn("Unable to read the partitions of {} : {}", TOPIC, e.getMessage());
+            return properties.getMax();
+        }
+    }
+
+    // records-lag-max of every consumer, the client level metric is the max over its partitions
+    private static double lag(List<ConcurrentMessageListenerContainer<?, ?>> containers) {
+        double lag = Double.NaN;
+        for (ConcurrentMessageListenerContainer<?, ?> container : containers) {
+            for (Map<MetricName, ? extends Metric> metrics : container.metrics().values()) {
+                for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+                    MetricName name = metric.getKey();
+                    if (!"records-lag-max".equals(name.name()) || !"consumer-fetch-manager-metrics".equals(name.group()) || name.tags().containsKey("topic"))
+                        continue;
+                    Object value = metric.getValue().metricValue();
+                    if (value instanceof Double && Double.isFinite((Double) value))
+                        lag = Double.isNaN(lag) ? (Double) value : Math.max(lag, (Double) value);
+                }
+            }
+        }
+        return lag;
+    }
+
+    private double processMs() {
+        long count = 0;
+        double totalMs = 0;
+        for (Timer timer : meterRegistry.find("events.consumer.process").timers()) {
+            count += timer.count();
+            totalMs += timer.totalTime(TimeUnit.MILLISECONDS);
+        }
+        double meanMs = count > processCount ? (totalMs - processTotalMs) / (count - processCount) : Double.NaN;
+        processCount = count;
+        processTotalMs = totalMs;
+        return meanMs;
+    }
+
+    private double gauge(String name) {
+        Gauge gauge = meterRegistry.find(name).gauge();
+        return gauge == null ? Double.NaN : gauge.value();
+    }
+}
@@ -0,0 +1,36 @@
+package com.ashishnitw.eventsconsumer.concurrency;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One run of the {@link ConcurrencyController} : what it saw, what it did and why. Signals that are not known (no
+ * consumer metrics yet, no connection pool metrics) are NaN.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+@Data
+public class ConcurrencyDecision {
+
+    public enum Action {HOLD, SCALE_UP, SCALE_DOWN, PAUSE, RESUME}
+
+    private Instant at;
+    private Action action;
+    private String reason;
+    // threads and pause state after the decision
+    private int concurrency;
+    private int maxConcurrency;
+    private boolean paused;
+    // records lag of the most lagging partition
+    private double lag;
+    // mean processing time since the previous run
+    private double processMs;
+    private double poolActive;
+    private double poolMax;
+    private double poolPending;
+}
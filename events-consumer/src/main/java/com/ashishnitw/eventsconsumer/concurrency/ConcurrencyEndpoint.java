@@ -0,0 +1,26 @@
+package com.ashishnitw.eventsconsumer.concurrency;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/concurrency} : the last decision of the {@link ConcurrencyController}, 404 until its first run.
+ */
+@Component
+@Endpoint(id = "concurrency")
+@ConditionalOnProperty(name = "events.consumer.concurrency.adaptive", havingValue = "true")
+public class ConcurrencyEndpoint {
+
+    private final ConcurrencyController concurrencyController;
+
+    public ConcurrencyEndpoint(ConcurrencyController concurrencyController) {
+        this.concurrencyController = concurrencyController;
+    }
+
+    @ReadOperation
+    public ConcurrencyDecision decision() {
+        return concurrencyController.lastDecision();
+    }
+}
@@ -0,0 +1,29 @@
+package com.ashishnitw.eventsconsumer.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    // persisted events by id, see EventRepository
+    public static final String EVENTS = "events";
+
+    @Value("${events.cache.spec:maximumSize=100000,expireAfterWrite=10m,recordStats}")
+    private String eventsCacheSpec;
+
+    @Bean
+    CacheManager cacheManager() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(EVENTS);
+        cacheManager.setCacheSpecification(eventsCacheSpec);
+        cacheManager.setAllowNullValues(false);
+        // puts and evictions are applied after commit, a rolled back save never reaches the cache
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+}
@@ -0,0 +1,44 @@
+package com.ashishnitw.eventsconsumer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listener threads of the {@code library-events} containers ({@code events.consumer.concurrency}), see
+ * {@link com.ashishnitw.eventsconsumer.concurrency.ConcurrencyController}.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.consumer.concurrency")
+@Data
+public class ConcurrencyProperties {
+
+    // threads every container starts with
+    private int initial = 3;
+
+    // lets the controller change the threads and pause the containers at runtime
+    private boolean adaptive = false;
+
+    private int min = 1;
+
+    // also capped to the partitions of library-events, more threads would sit idle
+    private int max = 12;
+
+    private long intervalMs = 10000;
+
+    // no other change of the threads this long after one, every change rebalances the group
+    private long cooldownMs = 60000;
+
+    // records lag of the most lagging partition above which a thread is added, below scale-down-lag one is removed
+    private long scaleUpLag = 1000;
+
+    private long scaleDownLag = 50;
+
+    // mean time of EventService.processEvent above which no thread is added, the database is the bottleneck then
+    private double targetProcessMs = 100;
+
+    // share of the connection pool in use from which the containers are paused, and below which they resume
+    private double pausePoolUsage = 1.0;
+
+    private double resumePoolUsage = 0.7;
+}
@@ -1,13 +1,25 @@
 package com.ashishnitw.eventsconsumer.config;
 
+import com.ashishnitw.eventsconsumer.consumer.EventDltHandler;
+import com.ashishnitw.eventsconsumer.consumer.KeyStripedExecutor;
+import com.ashishnitw.eventsconsumer.consumer.ManualOffsetCommitter;
+import com.ashishnitw.eventsconsumer.consumer.RebalanceListener;
 import com.ashishnitw.eventsconsumer.service.FailureRecordService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.kafka.DefaultKafkaConsumerFactoryCustomizer;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -17,11 +29,20 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.*;
+import org.springframework.kafka.retrytopic.DeadLetterPublishingRecovererFactory;
+import org.springframework.kafka.retrytopic.DltStrategy;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
 import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
 import org.springframework.util.backoff.FixedBackOff;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 @Configuration
 @EnableKafka
@@ -38,6 +59,49 @@ public class EventConsumerConfig {
     @Value("${topics.dlt:library-events-dlt}")
     private String deadLetterTopic;
 
+    // threads of every listener container, changed at runtime by the ConcurrencyController when adaptive
+    @Value("${events.consumer.concurrency.initial:3}")
+    private int concurrency;
+
+    @Value("${events.consumer.batch.max-records:500}")
+    private int batchMaxRecords;
+
+    @Value("${events.consumer.batch.fetch-min-bytes:1}")
+    private int batchFetchMinBytes;
+
+    @Value("${events.consumer.batch.fetch-max-wait-ms:500}")
+    private int batchFetchMaxWaitMs;
+
+    @Value("${events.consumer.batch.poll-timeout-ms:1000}")
+    private long batchPollTimeoutMs;
+
+    @Value("${events.consumer.parallel.workers:16}")
+    private int parallelWorkers;
+
+    @Value("${events.consumer.parallel.max-records:500}")
+    private int parallelMaxRecords;
+
+    @Value("${events.consumer.manual.commit-interval-ms:5000}")
+    private long manualCommitIntervalMs;
+
+    @Value("${events.consumer.retry-topics.attempts:4}")
+    private int retryTopicAttempts;
+
+    @Value("${events.consumer.retry-topics.initial-delay-ms:1000}")
+    private long retryTopicInitialDelayMs;
+
+    @Value("${events.consumer.retry-topics.multiplier:10}")
+    private double retryTopicMultiplier;
+
+    @Value("${events.consumer.retry-topics.max-delay-ms:60000}")
+    private long retryTopicMaxDelayMs;
+
+    @Value("${events.consumer.retry-topics.partitions:3}")
+    private int retryTopicPartitions;
+
+    @Value("${events.consumer.retry-topics.replication-factor:1}")
+    private short retryTopicReplicationFactor;
+
     @Autowired
     FailureRecordService failureRecordService;
 
@@ -47,19 +111,170 @@ public class EventConsumerConfig {
     @Autowired
     KafkaTemplate kafkaTemplate;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    RebalanceListener rebalanceListener;
+
+    /**
+     * Assignors and static membership of every listener consumer ({@code events.consumer.rebalance}). Static, so
+     * building the consumer factory does not pull in this configuration and its dependencies.
+     */
+    @Bean
+    static DefaultKafkaConsumerFactoryCustomizer rebalanceConsumerFactoryCustomizer(RebalanceProperties rebalanceProperties) {
+        Map<String, Object> configs = rebalanceProperties.consumerConfigs();
+        log.info("Listener consumers rebalance with {}", configs);
+        return consumerFactory -> consumerFactory.updateConfigs(configs);
+    }
+
     @Bean
     @ConditionalOnMissingBean(name = {"kafkaListenerContainerFactory"})
     ConcurrentKafkaListenerContainerFactory<?, ?> kafkaListenerContainerFactory(ConcurrentKafkaListenerContainerFactoryConfigurer configurer, ConsumerFactory<Object, Object> kafkaConsumerFactory) {
         ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
         configurer.configure(factory, kafkaConsumerFactory);
-        factory.setConcurrency(3); // 3 threads with same instance of Kafka listener
+        factory.setConcurrency(concurrency); // threads with same instance of Kafka listener
+        factory.setCommonErrorHandler(errorHandler());
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+        // Manual offset : events.consumer.mode=manual, see manualKafkaListenerContainerFactory
+
+        return factory;
+    }
+
+    /**
+     * Factory used by the batch listener mode ({@code events.consumer.mode=batch}). The whole poll is handed to
+     * the listener, so the poll settings here decide the size of each database transaction.
+     */
+    @Bean
+    ConcurrentKafkaListenerContainerFactory<?, ?> batchKafkaListenerContainerFactory(ConcurrentKafkaListenerContainerFactoryConfigurer configurer, ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.setConcurrency(concurrency);
+        factory.setBatchListener(true);
+        factory.setCommonErrorHandler(errorHandler());
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(batchMaxRecords));
+        consumerProperties.setProperty(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, String.valueOf(batchFetchMinBytes));
+        consumerProperties.setProperty(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, String.valueOf(batchFetchMaxWaitMs));
+        factory.getContainerProperties().setKafkaConsumerProperties(consumerProperties);
+        factory.getContainerProperties().setPollTimeout(batchPollTimeoutMs);
+
+        return factory;
+    }
+
+    /**
+     * Factory used by the parallel mode ({@code events.consumer.mode=parallel}). The listener commits the offsets
+     * itself once the records of a poll are done, so the container does not commit.
+     */
+    @Bean
+    ConcurrentKafkaListenerContainerFactory<?, ?> parallelKafkaListenerContainerFactory(ConcurrentKafkaListenerContainerFactoryConfigurer configurer, ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.setConcurrency(concurrency);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(parallelMaxRecords));
+        factory.getContainerProperties().setKafkaConsumerProperties(consumerProperties);
+
+        return factory;
+    }
+
+    /**
+     * Factory used by the manual mode ({@code events.consumer.mode=manual}). The container commits nothing, the
+     * {@link ManualOffsetCommitter} does, the idle events let it commit on time while no records come.
+     */
+    @Bean
+    ConcurrentKafkaListenerContainerFactory<?, ?> manualKafkaListenerContainerFactory(ConcurrentKafkaListenerContainerFactoryConfigurer configurer, ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.setConcurrency(concurrency);
         factory.setCommonErrorHandler(errorHandler());
-        // Manual offset
-        //factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(rebalanceListener);
+        factory.getContainerProperties().setIdleEventInterval(manualCommitIntervalMs);
 
         return factory;
     }
 
+    /**
+     * Non blocking retries for the record listener ({@code events.consumer.retry-topics.enabled}). A failed record is
+     * forwarded to a retry topic per delay ({@code library-events-retry-1000}, {@code -10000}, {@code -60000} with
+     * the defaults) instead of being retried in the listener thread, so it no longer holds up its partition of
+     * {@code library-events}. The retry topic listeners pause their partition until the due time the record carries
+     * in its {@code retry_topic-backoff-timestamp} header. After the last attempt the record goes to
+     * {@code library-events-dlt} and {@link EventDltHandler} stores it as a failure record.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "events.consumer.retry-topics.enabled", havingValue = "true")
+    RetryTopicConfiguration retryTopicConfiguration(@Value("${events.consumer.mode:record}") String mode) {
+        if (!"record".equals(mode))
+            throw new IllegalStateException("events.consumer.retry-topics need events.consumer.mode=record, a batch listener cannot forward single records");
+        return RetryTopicConfigurationBuilder.newInstance()
+                .maxAttempts(retryTopicAttempts)
+                .exponentialBackoff(retryTopicInitialDelayMs, retryTopicMultiplier, retryTopicMaxDelayMs)
+                .includeTopic("library-events")
+                // same exceptions as the blocking error handler, they would fail the same way on every attempt
+                .notRetryOn(Arrays.asList(IllegalArgumentException.class, SerializationException.class))
+                .traversingCauses()
+                .autoCreateTopicsWith(retryTopicPartitions, retryTopicReplicationFactor)
+                .dltHandlerMethod("eventDltHandler", "handle")
+                // a dead letter the handler cannot store is logged, not sent around the dead letter topic again
+                .dltProcessingFailureStrategy(DltStrategy.FAIL_ON_ERROR)
+                .create(kafkaTemplate);
+    }
+
+    /**
+     * The retry topics forward the exception of the listener container, a TimestampedException around the exception
+     * of the listener method. The exception headers describe the latter, so {@code kafka_exception-cause-fqcn} names
+     * the exception the service threw, the one the recoverer of the record mode checks with {@code getCause()}.
+     * Static, a post processor is created before the other beans.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "events.consumer.retry-topics.enabled", havingValue = "true")
+    static BeanPostProcessor retryTopicExceptionHeaders() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DeadLetterPublishingRecovererFactory)
+                    ((DeadLetterPublishingRecovererFactory) bean).setDeadLetterPublishingRecovererCustomizer(
+                            recoverer -> recoverer.setExceptionHeadersCreator(EventConsumerConfig::exceptionHeaders));
+                return bean;
+            }
+        };
+    }
+
+    static void exceptionHeaders(Headers headers, Exception exception, boolean isKey, DeadLetterPublishingRecoverer.HeaderNames headerNames) {
+        Throwable failure = exception;
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ListenerExecutionFailedException)
+                failure = cause;
+        }
+        DeadLetterPublishingRecoverer.HeaderNames.ExceptionInfo names = headerNames.getExceptionInfo();
+        addHeader(headers, isKey ? names.getKeyExceptionFqcn() : names.getExceptionFqcn(), failure.getClass().getName());
+        if (!isKey && failure.getCause() != null)
+            addHeader(headers, names.getExceptionCauseFqcn(), failure.getCause().getClass().getName());
+        addHeader(headers, isKey ? names.getKeyExceptionMessage() : names.getExceptionMessage(), failure.getMessage());
+        StringWriter stackTrace = new StringWriter();
+        failure.printStackTrace(new PrintWriter(stackTrace));
+        addHeader(headers, isKey ? names.getKeyExceptionStacktrace() : names.getExceptionStacktrace(), stackTrace.toString());
+    }
+
+    private static void addHeader(Headers headers, String name, String value) {
+        if (value != null)
+            headers.add(new RecordHeader(name, value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "events.consumer.mode", havingValue = "parallel")
+    KeyStripedExecutor keyStripedExecutor() {
+        return new KeyStripedExecutor(parallelWorkers);
+    }
+
     public DefaultErrorHandler errorHandler() {
         FixedBackOff fixedBackOff = new FixedBackOff(1000L, 2L);
 
@@ -79,11 +294,16 @@ public class EventConsumerConfig {
         );
 
         // we can ignore some exceptions, which are not recoverable
-        List<Class> exceptionsToIgnore = Arrays.asList(IllegalArgumentException.class);
+        List<Class> exceptionsToIgnore = Arrays.asList(IllegalArgumentException.class, SerializationException.class);
         exceptionsToIgnore.forEach(errorHandler::addNotRetryableExceptions);
 
         errorHandler.setRetryListeners((consumerRecord, ex, deliveryAttempt) -> {
             log.info("Failed record in Retry Listener, Exception : {}, deliveryAttempt : {}", ex.getMessage(), deliveryAttempt);
+            // the container wraps the listener exception, tag with the cause thrown by the service
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            meterRegistry.counter("events.consumer.retries",
+                    "topic", consumerRecord.topic(),
+                    "exception", cause.getClass().getSimpleName()).increment();
         });
         return errorHandler;
     }
@@ -104,7 +324,7 @@ public class EventConsumerConfig {
     ConsumerRecordRecoverer consumerRecordRecoverer = (record, ex) -> {
 
         log.error("Exception is : {} Failed Record : {} ", ex, record);
-        ConsumerRecord<Integer, String> consumerRecord = (ConsumerRecord<Integer, String>) record;
+        ConsumerRecord<Integer, byte[]> consumerRecord = (ConsumerRecord<Integer, byte[]>) record;
 
         if (ex.getCause() instanceof RecoverableDataAccessException) {
             log.info("Inside the recoverable logic");
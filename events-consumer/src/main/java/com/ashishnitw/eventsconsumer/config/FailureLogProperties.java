@@ -0,0 +1,28 @@
+package com.ashishnitw.eventsconsumer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Failure record store ({@code events.failure-store}), the file settings only apply to the {@code log} type, see
+ * {@link com.ashishnitw.eventsconsumer.store.FailureLogStore}.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.failure-store")
+@Data
+public class FailureLogProperties {
+
+    // jpa | log
+    private String type = "jpa";
+
+    private String dir = System.getProperty("java.io.tmpdir") + "/events-consumer-failures";
+
+    private int segmentBytes = 64 * 1024 * 1024;
+
+    // beyond this the oldest segments are compacted : RETRY records are copied forward, the others are dropped
+    private long maxBytes = 1024L * 1024 * 1024;
+
+    // fsync every write, without it a record survives a crash of the process but not of the machine
+    private boolean forceOnAppend = false;
+}
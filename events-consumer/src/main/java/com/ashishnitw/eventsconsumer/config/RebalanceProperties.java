@@ -0,0 +1,75 @@
+package com.ashishnitw.eventsconsumer.config;
+
+import lombok.Data;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.consumer.RangeAssignor;
+import org.apache.kafka.clients.consumer.RoundRobinAssignor;
+import org.apache.kafka.clients.consumer.StickyAssignor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Group membership of the listener consumers ({@code events.consumer.rebalance}), see
+ * {@link com.ashishnitw.eventsconsumer.consumer.RebalanceListener}.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.consumer.rebalance")
+@Data
+public class RebalanceProperties {
+
+    private static final Map<String, String> ASSIGNORS = new HashMap<>();
+
+    static {
+        ASSIGNORS.put("range", RangeAssignor.class.getName());
+        ASSIGNORS.put("round-robin", RoundRobinAssignor.class.getName());
+        ASSIGNORS.put("sticky", StickyAssignor.class.getName());
+        ASSIGNORS.put("cooperative-sticky", CooperativeStickyAssignor.class.getName());
+    }
+
+    // in order of preference, a group moves from range to cooperative-sticky over two rolling deploys :
+    // [cooperative-sticky, range] first, then [cooperative-sticky] alone
+    private List<String> assignors = Arrays.asList("range");
+
+    // static membership when set, a consumer that rejoins within session-timeout-ms under the same id keeps its
+    // partitions without a rebalance. Unique per instance, the containers append -<thread> to it
+    private String groupInstanceId;
+
+    // 0 keeps the client default, raise it with static membership to cover a restart
+    private int sessionTimeoutMs = 0;
+
+    // most recent events loaded into the events cache for the partitions newly assigned, 0 turns it off
+    private int warmEvents = 10000;
+
+    // parallel mode, how long a revoke waits for the workers to finish the records of the previous polls
+    private long drainTimeoutMs = 10000;
+
+    /**
+     * The settings of the listener consumers, on top of {@code spring.kafka.consumer}.
+     */
+    public Map<String, Object> consumerConfigs() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, assignors.stream()
+                .map(RebalanceProperties::assignorClass)
+                .collect(Collectors.joining(",")));
+        if (StringUtils.hasText(groupInstanceId))
+            configs.put(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG, groupInstanceId);
+        if (sessionTimeoutMs > 0)
+            configs.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, sessionTimeoutMs);
+        return configs;
+    }
+
+    private static String assignorClass(String assignor) {
+        String className = ASSIGNORS.get(assignor);
+        if (className == null)
+            throw new IllegalArgumentException("Unknown events.consumer.rebalance.assignors " + assignor + ", one of " + ASSIGNORS.keySet());
+        return className;
+    }
+}
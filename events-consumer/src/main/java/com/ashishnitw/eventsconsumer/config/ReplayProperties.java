@@ -0,0 +1,30 @@
+package com.ashishnitw.eventsconsumer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replays of failure records started on {@code /admin/failure-records/replays} ({@code events.replay}), see
+ * {@link com.ashishnitw.eventsconsumer.replay.FailureReplayService}. A replay may ask for other workers and rate.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.replay")
+@Data
+public class ReplayProperties {
+
+    // key-striped workers, records of one key are replayed in order
+    private int workers = 8;
+
+    // 0 replays as fast as the workers go
+    private int recordsPerSecond = 500;
+
+    // records looked up at a time, a replay without a rate claims them at once, keep a page replayable within
+    // events.retry.lease-ms, a paced replay claims smaller chunks itself
+    private int pageSize = 500;
+
+    private long progressIntervalMs = 1000;
+
+    // finished replays kept for /admin/failure-records/replays
+    private int maxFinished = 20;
+}
@@ -0,0 +1,43 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.ProcessedOffsetService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+@Component
+@ConditionalOnProperty(name = "events.consumer.mode", havingValue = "batch")
+@Slf4j
+public class EventBatchConsumer implements ConsumerSeekAware {
+
+    @Autowired
+    EventService eventService;
+
+    @Autowired
+    ProcessedOffsetService processedOffsetService;
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        // exactly-once mode, resume from the position stored with the events where it is ahead of the committed offset
+        processedOffsetService.seekToProcessed(assignments, callback);
+    }
+
+    @KafkaListener(topics = {"library-events"},
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${libraryListener.startup:true}",
+            groupId = "library-events-listener-group")
+    public void onMessage(List<ConsumerRecord<Integer, byte[]>> consumerRecords) {
+
+        log.info("Received batch of {} records", consumerRecords.size());
+        eventService.processEvents(consumerRecords);
+    }
+}
@@ -1,26 +1,41 @@
 package com.ashishnitw.eventsconsumer.consumer;
 
 import com.ashishnitw.eventsconsumer.service.EventService;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.ashishnitw.eventsconsumer.service.ProcessedOffsetService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @Component
+@ConditionalOnProperty(name = "events.consumer.mode", havingValue = "record", matchIfMissing = true)
 @Slf4j
-public class EventConsumer {
+public class EventConsumer implements ConsumerSeekAware {
 
     @Autowired
     EventService eventService;
 
+    @Autowired
+    ProcessedOffsetService processedOffsetService;
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        // exactly-once mode, resume from the position stored with the events where it is ahead of the committed offset
+        processedOffsetService.seekToProcessed(assignments, callback);
+    }
+
     @KafkaListener(topics = {"library-events"},
             autoStartup = "${libraryListener.startup:true}",
             groupId = "library-events-listener-group")
-    public void onMessage(ConsumerRecord<Integer, String> consumerRecord) throws JsonProcessingException {
-        
-        log.info("ConsumerRecord : {}", consumerRecord);
+    public void onMessage(ConsumerRecord<Integer, byte[]> consumerRecord) {
+
+        // the summary line of the record, with its latency, is logged by the EventService
         eventService.processEvent(consumerRecord);
     }
 }
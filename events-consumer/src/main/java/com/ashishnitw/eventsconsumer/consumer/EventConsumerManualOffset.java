@@ -1,20 +1,54 @@
 package com.ashishnitw.eventsconsumer.consumer;
 
-import lombok.extern.slf4j.Slf4j;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.ProcessedOffsetService;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.listener.AcknowledgingMessageListener;
-import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Component;
 
-//@Component
-@Slf4j
-public class EventConsumerManualOffset implements AcknowledgingMessageListener<Integer, String> {
+import java.util.Map;
+
+/**
+ * Listener of the manual mode ({@code events.consumer.mode=manual}). Records are processed one by one like the
+ * record mode, the container commits nothing and the {@link ManualOffsetCommitter} commits the completed offsets
+ * in batches. A record that fails goes to the failure records right away, the blocking retries of the record mode
+ * would hold back the commits of its partition.
+ */
+@Component
+@ConditionalOnProperty(name = "events.consumer.mode", havingValue = "manual")
+public class EventConsumerManualOffset implements ConsumerSeekAware {
+
+    @Autowired
+    EventService eventService;
+
+    @Autowired
+    ProcessedOffsetService processedOffsetService;
+
+    @Autowired
+    ManualOffsetCommitter manualOffsetCommitter;
 
     @Override
-    @KafkaListener(topics = {"library-events"})
-    public void onMessage(ConsumerRecord<Integer, String> consumerRecord, Acknowledgment acknowledgment) {
-        log.info("ConsumerRecord : {}", consumerRecord);
-        acknowledgment.acknowledge();
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        // exactly-once mode, resume from the position stored with the events where it is ahead of the committed offset
+        processedOffsetService.seekToProcessed(assignments, callback);
+    }
+
+    @KafkaListener(topics = {"library-events"},
+            containerFactory = "manualKafkaListenerContainerFactory",
+            autoStartup = "${libraryListener.startup:true}",
+            groupId = "library-events-listener-group")
+    public void onMessage(ConsumerRecord<Integer, byte[]> consumerRecord, Consumer<?, ?> consumer) {
+        try {
+            eventService.processEvent(consumerRecord);
+        } catch (Exception e) {
+            eventService.recover(consumerRecord, e);
+        }
+        // not reached when the record could not be recovered either, the error handler seeks back to it
+        manualOffsetCommitter.completed(consumer, consumerRecord);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.service.FailureRecordService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * End of the retry topics ({@code events.consumer.retry-topics.enabled}) : a record that failed every attempt, or
+ * failed with an exception that is not retried, is stored as a failure record. A database failure is stored as
+ * RETRY, so the RetryScheduler tries it again later, anything else as DEAD.
+ */
+@Component
+@Slf4j
+public class EventDltHandler {
+
+    @Autowired
+    FailureRecordService failureRecordService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    public void handle(ConsumerRecord<Integer, byte[]> consumerRecord) {
+        // the exception headers describe the exception of the listener method, the failure thrown by the service is
+        // its cause, see EventConsumerConfig.exceptionHeaders
+        String exceptionClass = header(consumerRecord, KafkaHeaders.EXCEPTION_CAUSE_FQCN);
+        String exceptionMessage = header(consumerRecord, KafkaHeaders.EXCEPTION_MESSAGE);
+        if (exceptionClass == null) {
+            exceptionClass = header(consumerRecord, KafkaHeaders.EXCEPTION_FQCN);
+        } else if (exceptionMessage != null) {
+            // no header for the message of the cause, the message ends with "nested exception is <cause>: <message>"
+            int nested = exceptionMessage.lastIndexOf(exceptionClass + ": ");
+            if (nested >= 0)
+                exceptionMessage = exceptionMessage.substring(nested + exceptionClass.length() + 2);
+        }
+        String status = RecoverableDataAccessException.class.getName().equals(exceptionClass) ? EventConsumerConfig.RETRY : EventConsumerConfig.DEAD;
+
+        log.error("Record with key {} exhausted the retry topics, exception : {}, stored as {}", consumerRecord.key(), exceptionClass, status);
+        failureRecordService.saveFailedRecord(consumerRecord, exceptionClass, exceptionMessage, status);
+        meterRegistry.counter("events.consumer.dead-letters", "status", status).increment();
+    }
+
+    private static String header(ConsumerRecord<Integer, byte[]> consumerRecord, String name) {
+        Header header = consumerRecord.headers().lastHeader(name);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
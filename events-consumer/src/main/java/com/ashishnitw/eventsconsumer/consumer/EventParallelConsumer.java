@@ -0,0 +1,98 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.ProcessedOffsetService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Listener of the parallel mode ({@code events.consumer.mode=parallel}). The records of a poll are spread over the
+ * {@link KeyStripedExecutor} workers by key, so one slow write only holds up the records of its own key. The poll
+ * is committed up to the highest contiguous completed offset of every partition, records that did not finish in
+ * time are consumed again.
+ */
+@Component
+@ConditionalOnProperty(name = "events.consumer.mode", havingValue = "parallel")
+@Slf4j
+public class EventParallelConsumer {
+
+    @Autowired
+    EventService eventService;
+
+    @Autowired
+    KeyStripedExecutor keyStripedExecutor;
+
+    @Autowired
+    ProcessedOffsetService processedOffsetService;
+
+    @Value("${events.consumer.parallel.max-wait-ms:60000}")
+    long maxWaitMs;
+
+    @PostConstruct
+    void checkMode() {
+        if (processedOffsetService.isExactlyOnce())
+            throw new IllegalStateException("events.consumer.mode=parallel completes offsets out of order and cannot be combined with events.consumer.exactly-once");
+    }
+
+    @KafkaListener(topics = {"library-events"},
+            containerFactory = "parallelKafkaListenerContainerFactory",
+            autoStartup = "${libraryListener.startup:true}",
+            groupId = "library-events-listener-group")
+    public void onMessage(List<ConsumerRecord<Integer, byte[]>> consumerRecords, Consumer<?, ?> consumer) {
+
+        log.info("Received batch of {} records", consumerRecords.size());
+        OffsetTracker offsetTracker = new OffsetTracker();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(consumerRecords.size());
+        for (ConsumerRecord<Integer, byte[]> consumerRecord : consumerRecords) {
+            offsetTracker.track(consumerRecord);
+            tasks.add(keyStripedExecutor.submit(consumerRecord.key(), () -> {
+                try {
+                    eventService.processEvent(consumerRecord);
+                } catch (Exception e) {
+                    eventService.recover(consumerRecord, e);
+                }
+                offsetTracker.complete(consumerRecord);
+            }));
+        }
+        awaitAll(tasks);
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committable();
+        if (!offsets.isEmpty())
+            consumer.commitSync(offsets);
+        // a record still running when it is consumed again is processed twice, in order, by the same worker
+        offsetTracker.unfinished().forEach((partition, offset) -> {
+            log.warn("Records of {} from offset {} did not complete, consuming them again", partition, offset);
+            consumer.seek(partition, offset);
+        });
+    }
+
+    private void awaitAll(List<CompletableFuture<Void>> tasks) {
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // the record could neither be processed nor recovered, it stays unfinished
+            log.error("Exception in parallel processing : {}", e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            log.warn("Parallel processing did not complete within {} ms", maxWaitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single thread workers picked by record key : records of one key run one after another in submission order,
+ * different keys run in parallel. Records without a key (NEW events) have no order to keep and are spread evenly.
+ */
+@Slf4j
+public class KeyStripedExecutor {
+
+    private final ExecutorService[] stripes;
+
+    private final AtomicInteger nextUnkeyed = new AtomicInteger();
+
+    public KeyStripedExecutor(int stripes) {
+        this(stripes, "event-worker-");
+    }
+
+    public KeyStripedExecutor(int stripes, String threadNamePrefix) {
+        this.stripes = new ExecutorService[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(threadNamePrefix + i + "-"));
+        }
+    }
+
+    public CompletableFuture<Void> submit(Object key, Runnable task) {
+        int index = key == null ? nextUnkeyed.getAndIncrement() : key.hashCode();
+        return CompletableFuture.runAsync(task, stripes[Math.floorMod(index, stripes.length)]);
+    }
+
+    /**
+     * Waits until the tasks submitted so far are done, false if they are not within the timeout. Tasks submitted
+     * meanwhile are not waited for.
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        CompletableFuture<?>[] markers = new CompletableFuture[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            // a stripe runs its tasks in order, the marker completes after the ones before it
+            markers[i] = CompletableFuture.runAsync(() -> {
+            }, stripes[i]);
+        }
+        try {
+            CompletableFuture.allOf(markers).get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void shutdown() throws InterruptedException {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+        for (ExecutorService stripe : stripes) {
+            if (!stripe.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("Event worker did not finish within 10 seconds");
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.ashishnitw.eventsconsumer.consumer;
 
 import com.ashishnitw.eventsconsumer.service.EventService;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,11 +17,9 @@ public class LibraryEventsRetryConsumer {
     @KafkaListener(topics = {"${topics.retry}"},
             autoStartup = "${retryListener.startup:true}",
             groupId = "retry-listener-group")
-    public void onMessage(ConsumerRecord<Integer, String> consumerRecord) throws JsonProcessingException {
+    public void onMessage(ConsumerRecord<Integer, byte[]> consumerRecord) {
 
-        log.info("ConsumerRecord in Retry Consumer: {} ", consumerRecord);
-        // check all headers values
-        //consumerRecord.headers().forEach(header -> log.info("key : {}, value : {}", header.key(), header.value()));
+        // the summary line of the record, with its latency, is logged by the EventService
         eventService.processEvent(consumerRecord);
     }
 }
@@ -0,0 +1,139 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ConsumerStoppingEvent;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Offsets of the manual mode ({@code events.consumer.mode=manual}). The listener reports every record it is done
+ * with, processed or handed to the failure records, and the position after it becomes the committable offset of its
+ * partition. The offsets go out with one asynchronous commit once {@code commit-count} records completed or
+ * {@code commit-interval-ms} passed since the previous commit, also while the consumer is idle. A failed
+ * asynchronous commit is not retried, the next one covers it, or the records are consumed again.
+ * <p>
+ * Before partitions are revoked and before a consumer is closed the pending offsets are committed synchronously,
+ * so a rebalance or a shutdown only redelivers the records still in flight. Every method is called on the thread
+ * of the consumer it is given, as are the commit callbacks.
+ */
+@Component
+@ConditionalOnProperty(name = "events.consumer.mode", havingValue = "manual")
+@Slf4j
+public class ManualOffsetCommitter {
+
+    @Value("${events.consumer.manual.commit-count:500}")
+    int commitCount;
+
+    @Value("${events.consumer.manual.commit-interval-ms:5000}")
+    long commitIntervalMs;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Consumer<?, ?>, PendingOffsets> consumers = new ConcurrentHashMap<>();
+
+    public ManualOffsetCommitter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void completed(Consumer<?, ?> consumer, ConsumerRecord<?, ?> consumerRecord) {
+        PendingOffsets pending = consumers.computeIfAbsent(consumer, c -> new PendingOffsets());
+        pending.offsets.put(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()), new OffsetAndMetadata(consumerRecord.offset() + 1));
+        pending.records++;
+        if (pending.records >= commitCount || System.currentTimeMillis() - pending.lastCommit >= commitIntervalMs)
+            commitAsync(consumer, pending);
+    }
+
+    /**
+     * Commits the pending offsets of the partitions synchronously, before they are revoked.
+     */
+    public void commitSync(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        PendingOffsets pending = consumers.get(consumer);
+        if (pending == null)
+            return;
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        partitions.forEach(partition -> {
+            OffsetAndMetadata offset = pending.offsets.remove(partition);
+            if (offset != null)
+                offsets.put(partition, offset);
+        });
+        commitSync(consumer, offsets);
+    }
+
+    /**
+     * Drops the pending offsets of partitions that are already owned by another consumer.
+     */
+    public void discard(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        PendingOffsets pending = consumers.get(consumer);
+        if (pending != null)
+            partitions.forEach(pending.offsets::remove);
+    }
+
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        Consumer<?, ?> consumer = event.getConsumer();
+        PendingOffsets pending = consumer == null ? null : consumers.get(consumer);
+        if (pending != null && System.currentTimeMillis() - pending.lastCommit >= commitIntervalMs)
+            commitAsync(consumer, pending);
+    }
+
+    @EventListener
+    public void onStopping(ConsumerStoppingEvent event) {
+        PendingOffsets pending = consumers.remove(event.getConsumer());
+        if (pending != null)
+            commitSync(event.getConsumer(), pending.offsets);
+    }
+
+    private void commitAsync(Consumer<?, ?> consumer, PendingOffsets pending) {
+        pending.lastCommit = System.currentTimeMillis();
+        pending.records = 0;
+        if (pending.offsets.isEmpty())
+            return;
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>(pending.offsets);
+        pending.offsets.clear();
+        consumer.commitAsync(offsets, (committed, exception) -> {
+            if (exception != null)
+                log.warn("Asynchronous commit of {} failed, a later commit covers it : {}", offsets, exception.getMessage());
+            count("async", exception == null);
+        });
+    }
+
+    private void commitSync(Consumer<?, ?> consumer, Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (offsets.isEmpty())
+            return;
+        try {
+            consumer.commitSync(offsets);
+            count("sync", true);
+            log.info("Committed {}", offsets);
+        } catch (RuntimeException e) {
+            // the records after the last committed offset are consumed again
+            count("sync", false);
+            log.warn("Synchronous commit of {} failed : {}", offsets, e.getMessage());
+        }
+    }
+
+    private void count(String type, boolean success) {
+        meterRegistry.counter("events.consumer.commits", "type", type, "outcome", success ? "success" : "failure").increment();
+    }
+
+    private static class PendingOffsets {
+
+        private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+        private int records;
+
+        private long lastCommit = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,74 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps track of records that are processed out of order and tells up to which offset every partition can be
+ * committed : the lowest offset still in flight, or past the last tracked record once all of them are done.
+ * Records are tracked from the consumer thread in offset order, they can be completed from any thread.
+ */
+public class OffsetTracker {
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    public void track(ConsumerRecord<?, ?> consumerRecord) {
+        partitions.computeIfAbsent(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()), partition -> new PartitionOffsets())
+                .track(consumerRecord.offset());
+    }
+
+    public void complete(ConsumerRecord<?, ?> consumerRecord) {
+        PartitionOffsets offsets = partitions.get(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()));
+        if (offsets != null)
+            offsets.pending.remove(consumerRecord.offset());
+    }
+
+    /**
+     * The offset every tracked partition can be committed at.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committable() {
+        Map<TopicPartition, OffsetAndMetadata> committable = new HashMap<>();
+        partitions.forEach((partition, offsets) -> committable.put(partition, new OffsetAndMetadata(offsets.committable())));
+        return committable;
+    }
+
+    /**
+     * The lowest offset still in flight for every partition that has one, where the partition has to be
+     * consumed again from if the records are given up.
+     */
+    public Map<TopicPartition, Long> unfinished() {
+        Map<TopicPartition, Long> unfinished = new HashMap<>();
+        partitions.forEach((partition, offsets) -> {
+            Long lowest = offsets.pending.ceiling(Long.MIN_VALUE);
+            if (lowest != null)
+                unfinished.put(partition, lowest);
+        });
+        return unfinished;
+    }
+
+    private static class PartitionOffsets {
+
+        private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+
+        // offset after the highest tracked record
+        private volatile long next = -1;
+
+        void track(long offset) {
+            pending.add(offset);
+            next = Math.max(next, offset + 1);
+        }
+
+        long committable() {
+            // next is read first, a record tracked in between is then either pending or not yet counted in next
+            long after = next;
+            Long lowest = pending.ceiling(Long.MIN_VALUE);
+            return lowest == null ? after : Math.min(lowest, after);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.ashishnitw.eventsconsumer.consumer;
+
+import com.ashishnitw.eventsconsumer.config.RebalanceProperties;
+import com.ashishnitw.eventsconsumer.service.EventCacheWarmer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Rebalance hooks of every listener container.
+ * <ul>
+ *     <li>Revoke : in parallel mode, waits up to {@code drain-timeout-ms} for the workers to finish the records of
+ *     the previous polls, so the new owner of a partition does not process a key while a worker here still does.
+ *     The containers commit the offsets of the finished records on revoke themselves, in manual mode the
+ *     {@link ManualOffsetCommitter} commits its pending offsets of the revoked partitions synchronously.</li>
+ *     <li>Assign : warms the events cache for the newly assigned {@code library-events} partitions, see
+ *     {@link EventCacheWarmer}. With the cooperative-sticky assignor these are only the partitions that moved.</li>
+ * </ul>
+ * {@code events.consumer.rebalance} times a rebalance per consumer from the revoke (or loss) of its partitions until
+ * its next assignment, the time it processed nothing. A consumer that joins, or keeps all its partitions under the
+ * cooperative protocol, has no revoke and is not timed.
+ */
+@Component
+@Slf4j
+public class RebalanceListener implements ConsumerAwareRebalanceListener {
+
+    static final String TOPIC = "library-events";
+
+    private final RebalanceProperties properties;
+
+    private final EventCacheWarmer eventCacheWarmer;
+
+    private final ObjectProvider<KeyStripedExecutor> keyStripedExecutor;
+
+    private final ObjectProvider<ManualOffsetCommitter> manualOffsetCommitter;
+
+    private final MeterRegistry meterRegistry;
+
+    // nanoTime of the revoke per consumer, a consumer is only called back from its own thread
+    private final Map<Consumer<?, ?>, Long> revokedAt = new ConcurrentHashMap<>();
+
+    public RebalanceListener(RebalanceProperties properties, EventCacheWarmer eventCacheWarmer,
+                             ObjectProvider<KeyStripedExecutor> keyStripedExecutor,
+                             ObjectProvider<ManualOffsetCommitter> manualOffsetCommitter, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.eventCacheWarmer = eventCacheWarmer;
+        this.keyStripedExecutor = keyStripedExecutor;
+        this.manualOffsetCommitter = manualOffsetCommitter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty())
+            return;
+        revokedAt.putIfAbsent(consumer, System.nanoTime());
+        count("revoked", partitions);
+        log.info("Partitions revoked : {}", partitions);
+        drain();
+        manualOffsetCommitter.ifAvailable(committer -> committer.commitSync(consumer, partitions));
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty())
+            return;
+        // already owned by another consumer, nothing to drain or commit
+        revokedAt.putIfAbsent(consumer, System.nanoTime());
+        count("lost", partitions);
+        manualOffsetCommitter.ifAvailable(committer -> committer.discard(consumer, partitions));
+        log.warn("Partitions lost : {}", partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Long revoked = revokedAt.remove(consumer);
+        if (revoked != null)
+            Timer.builder("events.consumer.rebalance")
+                    .description("Time from the revoke of the partitions of a consumer until its next assignment")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - revoked, TimeUnit.NANOSECONDS);
+        if (partitions.isEmpty())
+            return;
+        count("assigned", partitions);
+        log.info("Partitions assigned : {}", partitions);
+        List<TopicPartition> events = partitions.stream()
+                .filter(partition -> TOPIC.equals(partition.topic()))
+                .collect(Collectors.toList());
+        if (!events.isEmpty() && properties.getWarmEvents() > 0) {
+            List<PartitionInfo> partitionInfos = consumer.partitionsFor(TOPIC);
+            eventCacheWarmer.warm(events, partitionInfos == null ? 0 : partitionInfos.size());
+        }
+    }
+
+    private void drain() {
+        KeyStripedExecutor executor = keyStripedExecutor.getIfAvailable();
+        if (executor == null)
+            return;
+        try {
+            if (!executor.awaitIdle(properties.getDrainTimeoutMs(), TimeUnit.MILLISECONDS))
+                log.warn("Workers did not drain within {} ms, the new owner may process some records again", properties.getDrainTimeoutMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void count(String change, Collection<TopicPartition> partitions) {
+        meterRegistry.counter("events.consumer.rebalance.partitions", "change", change).increment(partitions.size());
+    }
+}
@@ -1,8 +1,62 @@
 package com.ashishnitw.eventsconsumer.jpa;
 
+import com.ashishnitw.eventsconsumer.config.CacheConfig;
 import com.ashishnitw.eventsconsumer.model.Event;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
-public interface EventRepository extends CrudRepository<Event, Integer> {
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
-}
\ No newline at end of file
+/**
+ * Single event reads and writes go through the {@link CacheConfig#EVENTS} cache. {@code saveAll} cannot be keyed
+ * by annotation, neither can {@code upsertAll}, their callers put the saved events themselves.
+ */
+public interface EventRepository extends CrudRepository<Event, Integer>, EventRepositoryCustom {
+
+    // id projection, so checking existence does not load the events and their books
+    @Query("select e.id from Event e where e.id in :ids")
+    List<Integer> findExistingIds(@Param("ids") Collection<Integer> ids);
+
+    // ids come from the sequence, the highest are the most recent events
+    @Query("select e.id from Event e order by e.id desc")
+    List<Integer> findRecentIds(Pageable pageable);
+
+    // events with their books in one query, e.g. to warm the cache
+    @Query("select e from Event e left join fetch e.book where e.id in :ids")
+    List<Event> findAllWithBooks(@Param("ids") Collection<Integer> ids);
+
+    @Override
+    @Cacheable(cacheNames = CacheConfig.EVENTS, unless = "#result == null")
+    Optional<Event> findById(Integer id);
+
+    @Override
+    @CachePut(cacheNames = CacheConfig.EVENTS, key = "#result.id")
+    <S extends Event> S save(S event);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.EVENTS)
+    void deleteById(Integer id);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.EVENTS, key = "#p0.id")
+    void delete(Event event);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.EVENTS, allEntries = true)
+    void deleteAllById(Iterable<? extends Integer> ids);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.EVENTS, allEntries = true)
+    void deleteAll(Iterable<? extends Event> events);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.EVENTS, allEntries = true)
+    void deleteAll();
+}
@@ -0,0 +1,17 @@
+package com.ashishnitw.eventsconsumer.jpa;
+
+import com.ashishnitw.eventsconsumer.model.Event;
+
+import java.util.List;
+
+public interface EventRepositoryCustom {
+
+    /**
+     * Inserts or updates the events and their books with JDBC batches, bypassing the persistence context. Events
+     * without an id get one from the event sequence, events with an id are updated, or inserted when they do not
+     * exist yet, the same for the books by their id.
+     *
+     * @return the given events, with their ids assigned
+     */
+    <S extends Event> List<S> upsertAll(List<S> events);
+}
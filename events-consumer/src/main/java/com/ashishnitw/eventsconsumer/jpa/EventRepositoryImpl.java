@@ -0,0 +1,124 @@
+package com.ashishnitw.eventsconsumer.jpa;
+
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Bulk writer behind {@link EventRepositoryCustom#upsertAll(List)}. An upsert is an update batch followed by an
+ * insert batch for the rows the update did not find, which works on every database. A driver that reports
+ * {@link Statement#SUCCESS_NO_INFO} for the rows of a batch does not tell which ones it found, those are looked up
+ * by id before the inserts. The ids of new events come in
+ * blocks of {@link Event#ID_ALLOCATION_SIZE} from the sequence Hibernate uses, one round trip per block.
+ */
+public class EventRepositoryImpl implements EventRepositoryCustom {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final int batchSize;
+
+    private final String nextIdBlockSql;
+
+    // the current block of ids, nextId above lastId when it is used up
+    private int nextId = 1;
+
+    private int lastId = 0;
+
+    public EventRepositoryImpl(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory,
+                               @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.nextIdBlockSql = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect().getSequenceNextValString(Event.ID_SEQUENCE);
+    }
+
+    @Override
+    @Transactional
+    public <S extends Event> List<S> upsertAll(List<S> events) {
+        List<Event> existing = new ArrayList<>(events.size());
+        List<Event> inserts = new ArrayList<>(events.size());
+        List<Book> books = new ArrayList<>(events.size());
+        for (S event : events) {
+            if (event.getBook() == null || event.getBook().getId() == null)
+                throw new IllegalArgumentException("Book Id is missing");
+            if (event.getId() == null) {
+                event.setId(nextId());
+                inserts.add(event);
+            } else {
+                existing.add(event);
+            }
+            event.getBook().setEvent(event);
+            books.add(event.getBook());
+        }
+
+        ParameterizedPreparedStatementSetter<Event> eventValues = (ps, event) -> {
+            setType(ps, 1, event);
+            ps.setInt(2, event.getId());
+        };
+        inserts.addAll(notUpdated("event", existing, Event::getId, jdbcTemplate.batchUpdate("update event set type = ? where id = ?", existing, batchSize, eventValues)));
+        jdbcTemplate.batchUpdate("insert into event (type, id) values (?, ?)", inserts, batchSize, eventValues);
+
+        ParameterizedPreparedStatementSetter<Book> bookValues = (ps, book) -> {
+            ps.setString(1, book.getName());
+            ps.setInt(2, book.getEvent().getId());
+            ps.setInt(3, book.getId());
+        };
+        List<Book> bookInserts = notUpdated("book", books, Book::getId, jdbcTemplate.batchUpdate("update book set name = ?, event_id = ? where id = ?", books, batchSize, bookValues));
+        jdbcTemplate.batchUpdate("insert into book (name, event_id, id) values (?, ?, ?)", bookInserts, batchSize, bookValues);
+        return events;
+    }
+
+    private synchronized int nextId() {
+        if (nextId > lastId) {
+            // pooled-lo, the sequence value is the first id of the block
+            Long first = jdbcTemplate.queryForObject(nextIdBlockSql, Long.class);
+            nextId = first.intValue();
+            lastId = nextId + Event.ID_ALLOCATION_SIZE - 1;
+        }
+        return nextId++;
+    }
+
+    private static void setType(PreparedStatement ps, int index, Event event) throws SQLException {
+        if (event.getType() == null)
+            ps.setNull(index, Types.VARCHAR);
+        else
+            ps.setString(index, event.getType().name());
+    }
+
+    // the rows of an update batch that matched nothing, one count array per batch of batchSize rows
+    private <T> List<T> notUpdated(String table, List<T> rows, Function<T, Integer> id, int[][] counts) {
+        List<T> missing = new ArrayList<>();
+        List<T> unknown = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            int count = counts[i / batchSize][i % batchSize];
+            if (count == 0)
+                missing.add(rows.get(i));
+            else if (count == Statement.SUCCESS_NO_INFO)
+                unknown.add(rows.get(i));
+        }
+        // updated or not, the rows that exist now are the ones the update found
+        for (int from = 0; from < unknown.size(); from += batchSize) {
+            List<T> chunk = unknown.subList(from, Math.min(from + batchSize, unknown.size()));
+            String sql = "select id from " + table + " where id in (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            Set<Integer> found = new HashSet<>(jdbcTemplate.queryForList(sql, Integer.class, chunk.stream().map(id).toArray()));
+            chunk.stream().filter(row -> !found.contains(id.apply(row))).forEach(missing::add);
+        }
+        return missing;
+    }
+}
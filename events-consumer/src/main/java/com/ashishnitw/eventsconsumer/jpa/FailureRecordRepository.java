@@ -1,11 +1,49 @@
 package com.ashishnitw.eventsconsumer.jpa;
 
 import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 public interface FailureRecordRepository extends CrudRepository<FailureRecord, Integer> {
 
     List<FailureRecord> findAllByStatus(String status);
-}
\ No newline at end of file
+
+    // keyset paging on the (status, nextAttemptAt, bookId) index, afterId is the last id of the previous page
+    @Query("select f.bookId from FailureRecord f where f.status = :status and f.nextAttemptAt <= :now and f.bookId > :afterId order by f.bookId")
+    List<Integer> findDueIds(@Param("status") String status, @Param("now") Instant now, @Param("afterId") Integer afterId, Pageable pageable);
+
+    // keyset paging like findDueIds, a null criterion matches every row, exceptionTypeSuffix is ".<exceptionType>"
+    @Query("select f.bookId from FailureRecord f where f.status in :statuses and f.bookId > :afterId"
+            + " and (:topic is null or f.topic = :topic) and (:partition is null or f.partition = :partition)"
+            + " and (:from is null or f.failedAt >= :from) and (:to is null or f.failedAt < :to)"
+            + " and (:exceptionType is null or f.exceptionType = :exceptionType or f.exceptionType like :exceptionTypeSuffix)"
+            + " order by f.bookId")
+    List<Integer> findIds(@Param("statuses") Collection<String> statuses, @Param("topic") String topic,
+                          @Param("partition") Integer partition, @Param("from") Instant from, @Param("to") Instant to,
+                          @Param("exceptionType") String exceptionType, @Param("exceptionTypeSuffix") String exceptionTypeSuffix,
+                          @Param("afterId") Integer afterId, Pageable pageable);
+
+    // only rows that are still due are taken, so two instances can never claim the same row for the same lease
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update FailureRecord f set f.claimToken = :claimToken, f.nextAttemptAt = :leaseUntil where f.bookId in :ids and f.status = :status and f.nextAttemptAt <= :now")
+    int claim(@Param("ids") Collection<Integer> ids, @Param("status") String status, @Param("now") Instant now,
+              @Param("leaseUntil") Instant leaseUntil, @Param("claimToken") String claimToken);
+
+    List<FailureRecord> findAllByClaimTokenOrderByBookId(String claimToken);
+
+    // only rows still under this claim, a row whose lease expired may have been claimed by another instance since
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update FailureRecord f set f.status = :status, f.claimToken = null where f.bookId in :ids and f.claimToken = :claimToken")
+    int updateStatus(@Param("ids") Collection<Integer> ids, @Param("status") String status, @Param("claimToken") String claimToken);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update FailureRecord f set f.nextAttemptAt = :nextAttemptAt, f.claimToken = null where f.bookId in :ids and f.claimToken = :claimToken")
+    int reschedule(@Param("ids") Collection<Integer> ids, @Param("nextAttemptAt") Instant nextAttemptAt, @Param("claimToken") String claimToken);
+}
@@ -0,0 +1,15 @@
+package com.ashishnitw.eventsconsumer.jpa;
+
+import com.ashishnitw.eventsconsumer.model.ProcessedOffset;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+public interface ProcessedOffsetRepository extends CrudRepository<ProcessedOffset, String> {
+
+    // only moves forward, the row lock also keeps a second consumer of the partition out until this one commits
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update ProcessedOffset p set p.nextOffset = :nextOffset where p.id = :id and p.nextOffset < :nextOffset")
+    int advance(@Param("id") String id, @Param("nextOffset") long nextOffset);
+}
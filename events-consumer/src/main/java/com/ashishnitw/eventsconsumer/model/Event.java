@@ -2,6 +2,8 @@ package com.ashishnitw.eventsconsumer.model;
 
 import com.ashishnitw.eventsconsumer.constant.EventType;
 import lombok.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 
@@ -12,12 +14,22 @@ import javax.persistence.*;
 @Entity
 public class Event {
 
+    public static final String ID_SEQUENCE = "event_seq";
+
+    // ids taken from the sequence per round trip, pooled-lo : the sequence value is the first id of the block, so
+    // the bulk writer of EventRepository can allocate from the same sequence without overlapping
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = ID_SEQUENCE)
+    @GenericGenerator(name = ID_SEQUENCE, strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = ID_SEQUENCE),
+            @Parameter(name = "increment_size", value = "" + ID_ALLOCATION_SIZE),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
     private Integer id;
     @Enumerated(EnumType.STRING)
     private EventType type;
     @OneToOne(mappedBy = "event", cascade = {CascadeType.ALL})
     @ToString.Exclude
     private Book book;
-}
\ No newline at end of file
+}
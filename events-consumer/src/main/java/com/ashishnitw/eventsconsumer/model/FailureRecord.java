@@ -8,21 +8,35 @@ import lombok.NoArgsConstructor;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
 
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 @Data
 @Entity
+@Table(indexes = @Index(name = "idx_failure_record_status_next_attempt", columnList = "status, nextAttemptAt, bookId"))
 public class FailureRecord {
     @Id
     @GeneratedValue
     private Integer bookId;
     private String topic;
     private Integer key;
+    // the payload as text, base64 for formats that are not json
     private String errorRecord;
+    private String format;
     private Integer partition;
     private Long offset_value;
     private String exception;
+    // class name of the exception, null for records stored before it was kept
+    private String exceptionType;
+    // when the record first failed, nextAttemptAt moves on with every attempt
+    private Instant failedAt;
     private String status;
+    // RETRY rows become due at this time, a claimed row is leased until it
+    private Instant nextAttemptAt;
+    // set by the RetryScheduler instance that claimed the row
+    private String claimToken;
 }
@@ -0,0 +1,32 @@
+package com.ashishnitw.eventsconsumer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Position up to which a topic partition has been applied to the database. It is written in the same transaction
+ * as the events, so it is the source of truth for where the listener resumes in the exactly-once mode.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+@Entity
+public class ProcessedOffset {
+    // topic-partition
+    @Id
+    private String id;
+    private String topic;
+    private Integer partitionNumber;
+    // offset of the next record to process
+    private Long nextOffset;
+
+    public static String idOf(String topic, int partition) {
+        return topic + "-" + partition;
+    }
+}
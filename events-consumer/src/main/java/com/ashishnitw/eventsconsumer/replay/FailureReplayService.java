@@ -0,0 +1,259 @@
+package com.ashishnitw.eventsconsumer.replay;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.config.ReplayProperties;
+import com.ashishnitw.eventsconsumer.consumer.KeyStripedExecutor;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.FailureRecordService;
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a filtered set of failure records, e.g. the backlog of an outage, instead of leaving it to the
+ * RetryScheduler, which takes the due RETRY records one at a time. A replay pages through the matching records by
+ * id, claims them like the RetryScheduler does, so the two never replay the same record, and hands the records to
+ * key-striped workers paced to the records per second. Records of one key are replayed in id order.
+ * <p>
+ * A paced replay claims no more records at a time than it hands to the workers within half of
+ * {@code events.retry.lease-ms}, so the lease does not expire while the records wait for their turn. A record is
+ * only released under the claim it was taken with, see {@link FailureRecordService#markSucceeded(Collection)}.
+ * <p>
+ * A replayed record becomes SUCCESS. A RETRY record that fails again is rescheduled, a DEAD one stays DEAD. One
+ * replay runs at a time, a cancelled one finishes the records already handed to the workers and releases the rest
+ * of its claim.
+ */
+@Service
+@Slf4j
+public class FailureReplayService {
+
+    private final FailureRecordService failureRecordService;
+
+    private final EventService eventService;
+
+    private final ReplayProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final long leaseMs;
+
+    private final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("failure-replay-");
+
+    // in start order, the finished ones beyond max-finished are dropped
+    private final Map<String, ReplayJob> jobs = new LinkedHashMap<>();
+
+    public FailureReplayService(FailureRecordService failureRecordService, EventService eventService,
+                                ReplayProperties properties, MeterRegistry meterRegistry,
+                                @Value("${events.retry.lease-ms:60000}") long leaseMs) {
+        this.failureRecordService = failureRecordService;
+        this.eventService = eventService;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.leaseMs = leaseMs;
+    }
+
+    /**
+     * Starts a replay in the background.
+     *
+     * @throws IllegalArgumentException for an invalid request or a filter the failure record store cannot select
+     * @throws ReplayRunningException   while another replay runs
+     */
+    public synchronized ReplayJob start(ReplayRequest request) {
+        FailureRecordFilter filter = request.getFilter() != null ? request.getFilter() : new FailureRecordFilter();
+        int workers = request.getWorkers() != null ? request.getWorkers() : properties.getWorkers();
+        int recordsPerSecond = request.getRecordsPerSecond() != null ? request.getRecordsPerSecond() : properties.getRecordsPerSecond();
+        if (workers < 1 || recordsPerSecond < 0)
+            throw new IllegalArgumentException("workers must be positive and recordsPerSecond not negative");
+        if (filter.statusesOrDefault().contains(EventConsumerConfig.SUCCESS))
+            throw new IllegalArgumentException("Only RETRY and DEAD records can be replayed");
+        Optional<ReplayJob> running = jobs.values().stream().filter(job -> !job.isFinished()).findFirst();
+        if (running.isPresent())
+            throw new ReplayRunningException("Replay " + running.get().getId() + " is still running");
+        // fails right away for a filter the store does not support
+        failureRecordService.findIds(filter, 0, 1);
+
+        ReplayJob job = new ReplayJob(UUID.randomUUID().toString(), filter, workers, recordsPerSecond);
+        jobs.put(job.getId(), job);
+        dropFinished();
+        log.info("Starting replay {} of failure records {}, {} workers, {} records/sec", job.getId(), filter, workers, recordsPerSecond);
+        threadFactory.newThread(() -> run(job)).start();
+        return job;
+    }
+
+    public synchronized Optional<ReplayJob> job(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public synchronized List<ReplayJob> jobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Asks a running replay to stop, it is CANCELLED once the records handed to the workers are done.
+     */
+    public synchronized Optional<ReplayJob> cancel(String id) {
+        ReplayJob job = jobs.get(id);
+        if (job != null && job.requestCancel())
+            log.info("Cancelling replay {}", id);
+        return Optional.ofNullable(job);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<ReplayJob> running;
+        synchronized (this) {
+            running = new ArrayList<>(jobs.values());
+        }
+        running.forEach(ReplayJob::requestCancel);
+        running.forEach(job -> {
+            try {
+                job.done().get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("Replay {} did not stop within 10 seconds", job.getId());
+            }
+        });
+    }
+
+    void run(ReplayJob job) {
+        KeyStripedExecutor executor = new KeyStripedExecutor(job.getWorkers(), "failure-replay-" + job.getId().substring(0, 8) + "-");
+        Pacer pacer = new Pacer(job.getRecordsPerSecond());
+        String failure = null;
+        try {
+            Integer afterId = 0;
+            while (!job.isCancelRequested()) {
+                List<Integer> ids = failureRecordService.findIds(job.getFilter(), afterId, properties.getPageSize());
+                if (ids.isEmpty())
+                    break;
+                afterId = ids.get(ids.size() - 1);
+
+                int claimSize = claimSize(job);
+                for (int from = 0; from < ids.size() && !job.isCancelRequested(); from += claimSize) {
+                    List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + claimSize));
+                    job.matched.addAndGet(chunk.size());
+                    List<FailureRecord> claimed = new ArrayList<>(chunk.size());
+                    for (String status : job.getFilter().statusesOrDefault())
+                        claimed.addAll(failureRecordService.claim(chunk, status));
+                    claimed.sort(Comparator.comparing(FailureRecord::getBookId));
+                    job.claimed.addAndGet(claimed.size());
+                    replay(job, executor, pacer, claimed);
+                }
+
+                if (ids.size() < properties.getPageSize())
+                    break;
+            }
+        } catch (Exception e) {
+            log.error("Replay {} failed : ", job.getId(), e);
+            failure = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+        } finally {
+            try {
+                executor.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            job.finish(failure);
+        }
+        log.info("Replay {} {} : {} matched, {} claimed, {} succeeded, {} failed", job.getId(), job.getState(),
+                job.getMatched(), job.getClaimed(), job.getSucceeded(), job.getFailed());
+    }
+
+    private void replay(ReplayJob job, KeyStripedExecutor executor, Pacer pacer, List<FailureRecord> failureRecords) throws InterruptedException {
+        List<FailureRecord> succeeded = Collections.synchronizedList(new ArrayList<>());
+        List<FailureRecord> failedRetries = Collections.synchronizedList(new ArrayList<>());
+        List<FailureRecord> failedDead = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(failureRecords.size());
+        Iterator<FailureRecord> pending = failureRecords.iterator();
+        try {
+            while (pending.hasNext() && !job.isCancelRequested()) {
+                pacer.await();
+                FailureRecord failureRecord = pending.next();
+                futures.add(executor.submit(failureRecord.getKey(), () -> {
+                    if (replay(failureRecord)) {
+                        succeeded.add(failureRecord);
+                        job.succeeded.incrementAndGet();
+                    } else {
+                        (EventConsumerConfig.DEAD.equals(failureRecord.getStatus()) ? failedDead : failedRetries).add(failureRecord);
+                        job.failed.incrementAndGet();
+                    }
+                }));
+            }
+        } finally {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            // claimed but not handed to the workers, due again after the usual backoff
+            pending.forEachRemaining(failureRecord -> (EventConsumerConfig.DEAD.equals(failureRecord.getStatus()) ? failedDead : failedRetries).add(failureRecord));
+            failureRecordService.markSucceeded(succeeded);
+            failureRecordService.reschedule(failedRetries);
+            failureRecordService.markDead(failedDead);
+        }
+    }
+
+    // records handed to the workers within half of the lease at the rate of the replay, the other half is left for
+    // the workers to finish them, an unpaced replay claims a page
+    private int claimSize(ReplayJob job) {
+        if (job.getRecordsPerSecond() == 0)
+            return properties.getPageSize();
+        long withinLease = job.getRecordsPerSecond() * leaseMs / 2000;
+        return (int) Math.max(1, Math.min(properties.getPageSize(), withinLease));
+    }
+
+    private boolean replay(FailureRecord failureRecord) {
+        try {
+            eventService.reprocessEvent(failureRecordService.toConsumerRecord(failureRecord));
+            meterRegistry.counter("events.replay.records", "status", failureRecord.getStatus(), "outcome", "success").increment();
+            return true;
+        } catch (Exception e) {
+            log.debug("Replay of failure record {} failed : {}", failureRecord.getBookId(), e.getMessage());
+            meterRegistry.counter("events.replay.records", "status", failureRecord.getStatus(), "outcome", "failure").increment();
+            return false;
+        }
+    }
+
+    private void dropFinished() {
+        int finished = (int) jobs.values().stream().filter(ReplayJob::isFinished).count();
+        Iterator<ReplayJob> oldest = jobs.values().iterator();
+        while (finished > properties.getMaxFinished() && oldest.hasNext()) {
+            if (oldest.next().isFinished()) {
+                oldest.remove();
+                finished--;
+            }
+        }
+    }
+
+    // spaces the records evenly at the rate, a replay that fell behind does not burst to catch up
+    private static class Pacer {
+
+        private final long intervalNanos;
+
+        private long next = System.nanoTime();
+
+        Pacer(int recordsPerSecond) {
+            this.intervalNanos = recordsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / recordsPerSecond : 0;
+        }
+
+        void await() throws InterruptedException {
+            if (intervalNanos == 0)
+                return;
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+            next = Math.max(next, System.nanoTime()) + intervalNanos;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.ashishnitw.eventsconsumer.replay;
+
+import com.ashishnitw.eventsconsumer.config.ReplayProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Admin API of the failure record replays :
+ * <ul>
+ *     <li>POST : starts a replay of the records matching the filter of the {@link ReplayRequest}, 409 while one runs</li>
+ *     <li>GET /{id}/progress : the job as server-sent "progress" events until it finished</li>
+ *     <li>DELETE /{id} : cancels it</li>
+ * </ul>
+ * The progress events are sent from a thread of their own, a slow client must not hold up the scheduled tasks.
+ */
+@RestController
+@RequestMapping("/admin/failure-records/replays")
+@Slf4j
+public class ReplayController {
+
+    private final FailureReplayService replayService;
+
+    private final ReplayProperties properties;
+
+    private final ScheduledExecutorService progressScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("replay-progress-"));
+
+    public ReplayController(FailureReplayService replayService, ReplayProperties properties) {
+        this.replayService = replayService;
+        this.properties = properties;
+    }
+
+    @PostMapping
+    public ResponseEntity<ReplayJob> start(@RequestBody(required = false) ReplayRequest request) {
+        ReplayJob job = replayService.start(request != null ? request : new ReplayRequest());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    @GetMapping
+    public List<ReplayJob> jobs() {
+        return replayService.jobs();
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ReplayJob> job(@PathVariable String id) {
+        return ResponseEntity.of(replayService.job(id));
+    }
+
+    @GetMapping(path = "/{id}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> progress(@PathVariable String id) {
+        Optional<ReplayJob> job = replayService.job(id);
+        if (!job.isPresent())
+            return ResponseEntity.notFound().build();
+        SseEmitter emitter = new SseEmitter(0L);
+        AtomicReference<ScheduledFuture<?>> updates = new AtomicReference<>();
+        updates.set(progressScheduler.scheduleAtFixedRate(() -> {
+            ReplayJob current = job.get();
+            try {
+                emitter.send(SseEmitter.event().name("progress").data(current, MediaType.APPLICATION_JSON));
+                if (current.isFinished())
+                    emitter.complete();
+                else
+                    return;
+            } catch (IOException | IllegalStateException e) {
+                // the client went away
+                log.debug("Progress of replay {} no longer sent : {}", id, e.getMessage());
+            }
+            ScheduledFuture<?> future = updates.get();
+            if (future != null)
+                future.cancel(false);
+        }, 0, properties.getProgressIntervalMs(), TimeUnit.MILLISECONDS));
+        emitter.onCompletion(() -> updates.get().cancel(false));
+        emitter.onTimeout(() -> updates.get().cancel(false));
+        return ResponseEntity.ok(emitter);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<ReplayJob> cancel(@PathVariable String id) {
+        return ResponseEntity.of(replayService.cancel(id));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        progressScheduler.shutdownNow();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidRequest(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+
+    @ExceptionHandler(ReplayRunningException.class)
+    public ResponseEntity<String> handleRunning(ReplayRunningException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+}
@@ -0,0 +1,145 @@
+package com.ashishnitw.eventsconsumer.replay;
+
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One replay of failure records, see {@link FailureReplayService}. The counters move while it runs, the job is
+ * serialized as is for the progress of the replay.
+ * <ul>
+ *     <li>matched : records selected by the filter so far</li>
+ *     <li>claimed : the ones taken, a record that is leased by the RetryScheduler or not due yet is skipped</li>
+ *     <li>succeeded, failed : the claimed ones replayed so far</li>
+ * </ul>
+ */
+public class ReplayJob {
+
+    public enum State {RUNNING, CANCELLING, CANCELLED, COMPLETED, FAILED}
+
+    private final String id;
+
+    private final FailureRecordFilter filter;
+
+    private final int workers;
+
+    private final int recordsPerSecond;
+
+    private final Instant startedAt = Instant.now();
+
+    private volatile Instant finishedAt;
+
+    private volatile State state = State.RUNNING;
+
+    private volatile String error;
+
+    final AtomicLong matched = new AtomicLong();
+
+    final AtomicLong claimed = new AtomicLong();
+
+    final AtomicLong succeeded = new AtomicLong();
+
+    final AtomicLong failed = new AtomicLong();
+
+    private final CompletableFuture<ReplayJob> done = new CompletableFuture<>();
+
+    ReplayJob(String id, FailureRecordFilter filter, int workers, int recordsPerSecond) {
+        this.id = id;
+        this.filter = filter;
+        this.workers = workers;
+        this.recordsPerSecond = recordsPerSecond;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public FailureRecordFilter getFilter() {
+        return filter;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getRecordsPerSecond() {
+        return recordsPerSecond;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getMatched() {
+        return matched.get();
+    }
+
+    public long getClaimed() {
+        return claimed.get();
+    }
+
+    public long getSkipped() {
+        return matched.get() - claimed.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Records replayed per second since the start, until the end once finished.
+     */
+    public double getThroughput() {
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(1, Duration.between(startedAt, end).toMillis());
+        return (succeeded.get() + failed.get()) * 1000.0 / millis;
+    }
+
+    public boolean isFinished() {
+        return done.isDone();
+    }
+
+    /**
+     * Completes with the job once it finished, whatever the outcome.
+     */
+    public CompletableFuture<ReplayJob> done() {
+        return done;
+    }
+
+    boolean isCancelRequested() {
+        return state == State.CANCELLING;
+    }
+
+    synchronized boolean requestCancel() {
+        if (state != State.RUNNING)
+            return false;
+        state = State.CANCELLING;
+        return true;
+    }
+
+    synchronized void finish(String failure) {
+        error = failure;
+        state = failure != null ? State.FAILED : state == State.CANCELLING ? State.CANCELLED : State.COMPLETED;
+        finishedAt = Instant.now();
+        done.complete(this);
+    }
+}
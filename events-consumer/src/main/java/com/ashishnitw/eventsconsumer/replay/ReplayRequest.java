@@ -0,0 +1,22 @@
+package com.ashishnitw.eventsconsumer.replay;
+
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Body of {@code POST /admin/failure-records/replays} : the records to replay, workers and rate default to
+ * {@code events.replay}.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+public class ReplayRequest {
+
+    private FailureRecordFilter filter;
+    private Integer workers;
+    private Integer recordsPerSecond;
+}
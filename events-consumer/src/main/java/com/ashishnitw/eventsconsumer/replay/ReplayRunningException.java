@@ -0,0 +1,11 @@
+package com.ashishnitw.eventsconsumer.replay;
+
+/**
+ * Thrown by {@link FailureReplayService#start(ReplayRequest)} while another replay runs, answered with 409.
+ */
+public class ReplayRunningException extends IllegalStateException {
+
+    public ReplayRunningException(String message) {
+        super(message);
+    }
+}
@@ -1,15 +1,18 @@
 package com.ashishnitw.eventsconsumer.scheduler;
 
-import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
-import com.ashishnitw.eventsconsumer.jpa.FailureRecordRepository;
 import com.ashishnitw.eventsconsumer.model.FailureRecord;
 import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.FailureRecordService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Component
 @Slf4j
 public class RetryScheduler {
@@ -18,33 +21,54 @@ public class RetryScheduler {
     EventService eventService;
 
     @Autowired
-    FailureRecordRepository failureRecordRepository;
+    FailureRecordService failureRecordService;
+
+    @Value("${events.retry.page-size:100}")
+    int pageSize;
+
+    @Value("${events.retry.max-pages-per-run:50}")
+    int maxPagesPerRun;
 
-    @Scheduled(fixedRate = 10000)
+    @Scheduled(fixedDelayString = "${events.retry.interval-ms:10000}")
     public void retryFailedRecords() {
         log.info("Running Retry Scheduler");
-        String status = EventConsumerConfig.RETRY;
-        failureRecordRepository.findAllByStatus(status).forEach(failureRecord -> {
+        Integer afterId = 0;
+        int retried = 0;
+        for (int page = 0; page < maxPagesPerRun; page++) {
+            List<Integer> dueIds = failureRecordService.findDueRetryIds(afterId, pageSize);
+            if (dueIds.isEmpty())
+                break;
+            afterId = dueIds.get(dueIds.size() - 1);
+
+            // rows claimed by another instance in the meantime are simply not returned
+            List<FailureRecord> claimed = failureRecordService.claim(dueIds);
+            retried += retry(claimed);
+
+            if (dueIds.size() < pageSize)
+                break;
+        }
+        if (retried > 0)
+            log.info("Retried {} Failed Records", retried);
+    }
+
+    private int retry(List<FailureRecord> failureRecords) {
+        List<FailureRecord> succeeded = new ArrayList<>(failureRecords.size());
+        List<FailureRecord> failed = new ArrayList<>();
+        failureRecords.forEach(failureRecord -> {
             try {
                 log.info("Retrying Failed Record");
-                ConsumerRecord<Integer, String> consumerRecord = buildConsumerRecord(failureRecord);
-                eventService.processEvent(consumerRecord);
+                ConsumerRecord<Integer, byte[]> consumerRecord = failureRecordService.toConsumerRecord(failureRecord);
+                eventService.reprocessEvent(consumerRecord);
                 // libraryEventsConsumer.onMessage(consumerRecord); // This does not involve the recovery code for in the consumerConfig
-                failureRecord.setStatus(EventConsumerConfig.SUCCESS);
-                failureRecordRepository.save(failureRecord);
+                succeeded.add(failureRecord);
             } catch (Exception e) {
                 log.error("Exception in retryFailedRecords : ", e);
+                failed.add(failureRecord);
             }
         });
-    }
-
-    private ConsumerRecord<Integer, String> buildConsumerRecord(FailureRecord failureRecord) {
-        return new ConsumerRecord<>(
-                failureRecord.getTopic(),
-                failureRecord.getPartition(),
-                failureRecord.getOffset_value(),
-                failureRecord.getKey(),
-                failureRecord.getErrorRecord()
-        );
+        // one update per outcome instead of one save per row
+        failureRecordService.markSucceeded(succeeded);
+        failureRecordService.reschedule(failed);
+        return failureRecords.size();
     }
 }
@@ -0,0 +1,94 @@
+package com.ashishnitw.eventsconsumer.service;
+
+import com.ashishnitw.eventsconsumer.config.CacheConfig;
+import com.ashishnitw.eventsconsumer.config.RebalanceProperties;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.model.Event;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.IntegerSerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Loads the events a newly assigned partition will most likely update into the events cache, so the first polls
+ * after a rebalance do not look them up one by one. UPDATEs are keyed by event id, the partition of an event is
+ * the one the producer's default partitioner picks for its id. The most recent {@code warm-events} events are
+ * taken, the ones already cached are skipped. Warming runs in the background, a rebalance never waits for it.
+ */
+@Service
+@Slf4j
+public class EventCacheWarmer {
+
+    private final EventRepository eventRepository;
+
+    private final CacheManager cacheManager;
+
+    private final RebalanceProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("event-cache-warmer-"));
+
+    private final IntegerSerializer keySerializer = new IntegerSerializer();
+
+    public EventCacheWarmer(EventRepository eventRepository, CacheManager cacheManager, RebalanceProperties properties, MeterRegistry meterRegistry) {
+        this.eventRepository = eventRepository;
+        this.cacheManager = cacheManager;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Warms the cache for the partitions of one topic, {@code partitionCount} being the partitions of the topic.
+     */
+    public void warm(Collection<TopicPartition> partitions, int partitionCount) {
+        if (properties.getWarmEvents() <= 0 || partitions.isEmpty() || partitionCount <= 0)
+            return;
+        Set<Integer> assigned = partitions.stream().map(TopicPartition::partition).collect(Collectors.toSet());
+        executor.execute(() -> {
+            try {
+                warm(assigned, partitionCount);
+            } catch (Exception e) {
+                log.warn("Warming the events cache for partitions {} failed : {}", assigned, e.getMessage());
+            }
+        });
+    }
+
+    void warm(Set<Integer> partitions, int partitionCount) {
+        Cache cache = cacheManager.getCache(CacheConfig.EVENTS);
+        List<Integer> ids = eventRepository.findRecentIds(PageRequest.of(0, properties.getWarmEvents())).stream()
+                .filter(id -> partitions.contains(partition(id, partitionCount)))
+                .filter(id -> cache.get(id) == null)
+                .collect(Collectors.toList());
+        if (ids.isEmpty())
+            return;
+        List<Event> events = eventRepository.findAllWithBooks(ids);
+        events.forEach(event -> cache.put(event.getId(), event));
+        meterRegistry.counter("events.cache.warmed").increment(events.size());
+        log.info("Warmed the events cache with {} events of partitions {}", events.size(), partitions);
+    }
+
+    // same as the producer's default partitioner for a keyed record
+    int partition(Integer id, int partitionCount) {
+        return Utils.toPositive(Utils.murmur2(keySerializer.serialize(null, id))) % partitionCount;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,16 +1,38 @@
 package com.ashishnitw.eventsconsumer.service;
 
+import com.ashishnitw.eventsconsumer.codec.EventCodecs;
+import com.ashishnitw.eventsconsumer.config.CacheConfig;
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.constant.EventHeaders;
+import com.ashishnitw.eventsconsumer.constant.EventType;
 import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.logging.RecordLogger;
 import com.ashishnitw.eventsconsumer.model.Event;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.dao.RecoverableDataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -20,12 +42,197 @@ public class EventService {
     EventRepository eventRepository;
 
     @Autowired
-    ObjectMapper objectMapper;
+    EventCodecs eventCodecs;
 
-    public void processEvent(ConsumerRecord<Integer, String> consumerRecord) throws JsonProcessingException {
-        Event event = objectMapper.readValue(consumerRecord.value(), Event.class);
-        log.info("event : {}", event);
+    @Autowired
+    FailureRecordService failureRecordService;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ProcessedOffsetService processedOffsetService;
 
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    RecordLogger recordLogger;
+
+    // jpa : saveAll through the persistence context, jdbc : upsertAll in plain JDBC batches
+    @Value("${events.consumer.persistence:jpa}")
+    String persistence;
+
+    // batch mode : only the last UPDATE of an event within a poll is persisted, see coalesceUpdates
+    @Value("${events.consumer.batch.coalesce-updates:false}")
+    boolean coalesceUpdates;
+
+    public void processEvent(ConsumerRecord<Integer, byte[]> consumerRecord) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            if (!processedOffsetService.isExactlyOnce()) {
+                apply(decode(consumerRecord));
+            } else if (!applyOnce(consumerRecord)) {
+                outcome = "skipped";
+                return;
+            }
+            outcome = "success";
+            recordEndToEnd(consumerRecord, System.currentTimeMillis());
+        } finally {
+            long latencyNanos = sample.stop(Timer.builder("events.consumer.process")
+                    .description("Time to decode, validate and persist one record")
+                    .tag("topic", consumerRecord.topic())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+            recordLogger.processed(consumerRecord, outcome, latencyNanos);
+        }
+    }
+
+    /**
+     * Processes a record taken back from the failure records. The listener has already moved past its offset, so
+     * it is applied without the exactly-once offset check.
+     */
+    public void reprocessEvent(ConsumerRecord<Integer, byte[]> consumerRecord) {
+        apply(decode(consumerRecord));
+    }
+
+    /**
+     * Batch counterpart of {@link #processEvent(ConsumerRecord)}. The whole poll is deserialized, validated with a
+     * single existence query and persisted in one transaction, so the inserts/updates go out as JDBC batches.
+     * Records that fail are handed to the {@link FailureRecordService} one by one, the rest of the batch is kept.
+     */
+    public void processEvents(List<ConsumerRecord<Integer, byte[]>> consumerRecords) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        DistributionSummary.builder("events.consumer.batch.size")
+                .description("Records handed to the batch listener per poll")
+                .baseUnit("records")
+                .register(meterRegistry)
+                .record(consumerRecords.size());
+        try {
+            persistBatch(consumerRecords);
+        } finally {
+            sample.stop(Timer.builder("events.consumer.batch")
+                    .description("Time to decode, validate and persist one poll")
+                    .register(meterRegistry));
+        }
+    }
+
+    private void persistBatch(List<ConsumerRecord<Integer, byte[]>> batch) {
+        List<ConsumerRecord<Integer, byte[]>> consumerRecords = processedOffsetService.isExactlyOnce()
+                ? processedOffsetService.unprocessed(batch) : batch;
+        List<ConsumerRecord<Integer, byte[]>> accepted = new ArrayList<>(consumerRecords.size());
+        List<Event> events = new ArrayList<>(consumerRecords.size());
+        for (ConsumerRecord<Integer, byte[]> consumerRecord : consumerRecords) {
+            try {
+                Event event = eventCodecs.decode(consumerRecord);
+                if (event.getType() == null) {
+                    log.info("Invalid Event Type");
+                    continue;
+                }
+                accepted.add(consumerRecord);
+                events.add(event);
+            } catch (Exception e) {
+                recover(consumerRecord, e);
+            }
+        }
+        if (events.isEmpty())
+            return;
+        if (coalesceUpdates)
+            coalesceUpdates(accepted, events);
+
+        Map<Integer, Exception> rejected = new LinkedHashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> persistAll(consumerRecords, events, rejected));
+        } catch (RuntimeException e) {
+            // one bad row rolls back the whole batch, persist one by one to isolate the offending records
+            log.warn("Bulk persist of {} events failed, persisting them one by one : {}", events.size(), e.getMessage());
+            rejected.clear();
+            persistEach(accepted, rejected);
+        }
+        rejected.forEach((index, ex) -> recover(accepted.get(index), ex));
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < accepted.size(); i++) {
+            if (!rejected.containsKey(i))
+                recordEndToEnd(accepted.get(i), now);
+        }
+    }
+
+    /**
+     * Drops the UPDATEs of the poll that a later UPDATE of the same event overwrites, the event is written once with
+     * its last state. A NEW carrying the id of the event is never passed, the UPDATEs before it stay. The records
+     * dropped are committed with the poll like the others, a failure of the last UPDATE goes to the failure records
+     * in their place.
+     */
+    private void coalesceUpdates(List<ConsumerRecord<Integer, byte[]>> consumerRecords, List<Event> events) {
+        Set<Integer> updated = new HashSet<>();
+        boolean[] absorbed = new boolean[events.size()];
+        int count = 0;
+        for (int i = events.size() - 1; i >= 0; i--) {
+            Event event = events.get(i);
+            if (event.getId() == null)
+                continue;
+            if (event.getType() != EventType.UPDATE)
+                updated.remove(event.getId());
+            else if (!updated.add(event.getId())) {
+                absorbed[i] = true;
+                count++;
+            }
+        }
+        if (count == 0)
+            return;
+        int kept = 0;
+        for (int i = 0; i < events.size(); i++) {
+            if (absorbed[i])
+                continue;
+            consumerRecords.set(kept, consumerRecords.get(i));
+            events.set(kept++, events.get(i));
+        }
+        consumerRecords.subList(kept, consumerRecords.size()).clear();
+        events.subList(kept, events.size()).clear();
+        meterRegistry.counter("events.consumer.coalesced", "topic", consumerRecords.get(0).topic()).increment(count);
+        log.debug("Coalesced {} updates, persisting {} events", count, kept);
+    }
+
+    /**
+     * Time from the producer building the record until it is persisted here. Records without the header, such as
+     * the ones rebuilt by the retry scheduler, are not measured.
+     */
+    private void recordEndToEnd(ConsumerRecord<Integer, byte[]> consumerRecord, long now) {
+        Header producedAt = consumerRecord.headers().lastHeader(EventHeaders.PRODUCED_AT);
+        if (producedAt == null || producedAt.value().length != Long.BYTES)
+            return;
+        Timer.builder("events.e2e.latency")
+                .description("Time from building the record in the producer until it was persisted")
+                .tag("topic", consumerRecord.topic())
+                .register(meterRegistry)
+                .record(Math.max(0, now - ByteBuffer.wrap(producedAt.value()).getLong()), TimeUnit.MILLISECONDS);
+    }
+
+    private Event decode(ConsumerRecord<Integer, byte[]> consumerRecord) {
+        Event event = eventCodecs.decode(consumerRecord);
+        recordLogger.payload(consumerRecord, event);
+        return event;
+    }
+
+    // the event and the position after its record are committed together, a redelivered record is skipped before
+    // its payload is decoded. False for a skipped record, the record mode reports it as outcome=skipped
+    private boolean applyOnce(ConsumerRecord<Integer, byte[]> consumerRecord) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (!processedOffsetService.markProcessed(consumerRecord)) {
+                log.debug("Skipping already processed record, partition : {} offset : {}", consumerRecord.partition(), consumerRecord.offset());
+                return false;
+            }
+            apply(decode(consumerRecord));
+            return true;
+        }));
+    }
+
+    private void apply(Event event) {
         switch (event.getType()) {
             case NEW:
                 save(event);
@@ -39,7 +246,78 @@ public class EventService {
         }
     }
 
+    private void persistAll(List<ConsumerRecord<Integer, byte[]>> consumerRecords, List<Event> events, Map<Integer, Exception> rejected) {
+        Set<Integer> updateIds = events.stream()
+                .filter(event -> event.getType() == EventType.UPDATE)
+                .map(Event::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        // events in the cache are known to exist, only the others are looked up
+        Cache cache = cacheManager.getCache(CacheConfig.EVENTS);
+        Set<Integer> existingIds = new HashSet<>();
+        Set<Integer> unknownIds = new HashSet<>();
+        updateIds.forEach(id -> (cache.get(id) != null ? existingIds : unknownIds).add(id));
+        if (!unknownIds.isEmpty())
+            existingIds.addAll(eventRepository.findExistingIds(unknownIds));
+
+        List<Event> valid = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            try {
+                if (event.getType() == EventType.UPDATE) {
+                    checkEventId(event);
+                    if (!existingIds.contains(event.getId())) {
+                        throw new IllegalArgumentException("Not a valid Event");
+                    }
+                }
+                event.getBook().setEvent(event);
+                valid.add(event);
+            } catch (RuntimeException e) {
+                rejected.put(i, e);
+            }
+        }
+        Iterable<Event> persisted = "jdbc".equals(persistence) ? eventRepository.upsertAll(valid) : eventRepository.saveAll(valid);
+        persisted.forEach(event -> cache.put(event.getId(), event));
+        if (processedOffsetService.isExactlyOnce())
+            processedOffsetService.markProcessed(consumerRecords);
+        log.info("Successfully Persisted {} events", valid.size());
+    }
+
+    private void persistEach(List<ConsumerRecord<Integer, byte[]>> consumerRecords, Map<Integer, Exception> rejected) {
+        for (int i = 0; i < consumerRecords.size(); i++) {
+            try {
+                // deserialize again, the entities of the failed batch may carry ids from the rolled back inserts
+                ConsumerRecord<Integer, byte[]> consumerRecord = consumerRecords.get(i);
+                if (processedOffsetService.isExactlyOnce())
+                    applyOnce(consumerRecord);
+                else
+                    transactionTemplate.executeWithoutResult(status -> apply(decode(consumerRecord)));
+            } catch (Exception e) {
+                rejected.put(i, e);
+            }
+        }
+    }
+
+    /**
+     * Hands a record that could not be processed to the failure records, RETRY for recoverable exceptions and DEAD
+     * for everything else.
+     */
+    public void recover(ConsumerRecord<Integer, byte[]> consumerRecord, Exception ex) {
+        log.error("Failed Record in batch : {}, Exception : {}", consumerRecord, ex.getMessage());
+        String status = ex instanceof RecoverableDataAccessException ? EventConsumerConfig.RETRY : EventConsumerConfig.DEAD;
+        failureRecordService.saveFailedRecord(consumerRecord, ex, status);
+    }
+
     private void validate(Event event) {
+        checkEventId(event);
+        Optional<Event> eventOptional = eventRepository.findById(event.getId());
+        if (!eventOptional.isPresent()) {
+            throw new IllegalArgumentException("Not a valid Event");
+        }
+        log.debug("Validation is successful for the library Event : {} ", eventOptional.get());
+    }
+
+    private void checkEventId(Event event) {
         if(event != null && event.getId() != null && event.getId() == 999) {
             // hardcoded just for testing recoverable exception
             throw new RecoverableDataAccessException("Testing recoverable exception...");
@@ -47,16 +325,11 @@ public class EventService {
         if (event.getId() == null) {
             throw new IllegalArgumentException("Event Id is missing");
         }
-        Optional<Event> eventOptional = eventRepository.findById(event.getId());
-        if (!eventOptional.isPresent()) {
-            throw new IllegalArgumentException("Not a valid Event");
-        }
-        log.info("Validation is successful for the library Event : {} ", eventOptional.get());
     }
 
     private void save(Event event) {
         event.getBook().setEvent(event);
         eventRepository.save(event);
-        log.info("Successfully Persisted the Event {} ", event);
+        log.debug("Successfully Persisted the Event {} ", event);
     }
 }
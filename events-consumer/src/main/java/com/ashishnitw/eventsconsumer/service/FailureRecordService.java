@@ -1,24 +1,164 @@
 package com.ashishnitw.eventsconsumer.service;
 
-import com.ashishnitw.eventsconsumer.jpa.FailureRecordRepository;
+import com.ashishnitw.eventsconsumer.codec.EventCodec;
+import com.ashishnitw.eventsconsumer.codec.EventCodecs;
+import com.ashishnitw.eventsconsumer.codec.JsonEventCodec;
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
 import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+import com.ashishnitw.eventsconsumer.store.FailureRecordStore;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
 @Service
 @Slf4j
 public class FailureRecordService {
 
-    private FailureRecordRepository failureRecordRepository;
+    private FailureRecordStore failureRecordStore;
+
+    @Value("${events.retry.lease-ms:60000}")
+    private long leaseMs;
+
+    @Value("${events.retry.backoff-ms:10000}")
+    private long backoffMs;
+
+    public FailureRecordService(FailureRecordStore failureRecordStore) {
+        this.failureRecordStore = failureRecordStore;
+    }
+
+    public void saveFailedRecord(ConsumerRecord<Integer, byte[]> record, Exception exception, String recordStatus) {
+        // listener exceptions wrap the real failure, exceptions raised by the batch path are passed as is
+        Throwable cause = exception.getCause() != null ? exception.getCause() : exception;
+        saveFailedRecord(record, cause.getClass().getName(), cause.getMessage(), recordStatus);
+    }
+
+    /**
+     * Same as {@link #saveFailedRecord(ConsumerRecord, Exception, String)} for failures that are only known by their
+     * class name and message, e.g. records arriving on a dead letter topic.
+     */
+    public void saveFailedRecord(ConsumerRecord<Integer, byte[]> record, String exceptionType, String exceptionMessage, String recordStatus) {
+        Instant now = Instant.now();
+        String format = EventCodecs.formatOf(record.headers());
+        FailureRecord failureRecord = FailureRecord.builder()
+                .topic(record.topic())
+                .key(record.key())
+                .errorRecord(toText(format, record.value()))
+                .format(format)
+                .partition(record.partition())
+                .offset_value(record.offset())
+                .exception(exceptionMessage)
+                .exceptionType(exceptionType)
+                .status(recordStatus)
+                .failedAt(now)
+                .nextAttemptAt(now)
+                .build();
+        failureRecordStore.save(failureRecord);
+    }
+
+    /**
+     * Rebuilds the original record, including its format header, so it can be processed again.
+     */
+    public ConsumerRecord<Integer, byte[]> toConsumerRecord(FailureRecord failureRecord) {
+        String format = failureRecord.getFormat() == null ? JsonEventCodec.FORMAT : failureRecord.getFormat();
+        ConsumerRecord<Integer, byte[]> consumerRecord = new ConsumerRecord<>(
+                failureRecord.getTopic(),
+                failureRecord.getPartition(),
+                failureRecord.getOffset_value(),
+                failureRecord.getKey(),
+                fromText(format, failureRecord.getErrorRecord())
+        );
+        consumerRecord.headers().add(new RecordHeader(EventCodec.FORMAT_HEADER, format.getBytes(StandardCharsets.UTF_8)));
+        return consumerRecord;
+    }
+
+    /**
+     * Ids of the next page of RETRY records that are due, in id order after {@code afterId}.
+     */
+    public List<Integer> findDueRetryIds(Integer afterId, int pageSize) {
+        return failureRecordStore.findDueRetryIds(Instant.now(), afterId, pageSize);
+    }
+
+    /**
+     * Leases the given records to the caller. Records already claimed by another instance are skipped, a claim that
+     * is not released (e.g. the instance died) expires after {@code events.retry.lease-ms}.
+     */
+    public List<FailureRecord> claim(Collection<Integer> ids) {
+        return claim(ids, EventConsumerConfig.RETRY);
+    }
+
+    /**
+     * Same as {@link #claim(Collection)} for the records of any status, e.g. DEAD records to replay.
+     */
+    public List<FailureRecord> claim(Collection<Integer> ids, String status) {
+        if (ids.isEmpty())
+            return Collections.emptyList();
+        Instant now = Instant.now();
+        return failureRecordStore.claimDue(ids, status, now, now.plusMillis(leaseMs), UUID.randomUUID().toString());
+    }
+
+    /**
+     * Ids of the next page of records matching the filter, in id order after {@code afterId}.
+     */
+    public List<Integer> findIds(FailureRecordFilter filter, Integer afterId, int pageSize) {
+        return failureRecordStore.findIds(filter, afterId, pageSize);
+    }
+
+    /**
+     * Releases claimed records that were processed. Like {@link #markDead(Collection)} and
+     * {@link #reschedule(Collection)} it only updates the records that still carry their claim, one whose lease
+     * expired and that was claimed again belongs to the new claim.
+     */
+    public void markSucceeded(Collection<FailureRecord> claimed) {
+        release(claimed, "marked " + EventConsumerConfig.SUCCESS, (ids, claimToken) -> failureRecordStore.updateStatus(ids, EventConsumerConfig.SUCCESS, claimToken));
+    }
+
+    /**
+     * Releases claimed DEAD records that failed again, they stay DEAD.
+     */
+    public void markDead(Collection<FailureRecord> claimed) {
+        release(claimed, "marked " + EventConsumerConfig.DEAD, (ids, claimToken) -> failureRecordStore.updateStatus(ids, EventConsumerConfig.DEAD, claimToken));
+    }
+
+    public void reschedule(Collection<FailureRecord> claimed) {
+        Instant nextAttemptAt = Instant.now().plusMillis(backoffMs);
+        release(claimed, "rescheduled", (ids, claimToken) -> failureRecordStore.reschedule(ids, nextAttemptAt, claimToken));
+    }
+
+    // one update per claim, a page of the RetryScheduler is a single claim
+    private void release(Collection<FailureRecord> claimed, String outcome, BiFunction<List<Integer>, String, Integer> update) {
+        Map<String, List<Integer>> idsByClaim = claimed.stream().collect(Collectors.groupingBy(FailureRecord::getClaimToken,
+                LinkedHashMap::new, Collectors.mapping(FailureRecord::getBookId, Collectors.toList())));
+        idsByClaim.forEach((claimToken, ids) -> {
+            int released = update.apply(ids, claimToken);
+            if (released < ids.size())
+                log.warn("{} of {} failure records not {}, their lease expired before they were done", ids.size() - released, ids.size(), outcome);
+        });
+    }
 
-    public FailureRecordService(FailureRecordRepository failureRecordRepository) {
-        this.failureRecordRepository = failureRecordRepository;
+    private static String toText(String format, byte[] payload) {
+        if (payload == null)
+            return null;
+        return JsonEventCodec.FORMAT.equals(format) ? new String(payload, StandardCharsets.UTF_8) : Base64.getEncoder().encodeToString(payload);
     }
 
-    public void saveFailedRecord(ConsumerRecord<Integer, String> record, Exception exception, String recordStatus) {
-        FailureRecord failureRecord = new FailureRecord(null, record.topic(), record.key(), record.value(),
-                record.partition(), record.offset(), exception.getCause().getMessage(), recordStatus);
-        failureRecordRepository.save(failureRecord);
+    private static byte[] fromText(String format, String text) {
+        if (text == null)
+            return null;
+        return JsonEventCodec.FORMAT.equals(format) ? text.getBytes(StandardCharsets.UTF_8) : Base64.getDecoder().decode(text);
     }
 }
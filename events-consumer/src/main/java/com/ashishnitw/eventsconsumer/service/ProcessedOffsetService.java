@@ -0,0 +1,116 @@
+package com.ashishnitw.eventsconsumer.service;
+
+import com.ashishnitw.eventsconsumer.jpa.ProcessedOffsetRepository;
+import com.ashishnitw.eventsconsumer.model.ProcessedOffset;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Consumer side of the exactly-once mode ({@code events.consumer.exactly-once=true}). The position of every
+ * partition is stored next to the events it produced, so a record redelivered after a rebalance or a crash is
+ * recognised by its offset and skipped, and the listeners resume from the stored position on assignment when it is
+ * ahead of the committed offset.
+ */
+@Service
+@Slf4j
+public class ProcessedOffsetService {
+
+    @Value("${events.consumer.exactly-once:false}")
+    boolean exactlyOnce;
+
+    @Autowired
+    ProcessedOffsetRepository processedOffsetRepository;
+
+    public boolean isExactlyOnce() {
+        return exactlyOnce;
+    }
+
+    /**
+     * Stores the position after {@code consumerRecord}. Has to run in the transaction that persists the record,
+     * returns false when the record was already processed.
+     */
+    public boolean markProcessed(ConsumerRecord<?, ?> consumerRecord) {
+        String id = ProcessedOffset.idOf(consumerRecord.topic(), consumerRecord.partition());
+        long nextOffset = consumerRecord.offset() + 1;
+        if (processedOffsetRepository.advance(id, nextOffset) == 1)
+            return true;
+        if (processedOffsetRepository.existsById(id))
+            return false;
+        // first record of the partition, a concurrent insert of the same partition fails on the primary key
+        processedOffsetRepository.save(ProcessedOffset.builder()
+                .id(id)
+                .topic(consumerRecord.topic())
+                .partitionNumber(consumerRecord.partition())
+                .nextOffset(nextOffset)
+                .build());
+        return true;
+    }
+
+    /**
+     * Stores the position after the last record of every partition in the batch. Has to run in the transaction
+     * that persists the batch, fails it when another consumer has moved a partition past the batch meanwhile.
+     */
+    public void markProcessed(List<? extends ConsumerRecord<?, ?>> consumerRecords) {
+        Map<TopicPartition, ConsumerRecord<?, ?>> last = new LinkedHashMap<>();
+        consumerRecords.forEach(consumerRecord -> last.merge(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()),
+                consumerRecord, (a, b) -> a.offset() >= b.offset() ? a : b));
+        last.values().forEach(consumerRecord -> {
+            if (!markProcessed(consumerRecord))
+                throw new IllegalStateException("Partition " + consumerRecord.topic() + "-" + consumerRecord.partition()
+                        + " was processed past offset " + consumerRecord.offset() + " by another consumer");
+        });
+    }
+
+    /**
+     * The records of the batch that are not processed yet, in their original order.
+     */
+    public <K, V> List<ConsumerRecord<K, V>> unprocessed(List<ConsumerRecord<K, V>> consumerRecords) {
+        List<String> ids = consumerRecords.stream()
+                .map(consumerRecord -> ProcessedOffset.idOf(consumerRecord.topic(), consumerRecord.partition()))
+                .distinct()
+                .collect(Collectors.toList());
+        Map<String, Long> positions = new HashMap<>();
+        processedOffsetRepository.findAllById(ids).forEach(position -> positions.put(position.getId(), position.getNextOffset()));
+        List<ConsumerRecord<K, V>> unprocessed = consumerRecords.stream()
+                .filter(consumerRecord -> consumerRecord.offset() >= positions.getOrDefault(
+                        ProcessedOffset.idOf(consumerRecord.topic(), consumerRecord.partition()), 0L))
+                .collect(Collectors.toList());
+        if (unprocessed.size() < consumerRecords.size())
+            log.info("Skipping {} already processed records", consumerRecords.size() - unprocessed.size());
+        return unprocessed;
+    }
+
+    /**
+     * Seeks the newly assigned partitions to their stored position where it is ahead of the committed kafka offset,
+     * i.e. the events were persisted but the commit was lost. A stored position behind the committed offset is left
+     * alone : the records in between were handed to the failure records or skipped, which commits their offsets
+     * but stores no position, and must not be delivered again.
+     *
+     * @param assignments the partitions with the position the consumer starts at, from the committed offset
+     */
+    public void seekToProcessed(Map<TopicPartition, Long> assignments, ConsumerSeekAware.ConsumerSeekCallback callback) {
+        if (!exactlyOnce || assignments.isEmpty())
+            return;
+        List<String> ids = assignments.keySet().stream()
+                .map(partition -> ProcessedOffset.idOf(partition.topic(), partition.partition()))
+                .collect(Collectors.toList());
+        processedOffsetRepository.findAllById(ids).forEach(position -> {
+            Long committed = assignments.get(new TopicPartition(position.getTopic(), position.getPartitionNumber()));
+            if (committed != null && position.getNextOffset() <= committed)
+                return;
+            log.info("Seeking {} to the processed offset {}, committed {}", position.getId(), position.getNextOffset(), committed);
+            callback.seek(position.getTopic(), position.getPartitionNumber(), position.getNextOffset());
+        });
+    }
+}
@@ -0,0 +1,603 @@
+package com.ashishnitw.eventsconsumer.store;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.config.FailureLogProperties;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Failure records in append-only segment files ({@code failures-<sequence>.log}, about {@code segment-bytes} each)
+ * instead of database rows, for failure rates per row inserts cannot keep up with.
+ * <p>
+ * Every entry is {@code int length, int crc32, body}. A SAVE entry holds the whole record, an UPDATE entry only the
+ * new status and next attempt of a record, so every operation is a sequential write, a batch of updates a single one.
+ * Only RETRY records are indexed in memory (id to file position, next attempt and the fields a replay filters on, no
+ * payload), SUCCESS and DEAD records are only on disk. On startup the segments are replayed to rebuild that index
+ * and a torn tail is cut off.
+ * Once the segments exceed {@code max-bytes} the oldest ones are compacted : their RETRY records are written again
+ * at the end of the log, together with a HIGH_WATER entry holding the highest id handed out, and the segment, with
+ * the SUCCESS and DEAD records in it, is deleted.
+ * <p>
+ * Claims are leases in memory only, with their claim token, after a restart every RETRY record is due at its last
+ * stored next attempt.
+ */
+@Component
+@ConditionalOnProperty(name = "events.failure-store.type", havingValue = "log")
+@Slf4j
+public class FailureLogStore implements FailureRecordStore {
+
+    private static final String SEGMENT_PREFIX = "failures-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK = "failures.lock";
+
+    // length and crc in front of every entry
+    private static final int ENTRY_HEADER = 2 * Integer.BYTES;
+
+    private static final byte SAVE = 1;
+    private static final byte UPDATE = 2;
+    // the highest id handed out, written by the compaction, which may delete the entries of the highest ids
+    private static final byte HIGH_WATER = 3;
+
+    // next attempt of a record that has none
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    private final FailureLogProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    // RETRY records by id, in id order for the keyset paging of the RetryScheduler
+    private final TreeMap<Integer, Slot> retries = new TreeMap<>();
+
+    private Path directory;
+
+    private FileChannel lockChannel;
+
+    private FileLock lock;
+
+    private int nextId = 1;
+
+    public FailureLogStore(FailureLogProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (properties.getSegmentBytes() < 1024 || properties.getMaxBytes() < 2L * properties.getSegmentBytes())
+            throw new IllegalStateException("events.failure-store.segment-bytes must be at least 1024 and events.failure-store.max-bytes at least twice as much");
+
+        directory = Files.createDirectories(Paths.get(properties.getDir()));
+        lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Failure log directory " + directory + " is used by another consumer");
+        }
+        recover();
+
+        Gauge.builder("events.failure-log.retries", this, FailureLogStore::pendingRetries).description("RETRY records in the failure log").register(meterRegistry);
+        Gauge.builder("events.failure-log.bytes", this, FailureLogStore::bytes).description("Size of the failure log segments").baseUnit("bytes").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (lock == null)
+            return;
+        for (Segment segment : segments.values()) {
+            segment.channel.force(false);
+            segment.channel.close();
+        }
+        segments.clear();
+        retries.clear();
+        lock.release();
+        lockChannel.close();
+        lock = null;
+    }
+
+    @Override
+    public synchronized FailureRecord save(FailureRecord failureRecord) {
+        checkOpen();
+        failureRecord.setBookId(nextId++);
+        try {
+            Location location = append(Collections.singletonList(encodeSave(failureRecord))).get(0);
+            if (EventConsumerConfig.RETRY.equals(failureRecord.getStatus()))
+                retries.put(failureRecord.getBookId(), new Slot(location, nextAttemptMillis(failureRecord.getNextAttemptAt()), failureRecord));
+            meterRegistry.counter("events.failure-log.records", "status", failureRecord.getStatus()).increment();
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write failure record for topic " + failureRecord.getTopic(), e);
+        }
+        return failureRecord;
+    }
+
+    @Override
+    public synchronized List<Integer> findDueRetryIds(Instant now, Integer afterId, int limit) {
+        checkOpen();
+        long nowMillis = now.toEpochMilli();
+        List<Integer> ids = new ArrayList<>(Math.min(limit, retries.size()));
+        Map<Integer, Slot> candidates = afterId == null ? retries : retries.tailMap(afterId, false);
+        for (Map.Entry<Integer, Slot> entry : candidates.entrySet()) {
+            if (entry.getValue().nextAttemptAt > nowMillis)
+                continue;
+            ids.add(entry.getKey());
+            if (ids.size() == limit)
+                break;
+        }
+        return ids;
+    }
+
+    /**
+     * Only RETRY records are indexed, a filter for other statuses is rejected. The other criteria are matched
+     * against the index, nothing is read from disk while the saves wait.
+     */
+    @Override
+    public synchronized List<Integer> findIds(FailureRecordFilter filter, Integer afterId, int limit) {
+        checkOpen();
+        if (!filter.statusesOrDefault().stream().allMatch(EventConsumerConfig.RETRY::equals))
+            throw new IllegalArgumentException("The failure log only keeps RETRY records at hand, select statuses [RETRY]");
+        List<Integer> ids = new ArrayList<>(Math.min(limit, retries.size()));
+        Map<Integer, Slot> candidates = afterId == null ? retries : retries.tailMap(afterId, false);
+        for (Map.Entry<Integer, Slot> entry : candidates.entrySet()) {
+            if (!filter.matches(entry.getValue().summary))
+                continue;
+            ids.add(entry.getKey());
+            if (ids.size() == limit)
+                break;
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized List<FailureRecord> claimDue(Collection<Integer> ids, String status, Instant now, Instant leaseUntil, String claimToken) {
+        checkOpen();
+        if (!EventConsumerConfig.RETRY.equals(status))
+            return Collections.emptyList();
+        List<FailureRecord> claimed = new ArrayList<>(ids.size());
+        try {
+            for (Integer id : new TreeSet<>(ids)) {
+                Slot slot = retries.get(id);
+                // not a RETRY record anymore or leased by an earlier claim
+                if (slot == null || slot.nextAttemptAt > now.toEpochMilli())
+                    continue;
+                slot.nextAttemptAt = leaseUntil.toEpochMilli();
+                slot.claimToken = claimToken;
+                FailureRecord failureRecord = read(slot);
+                failureRecord.setNextAttemptAt(leaseUntil);
+                failureRecord.setClaimToken(claimToken);
+                claimed.add(failureRecord);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read failure records", e);
+        }
+        return claimed;
+    }
+
+    /**
+     * Only applies to RETRY records, a SUCCESS or DEAD record cannot be taken back.
+     */
+    @Override
+    public synchronized int updateStatus(Collection<Integer> ids, String status, String claimToken) {
+        checkOpen();
+        List<Integer> updated = new ArrayList<>(ids.size());
+        List<byte[]> bodies = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Slot slot = retries.get(id);
+            if (slot == null || !claimToken.equals(slot.claimToken))
+                continue;
+            updated.add(id);
+            bodies.add(encodeUpdate(id, status, slot.nextAttemptAt));
+        }
+        write(bodies);
+        if (EventConsumerConfig.RETRY.equals(status))
+            updated.forEach(id -> retries.get(id).claimToken = null);
+        else
+            updated.forEach(retries::remove);
+        return updated.size();
+    }
+
+    @Override
+    public synchronized int reschedule(Collection<Integer> ids, Instant nextAttemptAt, String claimToken) {
+        checkOpen();
+        List<Slot> updated = new ArrayList<>(ids.size());
+        List<byte[]> bodies = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Slot slot = retries.get(id);
+            if (slot == null || !claimToken.equals(slot.claimToken))
+                continue;
+            updated.add(slot);
+            bodies.add(encodeUpdate(id, EventConsumerConfig.RETRY, nextAttemptAt.toEpochMilli()));
+        }
+        write(bodies);
+        updated.forEach(slot -> {
+            slot.nextAttemptAt = nextAttemptAt.toEpochMilli();
+            slot.claimToken = null;
+        });
+        return updated.size();
+    }
+
+    public synchronized int pendingRetries() {
+        return retries.size();
+    }
+
+    public synchronized long bytes() {
+        return segments.values().stream().mapToLong(segment -> segment.size).sum();
+    }
+
+    private void checkOpen() {
+        if (lock == null)
+            throw new IllegalStateException("Failure log is closed");
+    }
+
+    private void write(List<byte[]> bodies) {
+        if (bodies.isEmpty())
+            return;
+        try {
+            append(bodies);
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write failure record updates", e);
+        }
+    }
+
+    // appends the entries in order, with one write per segment they go to
+    private List<Location> append(List<byte[]> bodies) throws IOException {
+        List<Location> locations = new ArrayList<>(bodies.size());
+        int next = 0;
+        while (next < bodies.size()) {
+            Segment segment = head(ENTRY_HEADER + bodies.get(next).length);
+            int size = 0;
+            int end = next;
+            // an entry larger than a segment goes alone into a new one
+            while (end < bodies.size()
+                    && (size == 0 || segment.size + size + ENTRY_HEADER + bodies.get(end).length <= properties.getSegmentBytes()))
+                size += ENTRY_HEADER + bodies.get(end++).length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (int i = next; i < end; i++) {
+                byte[] body = bodies.get(i);
+                locations.add(new Location(segment.sequence, segment.size + buffer.position()));
+                buffer.putInt(body.length).putInt(crc(body)).put(body);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining())
+                segment.channel.write(buffer, segment.size + buffer.position());
+            if (properties.isForceOnAppend())
+                segment.channel.force(false);
+            segment.size += size;
+            next = end;
+        }
+        return locations;
+    }
+
+    private Segment head(int entrySize) throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last != null && (last.size == 0 || last.size + entrySize <= properties.getSegmentBytes()))
+            return last;
+        long sequence = last == null ? 0 : last.sequence + 1;
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(sequence, file, FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    // only segments older than the current head, the records copied forward must not be compacted again
+    private void compactIfNeeded() throws IOException {
+        if (bytes() <= properties.getMaxBytes())
+            return;
+        long head = segments.lastKey();
+        while (bytes() > properties.getMaxBytes() && segments.firstKey() < head) {
+            Segment oldest = segments.firstEntry().getValue();
+            List<Slot> live = new ArrayList<>();
+            List<byte[]> bodies = new ArrayList<>();
+            for (Slot slot : retries.values()) {
+                if (slot.segment != oldest.sequence)
+                    continue;
+                FailureRecord failureRecord = read(slot);
+                failureRecord.setNextAttemptAt(nextAttemptAt(slot.nextAttemptAt));
+                live.add(slot);
+                bodies.add(encodeSave(failureRecord));
+            }
+            // the segment may hold the highest ids handed out, they must not be handed out again after a restart
+            bodies.add(encodeUpdate(HIGH_WATER, nextId - 1, "", NOT_SCHEDULED));
+            List<Location> locations = append(bodies);
+            for (int i = 0; i < live.size(); i++)
+                live.get(i).moveTo(locations.get(i));
+
+            segments.remove(oldest.sequence);
+            oldest.channel.close();
+            Files.deleteIfExists(oldest.file);
+            log.info("Compacted failure log segment {}, {} RETRY records kept", oldest.file, live.size());
+        }
+        if (bytes() > properties.getMaxBytes())
+            log.warn("Failure log holds {} bytes of RETRY records, above events.failure-store.max-bytes", bytes());
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            Segment segment = new Segment(file.getKey(), file.getValue(), FileChannel.open(file.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            long fileSize = segment.channel.size();
+            long position = 0;
+            // the channel stream must not close the channel, it is used for the writes afterwards
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(segment.channel.position(0)), 64 * 1024));
+            try {
+                while (position + ENTRY_HEADER <= fileSize) {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+                    if (length <= 0 || length > fileSize - position - ENTRY_HEADER)
+                        break;
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    if (crc(body) != crc)
+                        break;
+                    replay(body, new Location(segment.sequence, position));
+                    position += ENTRY_HEADER + length;
+                }
+            } catch (EOFException e) {
+                // torn entry at the end, cut off below
+            }
+            if (position < fileSize) {
+                log.warn("Discarding torn failure log entry at {} of {}", position, file.getValue());
+                segment.channel.truncate(position);
+            }
+            segment.size = position;
+            segments.put(segment.sequence, segment);
+        }
+        if (!retries.isEmpty())
+            log.info("Recovered {} RETRY records from {}", retries.size(), directory);
+    }
+
+    private void replay(byte[] body, Location location) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        int id = in.readInt();
+        String status = in.readUTF();
+        long nextAttemptAt = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        if (type == HIGH_WATER)
+            return;
+        if (type == SAVE) {
+            if (EventConsumerConfig.RETRY.equals(status))
+                retries.put(id, new Slot(location, nextAttemptAt, decodeSave(body)));
+            else
+                retries.remove(id);
+            return;
+        }
+        // an update of a record that was compacted away, or written again further on
+        Slot slot = retries.get(id);
+        if (slot == null)
+            return;
+        if (EventConsumerConfig.RETRY.equals(status))
+            slot.nextAttemptAt = nextAttemptAt;
+        else
+            retries.remove(id);
+    }
+
+    private FailureRecord read(Slot slot) throws IOException {
+        FileChannel channel = segments.get(slot.segment).channel;
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+        readFully(channel, header, slot.position);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(channel, body, slot.position + ENTRY_HEADER);
+        return decodeSave(body.array());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Failure log entry at " + position + " is cut off");
+        }
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    // a record without a next attempt is not scheduled and never due, as in the jpa store
+    private static long nextAttemptMillis(Instant nextAttemptAt) {
+        return nextAttemptAt == null ? NOT_SCHEDULED : nextAttemptAt.toEpochMilli();
+    }
+
+    private static Instant nextAttemptAt(long nextAttemptMillis) {
+        return nextAttemptMillis == NOT_SCHEDULED ? null : Instant.ofEpochMilli(nextAttemptMillis);
+    }
+
+    // type, id, status and next attempt lead every entry, the recovery only reads the rest of RETRY records
+    private static byte[] encodeSave(FailureRecord failureRecord) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + (failureRecord.getErrorRecord() != null ? failureRecord.getErrorRecord().length() : 0));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SAVE);
+        out.writeInt(failureRecord.getBookId());
+        out.writeUTF(failureRecord.getStatus());
+        out.writeLong(nextAttemptMillis(failureRecord.getNextAttemptAt()));
+        writeString(out, failureRecord.getTopic());
+        out.writeBoolean(failureRecord.getKey() != null);
+        if (failureRecord.getKey() != null)
+            out.writeInt(failureRecord.getKey());
+        out.writeInt(failureRecord.getPartition() == null ? -1 : failureRecord.getPartition());
+        out.writeLong(failureRecord.getOffset_value() == null ? -1 : failureRecord.getOffset_value());
+        writeString(out, failureRecord.getFormat());
+        writeString(out, failureRecord.getException());
+        writeString(out, failureRecord.getErrorRecord());
+        writeString(out, failureRecord.getExceptionType());
+        out.writeLong(failureRecord.getFailedAt() == null ? -1 : failureRecord.getFailedAt().toEpochMilli());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeUpdate(int id, String status, long nextAttemptAt) {
+        return encodeUpdate(UPDATE, id, status, nextAttemptAt);
+    }
+
+    private static byte[] encodeUpdate(byte type, int id, String status, long nextAttemptAt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeInt(id);
+            out.writeUTF(status);
+            out.writeLong(nextAttemptAt);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // written to memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FailureRecord decodeSave(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        if (in.readByte() != SAVE)
+            throw new IllegalStateException("Failure log index points at an entry that is not a record");
+        FailureRecord.FailureRecordBuilder builder = FailureRecord.builder()
+                .bookId(in.readInt())
+                .status(in.readUTF())
+                .nextAttemptAt(nextAttemptAt(in.readLong()))
+                .topic(readString(in))
+                .key(in.readBoolean() ? in.readInt() : null);
+        int partition = in.readInt();
+        long offset = in.readLong();
+        builder.partition(partition < 0 ? null : partition)
+                .offset_value(offset < 0 ? null : offset)
+                .format(readString(in))
+                .exception(readString(in))
+                .errorRecord(readString(in));
+        // entries written before the exception type and the failure time were kept end here
+        if (in.available() > 0) {
+            builder.exceptionType(readString(in));
+            long failedAt = in.readLong();
+            builder.failedAt(failedAt < 0 ? null : Instant.ofEpochMilli(failedAt));
+        }
+        return builder.build();
+    }
+
+    // utf-8 with an int length, writeUTF is limited to 64k and exception messages or payloads can be longer
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Segment {
+
+        final long sequence;
+
+        final Path file;
+
+        final FileChannel channel;
+
+        long size;
+
+        Segment(long sequence, Path file, FileChannel channel) {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private static class Location {
+
+        final long segment;
+
+        final long position;
+
+        Location(long segment, long position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    // where the SAVE entry of a RETRY record is, when it is due next and who claimed it
+    private static class Slot {
+
+        // the fields of the record a replay filters on, without the payload
+        final FailureRecord summary;
+
+        long segment;
+
+        long position;
+
+        long nextAttemptAt;
+
+        String claimToken;
+
+        Slot(Location location, long nextAttemptAt, FailureRecord failureRecord) {
+            moveTo(location);
+            this.nextAttemptAt = nextAttemptAt;
+            // few distinct topics and exception types, shared by all the slots
+            this.summary = FailureRecord.builder()
+                    .status(EventConsumerConfig.RETRY)
+                    .topic(failureRecord.getTopic() == null ? null : failureRecord.getTopic().intern())
+                    .partition(failureRecord.getPartition())
+                    .exceptionType(failureRecord.getExceptionType() == null ? null : failureRecord.getExceptionType().intern())
+                    .failedAt(failureRecord.getFailedAt() == null ? null : failureRecord.getFailedAt().truncatedTo(ChronoUnit.MILLIS))
+                    .build();
+        }
+
+        void moveTo(Location location) {
+            this.segment = location.segment;
+            this.position = location.position;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.ashishnitw.eventsconsumer.store;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Selects failure records, e.g. the ones to replay. A criterion left null matches every record, no statuses match
+ * RETRY and DEAD records. {@code exceptionType} is the class name of the exception, with or without its package.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+public class FailureRecordFilter {
+
+    private List<String> statuses;
+    private String topic;
+    private Integer partition;
+    // time of the first failure, from inclusive, to exclusive
+    private Instant from;
+    private Instant to;
+    private String exceptionType;
+
+    public List<String> statusesOrDefault() {
+        return statuses == null || statuses.isEmpty() ? Arrays.asList(EventConsumerConfig.RETRY, EventConsumerConfig.DEAD) : statuses;
+    }
+
+    /**
+     * The times are compared in millis, the failure log keeps no finer failure times and an {@link Instant} from
+     * the clock can carry micros (JDK 9+).
+     */
+    public boolean matches(FailureRecord failureRecord) {
+        Instant failedAt = failureRecord.getFailedAt() == null ? null : failureRecord.getFailedAt().truncatedTo(ChronoUnit.MILLIS);
+        return statusesOrDefault().contains(failureRecord.getStatus())
+                && (topic == null || topic.equals(failureRecord.getTopic()))
+                && (partition == null || partition.equals(failureRecord.getPartition()))
+                && (from == null || failedAt != null && !failedAt.isBefore(from.truncatedTo(ChronoUnit.MILLIS)))
+                && (to == null || failedAt != null && failedAt.isBefore(to.truncatedTo(ChronoUnit.MILLIS)))
+                && (exceptionType == null || isExceptionType(failureRecord.getExceptionType()));
+    }
+
+    private boolean isExceptionType(String className) {
+        return className != null && (className.equals(exceptionType) || className.endsWith("." + exceptionType));
+    }
+}
@@ -0,0 +1,56 @@
+package com.ashishnitw.eventsconsumer.store;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Where {@link com.ashishnitw.eventsconsumer.service.FailureRecordService} keeps failure records, selected with
+ * {@code events.failure-store.type} : {@code jpa} ({@link JpaFailureRecordStore}, the default) or {@code log}
+ * ({@link FailureLogStore}).
+ */
+public interface FailureRecordStore {
+
+    /**
+     * Stores a new record and assigns its id.
+     */
+    FailureRecord save(FailureRecord failureRecord);
+
+    /**
+     * Ids of RETRY records due at {@code now}, in id order after {@code afterId}, at most {@code limit}. A record
+     * without a {@code nextAttemptAt} is not scheduled and never due.
+     */
+    List<Integer> findDueRetryIds(Instant now, Integer afterId, int limit);
+
+    /**
+     * Ids of the records matching the filter, in id order after {@code afterId}, at most {@code limit}.
+     */
+    List<Integer> findIds(FailureRecordFilter filter, Integer afterId, int limit);
+
+    /**
+     * Leases the given records that still have the status and are due until {@code leaseUntil} and returns them in
+     * id order.
+     */
+    List<FailureRecord> claimDue(Collection<Integer> ids, String status, Instant now, Instant leaseUntil, String claimToken);
+
+    /**
+     * Leases the given RETRY records that are still due until {@code leaseUntil} and returns them in id order.
+     */
+    default List<FailureRecord> claimDueRetries(Collection<Integer> ids, Instant now, Instant leaseUntil, String claimToken) {
+        return claimDue(ids, EventConsumerConfig.RETRY, now, leaseUntil, claimToken);
+    }
+
+    /**
+     * Sets the status of the given records that still carry the claim token and releases them. A record whose lease
+     * expired and that was claimed again belongs to the new claim and is left alone. Returns the records updated.
+     */
+    int updateStatus(Collection<Integer> ids, String status, String claimToken);
+
+    /**
+     * Same as {@link #updateStatus(Collection, String, String)} for the next attempt of RETRY records.
+     */
+    int reschedule(Collection<Integer> ids, Instant nextAttemptAt, String claimToken);
+}
@@ -0,0 +1,67 @@
+package com.ashishnitw.eventsconsumer.store;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.jpa.FailureRecordRepository;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Failure records as rows of the FailureRecord table.
+ */
+@Component
+@ConditionalOnProperty(name = "events.failure-store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaFailureRecordStore implements FailureRecordStore {
+
+    private final FailureRecordRepository failureRecordRepository;
+
+    public JpaFailureRecordStore(FailureRecordRepository failureRecordRepository) {
+        this.failureRecordRepository = failureRecordRepository;
+    }
+
+    @Override
+    public FailureRecord save(FailureRecord failureRecord) {
+        return failureRecordRepository.save(failureRecord);
+    }
+
+    @Override
+    public List<Integer> findDueRetryIds(Instant now, Integer afterId, int limit) {
+        return failureRecordRepository.findDueIds(EventConsumerConfig.RETRY, now, afterId, PageRequest.of(0, limit));
+    }
+
+    @Override
+    public List<Integer> findIds(FailureRecordFilter filter, Integer afterId, int limit) {
+        String exceptionType = filter.getExceptionType();
+        return failureRecordRepository.findIds(filter.statusesOrDefault(), filter.getTopic(), filter.getPartition(),
+                filter.getFrom(), filter.getTo(), exceptionType, exceptionType == null ? null : "%." + exceptionType,
+                afterId, PageRequest.of(0, limit));
+    }
+
+    @Override
+    @Transactional
+    public List<FailureRecord> claimDue(Collection<Integer> ids, String status, Instant now, Instant leaseUntil, String claimToken) {
+        int claimed = failureRecordRepository.claim(ids, status, now, leaseUntil, claimToken);
+        if (claimed == 0)
+            return Collections.emptyList();
+        return failureRecordRepository.findAllByClaimTokenOrderByBookId(claimToken);
+    }
+
+    @Override
+    @Transactional
+    public int updateStatus(Collection<Integer> ids, String status, String claimToken) {
+        return failureRecordRepository.updateStatus(ids, status, claimToken);
+    }
+
+    @Override
+    @Transactional
+    public int reschedule(Collection<Integer> ids, Instant nextAttemptAt, String claimToken) {
+        return failureRecordRepository.reschedule(ids, nextAttemptAt, claimToken);
+    }
+}
@@ -0,0 +1,114 @@
+package com.ashishnitw.eventsconsumer.intg.consumer;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.jpa.FailureRecordRepository;
+import com.ashishnitw.eventsconsumer.jpa.ProcessedOffsetRepository;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+// the containers must not outlive the test, they share the in memory database with the other tests
+@DirtiesContext
+@EmbeddedKafka(topics = {"library-events", "library-events-retry", "library-events-dlt"}, partitions = 3)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "retryListener.startup=false",
+        "events.retry.interval-ms=600000",
+        "events.consumer.exactly-once=true"})
+public class EventConsumerExactlyOnceIntegrationTest {
+
+    @Autowired
+    EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    KafkaTemplate<Integer, byte[]> kafkaTemplate;
+
+    @Autowired
+    KafkaListenerEndpointRegistry endpointRegistry;
+
+    @SpyBean
+    EventService eventService;
+
+    @Autowired
+    EventRepository eventRepository;
+
+    @Autowired
+    FailureRecordRepository failureRecordRepository;
+
+    @Autowired
+    ProcessedOffsetRepository processedOffsetRepository;
+
+    MessageListenerContainer container;
+
+    @BeforeEach
+    void setUp() {
+        container = endpointRegistry.getListenerContainers().stream()
+                .filter(listenerContainer -> Objects.equals(listenerContainer.getGroupId(), "library-events-listener-group"))
+                .findFirst()
+                .get();
+        ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic());
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventRepository.deleteAll();
+        failureRecordRepository.deleteAll();
+        processedOffsetRepository.deleteAll();
+    }
+
+    @Test
+    void failedRecord_notDeliveredAgainAfterRestart() throws Exception {
+        String valid = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":456,\"name\":\"Kafka Book\"}}";
+        String invalid = "{\"id\":null,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
+        String next = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":789,\"name\":\"Kafka Book\"}}";
+
+        // same key, same partition : the failed record is the last one, behind the stored position
+        kafkaTemplate.sendDefault(1, valid.getBytes()).get();
+        kafkaTemplate.sendDefault(1, invalid.getBytes()).get();
+        await(failureRecordRepository::count, 1);
+        assertEquals(1, eventRepository.count());
+
+        container.stop();
+        container.start();
+        ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic());
+
+        // a record after the failed one, a redelivery of the failed one would come before it
+        kafkaTemplate.sendDefault(1, next.getBytes()).get();
+        await(eventRepository::count, 2);
+
+        assertEquals(1, failureRecordRepository.count());
+        assertEquals(EventConsumerConfig.DEAD, failureRecordRepository.findAll().iterator().next().getStatus());
+        verify(eventService, times(3)).processEvent(isA(ConsumerRecord.class));
+    }
+
+    private static void await(LongSupplier count, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        while (count.getAsLong() < expected && System.nanoTime() < deadline)
+            Thread.sleep(100);
+        assertEquals(expected, count.getAsLong());
+    }
+}
@@ -25,6 +25,7 @@ import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
 import org.springframework.kafka.listener.MessageListenerContainer;
 import org.springframework.kafka.test.EmbeddedKafkaBroker;
 import org.springframework.kafka.test.context.EmbeddedKafka;
@@ -59,7 +60,7 @@ public class EventConsumerIntegrationTest {
     EmbeddedKafkaBroker embeddedKafkaBroker;
 
     @Autowired
-    private KafkaTemplate<Integer, String> kafkaTemplate;
+    private KafkaTemplate<Integer, byte[]> kafkaTemplate;
 
     @Autowired
     KafkaListenerEndpointRegistry endpointRegistry;
@@ -82,7 +83,7 @@ public class EventConsumerIntegrationTest {
     private Consumer<Integer, String> consumer;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws InterruptedException {
         // If we have multiple consumers in app
         MessageListenerContainer container = endpointRegistry.getListenerContainers()
                 .stream()
@@ -90,6 +91,15 @@ public class EventConsumerIntegrationTest {
                 .collect(Collectors.toList())
                 .get(0);
         ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic());
+        // the first consumer to join briefly owns every partition, wait for the others so no rebalance hits the test
+        List<? extends MessageListenerContainer> children = ((ConcurrentMessageListenerContainer<?, ?>) container).getContainers();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!children.stream().allMatch(child -> child.getAssignedPartitions() != null && child.getAssignedPartitions().size() == 1)) {
+            if (System.nanoTime() > deadline)
+                throw new IllegalStateException("Partitions not spread over the consumers : " + children.stream()
+                        .map(MessageListenerContainer::getAssignedPartitions).collect(Collectors.toList()));
+            Thread.sleep(100);
+        }
 
 //        for (MessageListenerContainer container : endpointRegistry.getListenerContainers()) {
 //            System.out.println("Group Id : " + container.getGroupId());
@@ -109,7 +119,7 @@ public class EventConsumerIntegrationTest {
     @Test
     void publishNewEvent() throws ExecutionException, InterruptedException, JsonProcessingException {
         String json = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
-        kafkaTemplate.sendDefault(json).get(); // .get() is used to make call synchronous
+        kafkaTemplate.sendDefault(json.getBytes()).get(); // .get() is used to make call synchronous
 
         CountDownLatch latch = new CountDownLatch(1);    // blocks current execution of thread, helpful when writing tests with async calls
         latch.await(3, TimeUnit.SECONDS);
@@ -138,7 +148,7 @@ public class EventConsumerIntegrationTest {
         event.setType(EventType.UPDATE);
 
         String updatedJson = objectMapper.writeValueAsString(event);
-        kafkaTemplate.sendDefault(event.getId(), updatedJson).get(); // .get() is used to make call synchronous
+        kafkaTemplate.sendDefault(event.getId(), updatedJson.getBytes()).get(); // .get() is used to make call synchronous
 
         CountDownLatch latch = new CountDownLatch(1);    // blocks current execution of thread, helpful when writing tests with async calls
         latch.await(3, TimeUnit.SECONDS);
@@ -156,7 +166,7 @@ public class EventConsumerIntegrationTest {
 
         String json = "{\"id\":null,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
 
-        kafkaTemplate.sendDefault(json).get(); // .get() is used to make call synchronous
+        kafkaTemplate.sendDefault(json.getBytes()).get(); // .get() is used to make call synchronous
 
         CountDownLatch latch = new CountDownLatch(1);    // blocks current execution of thread, helpful when writing tests with async calls
         latch.await(5, TimeUnit.SECONDS);   // increasing wait time, because it will retry multiple times
@@ -189,7 +199,7 @@ public class EventConsumerIntegrationTest {
 
         String json = "{\"id\":999,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
 
-        kafkaTemplate.sendDefault(json).get(); // .get() is used to make call synchronous
+        kafkaTemplate.sendDefault(json.getBytes()).get(); // .get() is used to make call synchronous
 
         CountDownLatch latch = new CountDownLatch(1);    // blocks current execution of thread, helpful when writing tests with async calls
         latch.await(5, TimeUnit.SECONDS);   // increasing wait time, because it will retry multiple times
@@ -203,7 +213,7 @@ public class EventConsumerIntegrationTest {
 
         String json = "{\"id\":999,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
 
-        kafkaTemplate.sendDefault(json).get(); // .get() is used to make call synchronous
+        kafkaTemplate.sendDefault(json.getBytes()).get(); // .get() is used to make call synchronous
 
         CountDownLatch latch = new CountDownLatch(1);    // blocks current execution of thread, helpful when writing tests with async calls
         latch.await(5, TimeUnit.SECONDS);   // increasing wait time, because it will retry multiple times
@@ -233,7 +243,7 @@ public class EventConsumerIntegrationTest {
     void publishModifyLibraryEvent_null_eventId_failureRecord() throws JsonProcessingException, InterruptedException, ExecutionException {
 
         String json = "{\"id\":null,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
-        kafkaTemplate.sendDefault(json).get();
+        kafkaTemplate.sendDefault(json.getBytes()).get();
 
         CountDownLatch latch = new CountDownLatch(1);
         latch.await(5, TimeUnit.SECONDS);
@@ -251,7 +261,7 @@ public class EventConsumerIntegrationTest {
     void publishModifyLibraryEvent_999_eventId_failureRecord() throws JsonProcessingException, InterruptedException, ExecutionException {
 
         String json = "{\"id\":999,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
-        kafkaTemplate.sendDefault(999, json).get();
+        kafkaTemplate.sendDefault(999, json.getBytes()).get();
 
         CountDownLatch latch = new CountDownLatch(1);
         latch.await(5, TimeUnit.SECONDS);
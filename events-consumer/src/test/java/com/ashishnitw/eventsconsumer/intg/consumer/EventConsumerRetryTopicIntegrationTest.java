@@ -0,0 +1,130 @@
+package com.ashishnitw.eventsconsumer.intg.consumer;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.jpa.FailureRecordRepository;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+// the retry topic containers must not outlive the test, they share the in memory database with the other tests
+@DirtiesContext
+@EmbeddedKafka(topics = {"library-events", "library-events-retry", "library-events-dlt"}, partitions = 3)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "retryListener.startup=false",
+        "events.retry.interval-ms=600000",
+        "events.consumer.retry-topics.enabled=true",
+        "events.consumer.retry-topics.attempts=2",
+        "events.consumer.retry-topics.initial-delay-ms=4000",
+        "events.consumer.retry-topics.replication-factor=1"})
+public class EventConsumerRetryTopicIntegrationTest {
+
+    @Autowired
+    EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    KafkaTemplate<Integer, byte[]> kafkaTemplate;
+
+    @Autowired
+    KafkaListenerEndpointRegistry endpointRegistry;
+
+    @SpyBean
+    EventService eventService;
+
+    @Autowired
+    EventRepository eventRepository;
+
+    @Autowired
+    FailureRecordRepository failureRecordRepository;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer container : endpointRegistry.getListenerContainers()) {
+            if (container.getContainerProperties().getTopics() != null
+                    && container.getContainerProperties().getTopics()[0].startsWith("library-events-retry-"))
+                ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventRepository.deleteAll();
+        failureRecordRepository.deleteAll();
+    }
+
+    @Test
+    void failingRecord_doesNotBlockItsPartition() throws Exception {
+        String failing = "{\"id\":999,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
+        String healthy = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":456,\"name\":\"Kafka Book\"}}";
+
+        // same key, same partition : with the blocking backoff the second record waits for every retry of the first
+        kafkaTemplate.sendDefault(1, failing.getBytes()).get();
+        kafkaTemplate.sendDefault(1, healthy.getBytes()).get();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        while (eventRepository.count() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(100);
+        assertEquals(1, eventRepository.count());
+        verify(eventService, times(2)).processEvent(isA(ConsumerRecord.class));
+
+        // the retry topic delivers the failing record again once its delay is over, then it goes to the DLT
+        verify(eventService, timeout(15000).times(3)).processEvent(isA(ConsumerRecord.class));
+        List<FailureRecord> failureRecords = awaitFailureRecords(1);
+        assertEquals(1, failureRecords.get(0).getKey());
+        assertEquals(EventConsumerConfig.RETRY, failureRecords.get(0).getStatus());
+        assertEquals(RecoverableDataAccessException.class.getName(), failureRecords.get(0).getExceptionType());
+        assertEquals("Testing recoverable exception...", failureRecords.get(0).getException());
+    }
+
+    @Test
+    void notRetryableRecord_goesStraightToDeadLetter() throws Exception {
+        String json = "{\"id\":null,\"type\":\"UPDATE\",\"book\":{\"id\":123,\"name\":\"Kafka Book\"}}";
+
+        kafkaTemplate.sendDefault(2, json.getBytes()).get();
+
+        List<FailureRecord> failureRecords = awaitFailureRecords(1);
+        assertEquals(EventConsumerConfig.DEAD, failureRecords.get(0).getStatus());
+        assertEquals(IllegalArgumentException.class.getName(), failureRecords.get(0).getExceptionType());
+        verify(eventService, times(1)).processEvent(isA(ConsumerRecord.class));
+    }
+
+    private List<FailureRecord> awaitFailureRecords(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        List<FailureRecord> failureRecords;
+        do {
+            Thread.sleep(200);
+            failureRecords = StreamSupport.stream(failureRecordRepository.findAll().spliterator(), false)
+                    .collect(Collectors.toList());
+        } while (failureRecords.size() < count && System.nanoTime() < deadline);
+        assertEquals(count, failureRecords.size());
+        return failureRecords;
+    }
+}
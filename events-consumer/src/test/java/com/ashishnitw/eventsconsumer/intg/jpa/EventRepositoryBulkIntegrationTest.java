@@ -0,0 +1,100 @@
+package com.ashishnitw.eventsconsumer.intg.jpa;
+
+import com.ashishnitw.eventsconsumer.constant.EventType;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+@DataJpaTest
+public class EventRepositoryBulkIntegrationTest {
+
+    @Autowired
+    EventRepository eventRepository;
+
+    @Autowired
+    TestEntityManager entityManager;
+
+    @SpyBean
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void upsertAll_insertsNewEventsWithIdsFromTheSequence() {
+        List<Event> events = eventRepository.upsertAll(Arrays.asList(event(null, EventType.NEW, 1, "Kafka Book"),
+                event(null, EventType.NEW, 2, "Kafka Book 2.0"), event(null, EventType.NEW, 3, "Kafka Book 3.0")));
+        // an event saved through hibernate takes its id from the same sequence, in another block
+        Event saved = eventRepository.save(event(null, EventType.NEW, 4, "Kafka Book 4.0"));
+        entityManager.flush();
+        entityManager.clear();
+
+        Set<Integer> ids = events.stream().map(Event::getId).collect(Collectors.toSet());
+        assertEquals(3, ids.size());
+        assertFalse(ids.contains(saved.getId()));
+        assertEquals(4, eventRepository.count());
+        assertEquals("Kafka Book 2.0", eventRepository.findById(events.get(1).getId()).get().getBook().getName());
+    }
+
+    @Test
+    void upsertAll_updatesExistingRowsAndInsertsUnknownOnes() {
+        Event existing = entityManager.persistFlushFind(event(null, EventType.NEW, 10, "Kafka Book"));
+        entityManager.clear();
+
+        eventRepository.upsertAll(Arrays.asList(event(existing.getId(), EventType.UPDATE, 10, "Kafka Book 2.0"),
+                event(50000, EventType.UPDATE, 11, "Kafka Streams")));
+        entityManager.clear();
+
+        Event updated = eventRepository.findById(existing.getId()).get();
+        assertEquals(EventType.UPDATE, updated.getType());
+        assertEquals("Kafka Book 2.0", updated.getBook().getName());
+        assertTrue(eventRepository.findById(50000).isPresent());
+        assertEquals(2, eventRepository.count());
+    }
+
+    @Test
+    void upsertAll_looksUpRowsOfBatchesWithoutUpdateCounts() {
+        // some drivers report Statement.SUCCESS_NO_INFO for every row of a batch
+        doAnswer(invocation -> {
+            int[][] counts = (int[][]) invocation.callRealMethod();
+            for (int[] batch : counts)
+                Arrays.fill(batch, Statement.SUCCESS_NO_INFO);
+            return counts;
+        }).when(jdbcTemplate).batchUpdate(anyString(), anyList(), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        Event existing = entityManager.persistFlushFind(event(null, EventType.NEW, 10, "Kafka Book"));
+        entityManager.clear();
+
+        eventRepository.upsertAll(Arrays.asList(event(existing.getId(), EventType.UPDATE, 10, "Kafka Book 2.0"),
+                event(50000, EventType.UPDATE, 11, "Kafka Streams")));
+        entityManager.clear();
+
+        assertEquals("Kafka Book 2.0", eventRepository.findById(existing.getId()).get().getBook().getName());
+        assertTrue(eventRepository.findById(50000).isPresent());
+        assertEquals(2, eventRepository.count());
+    }
+
+    private Event event(Integer id, EventType type, int bookId, String name) {
+        Event event = Event.builder().id(id).type(type).build();
+        event.setBook(Book.builder().id(bookId).name(name).event(event).build());
+        return event;
+    }
+}
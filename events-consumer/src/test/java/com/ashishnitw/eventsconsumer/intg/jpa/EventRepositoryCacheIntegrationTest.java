@@ -0,0 +1,71 @@
+package com.ashishnitw.eventsconsumer.intg.jpa;
+
+import com.ashishnitw.eventsconsumer.config.CacheConfig;
+import com.ashishnitw.eventsconsumer.constant.EventType;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+@DataJpaTest
+@Import(CacheConfig.class)
+// every repository call commits on its own, the cache is only updated after commit
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class EventRepositoryCacheIntegrationTest {
+
+    @Autowired
+    EventRepository eventRepository;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    void save_populatesTheCacheAndDeleteEvicts() {
+        Event saved = eventRepository.save(event(101));
+        Cache cache = cacheManager.getCache(CacheConfig.EVENTS);
+
+        assertNotNull(cache.get(saved.getId()));
+        assertSame(cache.get(saved.getId()).get(), eventRepository.findById(saved.getId()).get());
+
+        eventRepository.deleteById(saved.getId());
+
+        assertNull(cache.get(saved.getId()));
+        assertFalse(eventRepository.findById(saved.getId()).isPresent());
+        assertNull(cache.get(saved.getId()));
+    }
+
+    @Test
+    void save_rolledBackIsNotCached() {
+        Integer id = new TransactionTemplate(transactionManager).execute(status -> {
+            Event saved = eventRepository.save(event(102));
+            status.setRollbackOnly();
+            return saved.getId();
+        });
+
+        assertNull(cacheManager.getCache(CacheConfig.EVENTS).get(id));
+        assertFalse(eventRepository.findById(id).isPresent());
+    }
+
+    private Event event(int bookId) {
+        Event event = Event.builder().type(EventType.NEW).build();
+        event.setBook(Book.builder().id(bookId).name("Kafka Book").event(event).build());
+        return event;
+    }
+}
@@ -0,0 +1,152 @@
+package com.ashishnitw.eventsconsumer.intg.jpa;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.jpa.FailureRecordRepository;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import com.ashishnitw.eventsconsumer.service.FailureRecordService;
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+import com.ashishnitw.eventsconsumer.store.JpaFailureRecordStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+@Import({FailureRecordService.class, JpaFailureRecordStore.class})
+public class FailureRecordClaimIntegrationTest {
+
+    @Autowired
+    FailureRecordRepository failureRecordRepository;
+
+    @Autowired
+    FailureRecordService failureRecordService;
+
+    @Test
+    void findDueRetryIds_pagesByKeyset() {
+        IntStream.range(0, 5).forEach(i -> save(EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)));
+        save(EventConsumerConfig.DEAD, Instant.now().minusSeconds(1));
+        save(EventConsumerConfig.RETRY, Instant.now().plusSeconds(60));
+
+        List<Integer> firstPage = failureRecordService.findDueRetryIds(0, 3);
+        List<Integer> secondPage = failureRecordService.findDueRetryIds(firstPage.get(2), 3);
+
+        assertEquals(3, firstPage.size());
+        assertEquals(2, secondPage.size());
+        assertTrue(secondPage.get(0) > firstPage.get(2));
+    }
+
+    @Test
+    void claim_isExclusiveUntilReleased() {
+        List<Integer> ids = IntStream.range(0, 3)
+                .mapToObj(i -> save(EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)).getBookId())
+                .collect(Collectors.toList());
+
+        List<FailureRecord> claimed = failureRecordService.claim(ids);
+        List<FailureRecord> claimedAgain = failureRecordService.claim(ids);
+
+        assertEquals(3, claimed.size());
+        assertTrue(claimedAgain.isEmpty());
+        assertTrue(failureRecordService.findDueRetryIds(0, 10).isEmpty());
+
+        failureRecordService.markSucceeded(claimed.subList(0, 1));
+        failureRecordService.reschedule(claimed.subList(1, 3));
+
+        assertEquals(EventConsumerConfig.SUCCESS, failureRecordRepository.findById(ids.get(0)).get().getStatus());
+        assertEquals(2, failureRecordRepository.findAllByStatus(EventConsumerConfig.RETRY).size());
+    }
+
+    @Test
+    void release_skipsRecordsClaimedAgain() {
+        Integer id = save(EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)).getBookId();
+        List<FailureRecord> expired = failureRecordService.claim(Collections.singletonList(id));
+        // the lease ran out and another instance claimed the record
+        FailureRecord failureRecord = failureRecordRepository.findById(id).get();
+        failureRecord.setNextAttemptAt(Instant.now().minusSeconds(1));
+        failureRecordRepository.save(failureRecord);
+        List<FailureRecord> claimed = failureRecordService.claim(Collections.singletonList(id));
+
+        failureRecordService.markSucceeded(expired);
+
+        FailureRecord stillClaimed = failureRecordRepository.findById(id).get();
+        assertEquals(EventConsumerConfig.RETRY, stillClaimed.getStatus());
+        assertEquals(claimed.get(0).getClaimToken(), stillClaimed.getClaimToken());
+
+        failureRecordService.markSucceeded(claimed);
+
+        assertEquals(EventConsumerConfig.SUCCESS, failureRecordRepository.findById(id).get().getStatus());
+    }
+
+    @Test
+    void findIds_matchesFilter() {
+        Instant failedAt = Instant.now().minusSeconds(600);
+        FailureRecord timeout = save(EventConsumerConfig.RETRY, failedAt, 1, "org.springframework.dao.QueryTimeoutException");
+        FailureRecord dead = save(EventConsumerConfig.DEAD, failedAt, 1, "org.springframework.dao.QueryTimeoutException");
+        save(EventConsumerConfig.RETRY, failedAt, 0, "org.springframework.dao.QueryTimeoutException");
+        save(EventConsumerConfig.RETRY, failedAt, 1, "java.lang.IllegalArgumentException");
+        save(EventConsumerConfig.RETRY, failedAt.minusSeconds(3600), 1, "org.springframework.dao.QueryTimeoutException");
+        save(EventConsumerConfig.SUCCESS, failedAt, 1, "org.springframework.dao.QueryTimeoutException");
+
+        FailureRecordFilter filter = FailureRecordFilter.builder()
+                .topic("library-events")
+                .partition(1)
+                .from(failedAt.minusSeconds(60))
+                .to(Instant.now())
+                .exceptionType("QueryTimeoutException")
+                .build();
+
+        assertEquals(Arrays.asList(timeout.getBookId(), dead.getBookId()), failureRecordService.findIds(filter, 0, 10));
+        assertEquals(Collections.singletonList(dead.getBookId()), failureRecordService.findIds(filter, timeout.getBookId(), 10));
+        filter.setStatuses(Collections.singletonList(EventConsumerConfig.DEAD));
+        assertEquals(Collections.singletonList(dead.getBookId()), failureRecordService.findIds(filter, 0, 10));
+    }
+
+    @Test
+    void claim_deadRecords() {
+        Integer id = save(EventConsumerConfig.DEAD, Instant.now().minusSeconds(1)).getBookId();
+
+        assertTrue(failureRecordService.claim(Collections.singletonList(id)).isEmpty());
+        List<FailureRecord> claimed = failureRecordService.claim(Collections.singletonList(id), EventConsumerConfig.DEAD);
+        assertEquals(1, claimed.size());
+
+        failureRecordService.markDead(claimed);
+
+        FailureRecord released = failureRecordRepository.findById(id).get();
+        assertEquals(EventConsumerConfig.DEAD, released.getStatus());
+        assertNull(released.getClaimToken());
+    }
+
+    private FailureRecord save(String status, Instant nextAttemptAt) {
+        return failureRecordRepository.save(FailureRecord.builder()
+                .topic("library-events")
+                .errorRecord("{}")
+                .partition(0)
+                .offset_value(0L)
+                .status(status)
+                .nextAttemptAt(nextAttemptAt)
+                .build());
+    }
+
+    private FailureRecord save(String status, Instant failedAt, int partition, String exceptionType) {
+        return failureRecordRepository.save(FailureRecord.builder()
+                .topic("library-events")
+                .errorRecord("{}")
+                .partition(partition)
+                .offset_value(0L)
+                .status(status)
+                .exceptionType(exceptionType)
+                .failedAt(failedAt)
+                .nextAttemptAt(failedAt)
+                .build());
+    }
+}
@@ -0,0 +1,60 @@
+package com.ashishnitw.eventsconsumer.intg.jpa;
+
+import com.ashishnitw.eventsconsumer.jpa.ProcessedOffsetRepository;
+import com.ashishnitw.eventsconsumer.model.ProcessedOffset;
+import com.ashishnitw.eventsconsumer.service.ProcessedOffsetService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+@Import(ProcessedOffsetService.class)
+public class ProcessedOffsetIntegrationTest {
+
+    @Autowired
+    ProcessedOffsetRepository processedOffsetRepository;
+
+    @Autowired
+    ProcessedOffsetService processedOffsetService;
+
+    @Test
+    void markProcessed_onlyMovesForward() {
+        assertTrue(processedOffsetService.markProcessed(record(0, 5)));
+        assertTrue(processedOffsetService.markProcessed(record(0, 6)));
+        assertFalse(processedOffsetService.markProcessed(record(0, 6)));
+        assertFalse(processedOffsetService.markProcessed(record(0, 3)));
+        assertTrue(processedOffsetService.markProcessed(record(1, 3)));
+
+        assertEquals(7L, processedOffsetRepository.findById(ProcessedOffset.idOf("library-events", 0)).get().getNextOffset());
+        assertEquals(4L, processedOffsetRepository.findById(ProcessedOffset.idOf("library-events", 1)).get().getNextOffset());
+    }
+
+    @Test
+    void unprocessed_dropsRecordsBelowTheStoredPosition() {
+        processedOffsetService.markProcessed(Arrays.asList(record(0, 1), record(0, 2), record(1, 0)));
+
+        List<ConsumerRecord<Integer, byte[]>> unprocessed = processedOffsetService.unprocessed(
+                Arrays.asList(record(0, 2), record(0, 3), record(1, 0), record(1, 1), record(2, 0)));
+
+        assertEquals(3, unprocessed.size());
+        assertEquals(3, unprocessed.get(0).offset());
+        assertEquals(1, unprocessed.get(1).partition());
+        assertEquals(2, unprocessed.get(2).partition());
+        // the same batch again was processed by someone else meanwhile
+        assertThrows(IllegalStateException.class, () -> processedOffsetService.markProcessed(Arrays.asList(record(0, 1), record(0, 2))));
+    }
+
+    private ConsumerRecord<Integer, byte[]> record(int partition, long offset) {
+        return new ConsumerRecord<>("library-events", partition, offset, null, new byte[0]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.ashishnitw.eventsconsumer.unit.codec;
+
+import com.ashishnitw.eventsconsumer.codec.JsonEventCodec;
+import com.ashishnitw.eventsconsumer.constant.EventType;
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonEventCodecUnitTest {
+
+    JsonEventCodec codec = new JsonEventCodec(new ObjectMapper());
+
+    @Test
+    void roundTrip() {
+        Event event = Event.builder().id(123456).type(EventType.UPDATE)
+                .book(Book.builder().id(-7).name("Kafka Bücher").build()).build();
+
+        Event decoded = codec.decode(codec.encode(event));
+
+        assertEquals(event, decoded);
+        assertEquals(event.getBook().getId(), decoded.getBook().getId());
+        assertEquals(event.getBook().getName(), decoded.getBook().getName());
+    }
+
+    @Test
+    void decode_skipsUnknownFields() {
+        Event event = decode("{\"id\":\"5\",\"source\":{\"app\":[1,2,{\"x\":null}]},\"type\":\"NEW\",\"book\":{\"id\":1,\"author\":\"Dilip\",\"name\":null}}");
+
+        assertEquals(5, event.getId());
+        assertEquals(EventType.NEW, event.getType());
+        assertEquals(1, event.getBook().getId());
+        assertNull(event.getBook().getName());
+    }
+
+    @Test
+    void decode_nullFields() {
+        Event event = decode("{\"id\":null,\"type\":null,\"book\":null}");
+
+        assertNull(event.getId());
+        assertNull(event.getType());
+        assertNull(event.getBook());
+    }
+
+    @Test
+    void decode_rejectsUnknownTypeBeforeTheBook() {
+        // the book is not valid json, it is never reached
+        SerializationException e = assertThrows(SerializationException.class,
+                () -> decode("{\"id\":1,\"type\":\"DELETE\",\"book\":{oops"));
+
+        assertEquals("Unknown event type DELETE", e.getMessage());
+    }
+
+    @Test
+    void decode_rejectsMalformedPayload() {
+        assertThrows(SerializationException.class, () -> decode("not json"));
+        assertThrows(SerializationException.class, () -> decode("[1,2]"));
+        assertThrows(SerializationException.class, () -> decode("{\"id\":\"abc\"}"));
+    }
+
+    private Event decode(String json) {
+        return codec.decode(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
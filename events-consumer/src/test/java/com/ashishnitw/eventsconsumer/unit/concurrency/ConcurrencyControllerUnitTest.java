@@ -0,0 +1,82 @@
+package com.ashishnitw.eventsconsumer.unit.concurrency;
+
+import com.ashishnitw.eventsconsumer.concurrency.ConcurrencyController;
+import com.ashishnitw.eventsconsumer.concurrency.ConcurrencyDecision;
+import com.ashishnitw.eventsconsumer.concurrency.ConcurrencyDecision.Action;
+import com.ashishnitw.eventsconsumer.config.ConcurrencyProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class ConcurrencyControllerUnitTest {
+
+    ConcurrencyController concurrencyController = new ConcurrencyController(new ConcurrencyProperties(),
+            mock(KafkaListenerEndpointRegistry.class), mock(KafkaTemplate.class), new SimpleMeterRegistry());
+
+    @Test
+    void decide_scalesUpOnLagWhileProcessingIsFast() {
+        ConcurrencyDecision decision = concurrencyController.decide(observed(3, 5000, 20, 4, 0), true);
+
+        assertEquals(Action.SCALE_UP, decision.getAction());
+        assertEquals(4, decision.getConcurrency());
+    }
+
+    @Test
+    void decide_holdsOnLagWhileProcessingIsSlow() {
+        ConcurrencyDecision decision = concurrencyController.decide(observed(3, 5000, 250, 4, 0), true);
+
+        assertEquals(Action.HOLD, decision.getAction());
+        assertEquals(3, decision.getConcurrency());
+    }
+
+    @Test
+    void decide_neverAbovePartitions() {
+        assertEquals(Action.HOLD, concurrencyController.decide(observed(6, 5000, 20, 4, 0), true).getAction());
+
+        ConcurrencyDecision decision = concurrencyController.decide(observed(8, 0, 20, 4, 0), false);
+        assertEquals(Action.SCALE_DOWN, decision.getAction());
+        assertEquals(6, decision.getConcurrency());
+    }
+
+    @Test
+    void decide_scalesDownOnlyAfterCooldown() {
+        assertEquals(Action.HOLD, concurrencyController.decide(observed(3, 10, 20, 4, 0), false).getAction());
+
+        ConcurrencyDecision decision = concurrencyController.decide(observed(3, 10, 20, 4, 0), true);
+        assertEquals(Action.SCALE_DOWN, decision.getAction());
+        assertEquals(2, decision.getConcurrency());
+    }
+
+    @Test
+    void decide_pausesOnSaturatedPoolAndResumesOnceDrained() {
+        ConcurrencyDecision paused = concurrencyController.decide(observed(3, 5000, 20, 10, 2), true);
+        assertEquals(Action.PAUSE, paused.getAction());
+        assertTrue(paused.isPaused());
+
+        ConcurrencyDecision stillPaused = concurrencyController.decide(paused.toBuilder().poolActive(8).poolPending(0).build(), true);
+        assertEquals(Action.HOLD, stillPaused.getAction());
+        assertTrue(stillPaused.isPaused());
+
+        ConcurrencyDecision resumed = concurrencyController.decide(paused.toBuilder().poolActive(3).poolPending(0).build(), true);
+        assertEquals(Action.RESUME, resumed.getAction());
+        assertFalse(resumed.isPaused());
+    }
+
+    private static ConcurrencyDecision observed(int concurrency, double lag, double processMs, double poolActive, double poolPending) {
+        return ConcurrencyDecision.builder()
+                .concurrency(concurrency)
+                .maxConcurrency(6)
+                .lag(lag)
+                .processMs(processMs)
+                .poolActive(poolActive)
+                .poolMax(10)
+                .poolPending(poolPending)
+                .build();
+    }
+}
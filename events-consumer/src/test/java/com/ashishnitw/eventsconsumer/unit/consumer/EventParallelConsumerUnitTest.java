@@ -0,0 +1,100 @@
+package com.ashishnitw.eventsconsumer.unit.consumer;
+
+import com.ashishnitw.eventsconsumer.consumer.EventParallelConsumer;
+import com.ashishnitw.eventsconsumer.consumer.KeyStripedExecutor;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class EventParallelConsumerUnitTest {
+
+    static final TopicPartition PARTITION = new TopicPartition("library-events", 0);
+
+    @Mock
+    EventService eventService;
+
+    @Mock
+    Consumer<?, ?> consumer;
+
+    @Spy
+    KeyStripedExecutor keyStripedExecutor = new KeyStripedExecutor(4);
+
+    @InjectMocks
+    EventParallelConsumer eventParallelConsumer;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        keyStripedExecutor.shutdown();
+    }
+
+    @Test
+    void onMessage_keepsKeyOrderAndCommitsThePoll() {
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(record(0, 1), record(1, 2), record(2, 1), record(3, null));
+        List<Long> processedKey1 = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            ConsumerRecord<Integer, byte[]> consumerRecord = invocation.getArgument(0);
+            if (consumerRecord.offset() == 1)
+                throw new IllegalArgumentException("Not a valid Event");
+            if (Integer.valueOf(1).equals(consumerRecord.key()))
+                processedKey1.add(consumerRecord.offset());
+            return null;
+        }).when(eventService).processEvent(any());
+        ReflectionTestUtils.setField(eventParallelConsumer, "maxWaitMs", 5000L);
+
+        eventParallelConsumer.onMessage(records, consumer);
+
+        assertEquals(Arrays.asList(0L, 2L), processedKey1);
+        verify(eventService).recover(eq(records.get(1)), isA(IllegalArgumentException.class));
+        verify(consumer).commitSync(Collections.singletonMap(PARTITION, new OffsetAndMetadata(4)));
+        verify(consumer, never()).seek(any(TopicPartition.class), anyLong());
+    }
+
+    @Test
+    void onMessage_consumesUnfinishedRecordsAgain() {
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(record(0, 1), record(1, 2), record(2, 3));
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            ConsumerRecord<Integer, byte[]> consumerRecord = invocation.getArgument(0);
+            if (consumerRecord.offset() == 1)
+                release.await();
+            return null;
+        }).when(eventService).processEvent(any());
+        ReflectionTestUtils.setField(eventParallelConsumer, "maxWaitMs", 200L);
+
+        eventParallelConsumer.onMessage(records, consumer);
+        release.countDown();
+
+        verify(consumer).commitSync(Collections.singletonMap(PARTITION, new OffsetAndMetadata(1)));
+        verify(consumer).seek(PARTITION, 1L);
+    }
+
+    private ConsumerRecord<Integer, byte[]> record(long offset, Integer key) {
+        return new ConsumerRecord<>("library-events", 0, offset, key, new byte[0]);
+    }
+}
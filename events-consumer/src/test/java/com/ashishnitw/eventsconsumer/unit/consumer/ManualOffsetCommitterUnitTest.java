@@ -0,0 +1,88 @@
+package com.ashishnitw.eventsconsumer.unit.consumer;
+
+import com.ashishnitw.eventsconsumer.consumer.ManualOffsetCommitter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.event.ConsumerStoppingEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ManualOffsetCommitterUnitTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ManualOffsetCommitter manualOffsetCommitter = new ManualOffsetCommitter(meterRegistry);
+
+    Consumer<?, ?> consumer = mock(Consumer.class);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(manualOffsetCommitter, "commitCount", 3);
+        ReflectionTestUtils.setField(manualOffsetCommitter, "commitIntervalMs", 60000L);
+    }
+
+    @Test
+    void completed_commitsAsynchronouslyPerCount() {
+        manualOffsetCommitter.completed(consumer, record(0, 10));
+        manualOffsetCommitter.completed(consumer, record(1, 5));
+        verify(consumer, never()).commitAsync(anyMap(), any());
+
+        manualOffsetCommitter.completed(consumer, record(0, 11));
+
+        Map<TopicPartition, OffsetAndMetadata> expected = new HashMap<>();
+        expected.put(new TopicPartition("library-events", 0), new OffsetAndMetadata(12));
+        expected.put(new TopicPartition("library-events", 1), new OffsetAndMetadata(6));
+        ArgumentCaptor<OffsetCommitCallback> callback = ArgumentCaptor.forClass(OffsetCommitCallback.class);
+        verify(consumer).commitAsync(eq(expected), callback.capture());
+
+        callback.getValue().onComplete(expected, null);
+        assertEquals(1, meterRegistry.get("events.consumer.commits").tag("type", "async").tag("outcome", "success").counter().count());
+    }
+
+    @Test
+    void commitSync_commitsPendingOffsetsOfRevokedPartitions() {
+        manualOffsetCommitter.completed(consumer, record(0, 10));
+        manualOffsetCommitter.completed(consumer, record(1, 5));
+
+        manualOffsetCommitter.commitSync(consumer, Collections.singletonList(new TopicPartition("library-events", 0)));
+
+        verify(consumer).commitSync(Collections.singletonMap(new TopicPartition("library-events", 0), new OffsetAndMetadata(11)));
+
+        manualOffsetCommitter.onStopping(new ConsumerStoppingEvent(this, this, consumer, Collections.emptyList()));
+
+        verify(consumer).commitSync(Collections.singletonMap(new TopicPartition("library-events", 1), new OffsetAndMetadata(6)));
+        verify(consumer, never()).commitAsync(anyMap(), any());
+    }
+
+    @Test
+    void discard_dropsLostPartitions() {
+        manualOffsetCommitter.completed(consumer, record(0, 10));
+
+        manualOffsetCommitter.discard(consumer, Collections.singletonList(new TopicPartition("library-events", 0)));
+        manualOffsetCommitter.onStopping(new ConsumerStoppingEvent(this, this, consumer, Collections.emptyList()));
+
+        verify(consumer, never()).commitSync(anyMap());
+    }
+
+    private ConsumerRecord<Integer, byte[]> record(int partition, long offset) {
+        return new ConsumerRecord<>("library-events", partition, offset, null, new byte[0]);
+    }
+}
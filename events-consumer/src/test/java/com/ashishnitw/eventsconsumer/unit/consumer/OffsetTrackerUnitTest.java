@@ -0,0 +1,48 @@
+package com.ashishnitw.eventsconsumer.unit.consumer;
+
+import com.ashishnitw.eventsconsumer.consumer.OffsetTracker;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffsetTrackerUnitTest {
+
+    OffsetTracker offsetTracker = new OffsetTracker();
+
+    @Test
+    void committable_stopsAtTheLowestUnfinishedOffset() {
+        ConsumerRecord<Integer, byte[]> first = record(0, 10);
+        ConsumerRecord<Integer, byte[]> second = record(0, 11);
+        ConsumerRecord<Integer, byte[]> third = record(0, 12);
+        ConsumerRecord<Integer, byte[]> other = record(1, 5);
+        offsetTracker.track(first);
+        offsetTracker.track(second);
+        offsetTracker.track(third);
+        offsetTracker.track(other);
+
+        offsetTracker.complete(first);
+        offsetTracker.complete(third);
+        offsetTracker.complete(other);
+
+        Map<TopicPartition, OffsetAndMetadata> committable = offsetTracker.committable();
+        assertEquals(11, committable.get(new TopicPartition("library-events", 0)).offset());
+        assertEquals(6, committable.get(new TopicPartition("library-events", 1)).offset());
+        assertEquals(11L, offsetTracker.unfinished().get(new TopicPartition("library-events", 0)));
+        assertEquals(1, offsetTracker.unfinished().size());
+
+        offsetTracker.complete(second);
+
+        assertEquals(13, offsetTracker.committable().get(new TopicPartition("library-events", 0)).offset());
+        assertTrue(offsetTracker.unfinished().isEmpty());
+    }
+
+    private ConsumerRecord<Integer, byte[]> record(int partition, long offset) {
+        return new ConsumerRecord<>("library-events", partition, offset, null, new byte[0]);
+    }
+}
@@ -0,0 +1,105 @@
+package com.ashishnitw.eventsconsumer.unit.consumer;
+
+import com.ashishnitw.eventsconsumer.config.RebalanceProperties;
+import com.ashishnitw.eventsconsumer.consumer.KeyStripedExecutor;
+import com.ashishnitw.eventsconsumer.consumer.ManualOffsetCommitter;
+import com.ashishnitw.eventsconsumer.consumer.RebalanceListener;
+import com.ashishnitw.eventsconsumer.service.EventCacheWarmer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.consumer.RangeAssignor;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RebalanceListenerUnitTest {
+
+    RebalanceProperties properties = new RebalanceProperties();
+
+    EventCacheWarmer eventCacheWarmer = mock(EventCacheWarmer.class);
+
+    KeyStripedExecutor keyStripedExecutor = mock(KeyStripedExecutor.class);
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @SuppressWarnings("unchecked")
+    ObjectProvider<KeyStripedExecutor> executorProvider = mock(ObjectProvider.class);
+
+    @SuppressWarnings("unchecked")
+    ObjectProvider<ManualOffsetCommitter> committerProvider = mock(ObjectProvider.class);
+
+    RebalanceListener rebalanceListener = new RebalanceListener(properties, eventCacheWarmer, executorProvider, committerProvider, meterRegistry);
+
+    Consumer<?, ?> consumer = mock(Consumer.class);
+
+    @Test
+    void revokeThenAssign_timesRebalanceAndWarmsEventPartitions() throws Exception {
+        when(executorProvider.getIfAvailable()).thenReturn(keyStripedExecutor);
+        when(keyStripedExecutor.awaitIdle(anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+        when(consumer.partitionsFor("library-events")).thenReturn(Arrays.asList(
+                partitionInfo(0), partitionInfo(1), partitionInfo(2)));
+        List<TopicPartition> assigned = Arrays.asList(new TopicPartition("library-events", 2), new TopicPartition("library-events-retry", 0));
+
+        rebalanceListener.onPartitionsRevokedBeforeCommit(consumer, Collections.singletonList(new TopicPartition("library-events", 1)));
+        rebalanceListener.onPartitionsAssigned(consumer, assigned);
+
+        verify(keyStripedExecutor).awaitIdle(properties.getDrainTimeoutMs(), TimeUnit.MILLISECONDS);
+        verify(eventCacheWarmer).warm(Collections.singletonList(new TopicPartition("library-events", 2)), 3);
+        assertEquals(1, meterRegistry.get("events.consumer.rebalance").timer().count());
+        assertEquals(1, meterRegistry.get("events.consumer.rebalance.partitions").tag("change", "revoked").counter().count());
+        assertEquals(2, meterRegistry.get("events.consumer.rebalance.partitions").tag("change", "assigned").counter().count());
+    }
+
+    @Test
+    void assignWithoutRevoke_isNotTimed() {
+        properties.setWarmEvents(0);
+
+        rebalanceListener.onPartitionsAssigned(consumer, Collections.singletonList(new TopicPartition("library-events", 0)));
+
+        assertNull(meterRegistry.find("events.consumer.rebalance").timer());
+        verify(eventCacheWarmer, never()).warm(any(), anyInt());
+        verify(consumer, never()).partitionsFor("library-events");
+    }
+
+    @Test
+    void consumerConfigs_mapsAssignorsAndStaticMembership() {
+        properties.setAssignors(Arrays.asList("cooperative-sticky", "range"));
+        properties.setGroupInstanceId("events-consumer-0");
+        properties.setSessionTimeoutMs(45000);
+
+        Map<String, Object> configs = properties.consumerConfigs();
+
+        assertEquals(CooperativeStickyAssignor.class.getName() + "," + RangeAssignor.class.getName(),
+                configs.get(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG));
+        assertEquals("events-consumer-0", configs.get(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG));
+        assertEquals(45000, configs.get(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG));
+
+        properties.setAssignors(Collections.singletonList("fastest"));
+        assertThrows(IllegalArgumentException.class, properties::consumerConfigs);
+    }
+
+    private static PartitionInfo partitionInfo(int partition) {
+        return new PartitionInfo("library-events", partition, null, null, null);
+    }
+}
@@ -0,0 +1,179 @@
+package com.ashishnitw.eventsconsumer.unit.replay;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.config.ReplayProperties;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import com.ashishnitw.eventsconsumer.replay.FailureReplayService;
+import com.ashishnitw.eventsconsumer.replay.ReplayJob;
+import com.ashishnitw.eventsconsumer.replay.ReplayRequest;
+import com.ashishnitw.eventsconsumer.replay.ReplayRunningException;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.FailureRecordService;
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FailureReplayServiceUnitTest {
+
+    FailureRecordService failureRecordService = mock(FailureRecordService.class);
+
+    EventService eventService = mock(EventService.class);
+
+    ReplayProperties properties = new ReplayProperties();
+
+    FailureReplayService replayService = new FailureReplayService(failureRecordService, eventService, properties, new SimpleMeterRegistry(), 60000);
+
+    @Test
+    void start_replaysClaimedRecordsAndReleasesThem() throws Exception {
+        List<Integer> ids = Arrays.asList(1, 2, 3, 4);
+        when(failureRecordService.findIds(any(), eq(0), anyInt())).thenReturn(ids);
+        when(failureRecordService.claim(ids, EventConsumerConfig.RETRY)).thenReturn(Arrays.asList(
+                failureRecord(1, EventConsumerConfig.RETRY), failureRecord(2, EventConsumerConfig.RETRY)));
+        // 4 is leased by the RetryScheduler
+        when(failureRecordService.claim(ids, EventConsumerConfig.DEAD)).thenReturn(Collections.singletonList(
+                failureRecord(3, EventConsumerConfig.DEAD)));
+        when(failureRecordService.toConsumerRecord(any())).thenAnswer(invocation -> {
+            FailureRecord failureRecord = invocation.getArgument(0);
+            return new ConsumerRecord<>("library-events", 0, failureRecord.getBookId(), failureRecord.getKey(), new byte[0]);
+        });
+        doThrow(new QueryTimeoutException("timeout")).when(eventService)
+                .reprocessEvent(argThat(consumerRecord -> consumerRecord.offset() == 2));
+
+        ReplayJob job = replayService.start(ReplayRequest.builder().workers(2).recordsPerSecond(0).build());
+        job.done().get(10, TimeUnit.SECONDS);
+
+        assertEquals(ReplayJob.State.COMPLETED, job.getState());
+        assertEquals(4, job.getMatched());
+        assertEquals(3, job.getClaimed());
+        assertEquals(1, job.getSkipped());
+        assertEquals(2, job.getSucceeded());
+        assertEquals(1, job.getFailed());
+
+        ArgumentCaptor<Collection<FailureRecord>> succeeded = recordsCaptor();
+        ArgumentCaptor<Collection<FailureRecord>> rescheduled = recordsCaptor();
+        verify(failureRecordService).markSucceeded(succeeded.capture());
+        verify(failureRecordService).reschedule(rescheduled.capture());
+        assertEquals(new HashSet<>(Arrays.asList(1, 3)), ids(succeeded.getValue()));
+        assertEquals(new HashSet<>(Collections.singletonList(2)), ids(rescheduled.getValue()));
+    }
+
+    @Test
+    void start_claimsWhatItReplaysWithinTheLease() throws Exception {
+        // 10 records/sec within half of a 400 ms lease
+        FailureReplayService replayService = new FailureReplayService(failureRecordService, eventService, properties, new SimpleMeterRegistry(), 400);
+        List<Integer> ids = Arrays.asList(1, 2, 3, 4, 5);
+        when(failureRecordService.findIds(any(), eq(0), anyInt())).thenReturn(ids);
+        when(failureRecordService.claim(any(), eq(EventConsumerConfig.RETRY))).thenAnswer(invocation -> {
+            Collection<Integer> chunk = invocation.getArgument(0);
+            return chunk.stream().map(id -> failureRecord(id, EventConsumerConfig.RETRY)).collect(Collectors.toList());
+        });
+        when(failureRecordService.toConsumerRecord(any())).thenAnswer(invocation -> {
+            FailureRecord failureRecord = invocation.getArgument(0);
+            return new ConsumerRecord<>("library-events", 0, failureRecord.getBookId(), failureRecord.getKey(), new byte[0]);
+        });
+        FailureRecordFilter filter = FailureRecordFilter.builder()
+                .statuses(Collections.singletonList(EventConsumerConfig.RETRY))
+                .build();
+
+        ReplayJob job = replayService.start(ReplayRequest.builder().filter(filter).workers(1).recordsPerSecond(10).build());
+        job.done().get(10, TimeUnit.SECONDS);
+
+        assertEquals(ReplayJob.State.COMPLETED, job.getState());
+        assertEquals(5, job.getSucceeded());
+        InOrder inOrder = inOrder(failureRecordService);
+        inOrder.verify(failureRecordService).claim(Arrays.asList(1, 2), EventConsumerConfig.RETRY);
+        inOrder.verify(failureRecordService).claim(Arrays.asList(3, 4), EventConsumerConfig.RETRY);
+        inOrder.verify(failureRecordService).claim(Collections.singletonList(5), EventConsumerConfig.RETRY);
+    }
+
+    @Test
+    void start_rejectsSecondReplayWhileOneRuns() throws Exception {
+        CountDownLatch findingIds = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(failureRecordService.findIds(any(), anyInt(), eq(1))).thenReturn(Collections.emptyList());
+        when(failureRecordService.findIds(any(), anyInt(), eq(properties.getPageSize()))).thenAnswer(invocation -> {
+            findingIds.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return Collections.emptyList();
+        });
+
+        ReplayJob job = replayService.start(new ReplayRequest());
+        assertTrue(findingIds.await(10, TimeUnit.SECONDS));
+        assertThrows(ReplayRunningException.class, () -> replayService.start(new ReplayRequest()));
+
+        replayService.cancel(job.getId());
+        release.countDown();
+        job.done().get(10, TimeUnit.SECONDS);
+
+        assertEquals(ReplayJob.State.CANCELLED, job.getState());
+    }
+
+    @Test
+    void start_rejectsSuccessRecords() {
+        FailureRecordFilter filter = FailureRecordFilter.builder()
+                .statuses(Collections.singletonList(EventConsumerConfig.SUCCESS))
+                .build();
+
+        assertThrows(IllegalArgumentException.class, () -> replayService.start(ReplayRequest.builder().filter(filter).build()));
+    }
+
+    @Test
+    void start_failsOnStoreError() throws Exception {
+        when(failureRecordService.findIds(any(), anyInt(), eq(1))).thenReturn(Collections.emptyList());
+        when(failureRecordService.findIds(any(), anyInt(), eq(properties.getPageSize()))).thenThrow(new QueryTimeoutException("timeout"));
+
+        ReplayJob job = replayService.start(new ReplayRequest());
+        job.done().get(10, TimeUnit.SECONDS);
+
+        assertEquals(ReplayJob.State.FAILED, job.getState());
+        assertEquals("timeout", job.getError());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Collection<FailureRecord>> recordsCaptor() {
+        return ArgumentCaptor.forClass(Collection.class);
+    }
+
+    private static Set<Integer> ids(Collection<FailureRecord> failureRecords) {
+        return failureRecords.stream().map(FailureRecord::getBookId).collect(Collectors.toSet());
+    }
+
+    private static FailureRecord failureRecord(int id, String status) {
+        return FailureRecord.builder()
+                .bookId(id)
+                .key(id % 2)
+                .topic("library-events")
+                .errorRecord("{}")
+                .partition(0)
+                .offset_value((long) id)
+                .status(status)
+                .build();
+    }
+}
@@ -0,0 +1,239 @@
+package com.ashishnitw.eventsconsumer.unit.service;
+
+import com.ashishnitw.eventsconsumer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsconsumer.codec.EventCodec;
+import com.ashishnitw.eventsconsumer.codec.EventCodecs;
+import com.ashishnitw.eventsconsumer.codec.JsonEventCodec;
+import com.ashishnitw.eventsconsumer.config.CacheConfig;
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.constant.EventHeaders;
+import com.ashishnitw.eventsconsumer.constant.EventType;
+import com.ashishnitw.eventsconsumer.jpa.EventRepository;
+import com.ashishnitw.eventsconsumer.logging.RecordLogger;
+import com.ashishnitw.eventsconsumer.model.Book;
+import com.ashishnitw.eventsconsumer.model.Event;
+import com.ashishnitw.eventsconsumer.service.EventService;
+import com.ashishnitw.eventsconsumer.service.FailureRecordService;
+import com.ashishnitw.eventsconsumer.service.ProcessedOffsetService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class EventServiceUnitTest {
+
+    @Mock
+    EventRepository eventRepository;
+
+    @Mock
+    FailureRecordService failureRecordService;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @Mock
+    ProcessedOffsetService processedOffsetService;
+
+    @Spy
+    EventCodecs eventCodecs = new EventCodecs(Arrays.asList(new JsonEventCodec(new ObjectMapper()), new BinaryEventCodec()));
+
+    @Spy
+    TransactionTemplate transactionTemplate = new TransactionTemplate();
+
+    @Spy
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    CacheManager cacheManager = new ConcurrentMapCacheManager(CacheConfig.EVENTS);
+
+    @Spy
+    RecordLogger recordLogger = new RecordLogger(1);
+
+    @InjectMocks
+    EventService eventService;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate.setTransactionManager(transactionManager);
+    }
+
+    @Test
+    void processEvents_persistsValidEventsInOneCall() {
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(
+                record(0, "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":1,\"name\":\"Kafka Book\"}}"),
+                record(1, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.0\"}}"),
+                record(2, "{\"id\":999,\"type\":\"UPDATE\",\"book\":{\"id\":3,\"name\":\"Kafka Book\"}}"),
+                record(3, "{\"id\":6,\"type\":\"UPDATE\",\"book\":{\"id\":4,\"name\":\"Kafka Book\"}}"),
+                record(4, "not json"));
+        when(eventRepository.findExistingIds(anyCollection())).thenReturn(Collections.singletonList(5));
+
+        eventService.processEvents(records);
+
+        ArgumentCaptor<List<Event>> saved = ArgumentCaptor.forClass(List.class);
+        verify(eventRepository, times(1)).saveAll(saved.capture());
+        assertEquals(2, saved.getValue().size());
+        verify(eventRepository, never()).save(any(Event.class));
+
+        verify(failureRecordService).saveFailedRecord(eq(records.get(2)), isA(RecoverableDataAccessException.class), eq(EventConsumerConfig.RETRY));
+        verify(failureRecordService).saveFailedRecord(eq(records.get(3)), isA(IllegalArgumentException.class), eq(EventConsumerConfig.DEAD));
+        verify(failureRecordService).saveFailedRecord(eq(records.get(4)), any(Exception.class), eq(EventConsumerConfig.DEAD));
+        verifyNoMoreInteractions(failureRecordService);
+
+        assertEquals(1, meterRegistry.get("events.consumer.batch").timer().count());
+        assertEquals(5, meterRegistry.get("events.consumer.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    void processEvents_cachedEventsAreNotLookedUp() {
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(
+                record(0, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.0\"}}"),
+                record(1, "{\"id\":6,\"type\":\"UPDATE\",\"book\":{\"id\":3,\"name\":\"Kafka Book 3.0\"}}"));
+        cacheManager.getCache(CacheConfig.EVENTS).put(5, Event.builder().id(5).type(EventType.NEW).build());
+        when(eventRepository.findExistingIds(anyCollection())).thenReturn(Collections.singletonList(6));
+
+        eventService.processEvents(records);
+
+        verify(eventRepository).findExistingIds(Collections.singleton(6));
+        ArgumentCaptor<List<Event>> saved = ArgumentCaptor.forClass(List.class);
+        verify(eventRepository).saveAll(saved.capture());
+        assertEquals(2, saved.getValue().size());
+        verifyNoInteractions(failureRecordService);
+    }
+
+    @Test
+    void processEvents_coalescesUpdatesOfAnEvent() {
+        ReflectionTestUtils.setField(eventService, "coalesceUpdates", true);
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(
+                record(0, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.0\"}}"),
+                record(1, "{\"id\":6,\"type\":\"UPDATE\",\"book\":{\"id\":3,\"name\":\"Kafka Book 3.0\"}}"),
+                record(2, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.1\"}}"),
+                record(3, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.2\"}}"));
+        when(eventRepository.findExistingIds(anyCollection())).thenReturn(Arrays.asList(5, 6));
+
+        eventService.processEvents(records);
+
+        ArgumentCaptor<List<Event>> saved = ArgumentCaptor.forClass(List.class);
+        verify(eventRepository).saveAll(saved.capture());
+        assertEquals(2, saved.getValue().size());
+        assertEquals(6, saved.getValue().get(0).getId());
+        assertEquals("Kafka Book 2.2", saved.getValue().get(1).getBook().getName());
+        assertEquals(2, meterRegistry.get("events.consumer.coalesced").counter().count());
+        verifyNoInteractions(failureRecordService);
+    }
+
+    @Test
+    void processEvents_keepsUpdatesBeforeNewOfTheSameEvent() {
+        ReflectionTestUtils.setField(eventService, "coalesceUpdates", true);
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(
+                record(0, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.0\"}}"),
+                record(1, "{\"id\":5,\"type\":\"NEW\",\"book\":{\"id\":2,\"name\":\"Kafka Book\"}}"),
+                record(2, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.1\"}}"),
+                record(3, "{\"id\":5,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.2\"}}"));
+        when(eventRepository.findExistingIds(anyCollection())).thenReturn(Collections.singletonList(5));
+
+        eventService.processEvents(records);
+
+        ArgumentCaptor<List<Event>> saved = ArgumentCaptor.forClass(List.class);
+        verify(eventRepository).saveAll(saved.capture());
+        assertEquals(Arrays.asList("Kafka Book 2.0", "Kafka Book", "Kafka Book 2.2"),
+                saved.getValue().stream().map(event -> event.getBook().getName()).collect(Collectors.toList()));
+    }
+
+    @Test
+    void processEvents_isolatesOffendingRecordWhenBulkPersistFails() {
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(
+                record(0, "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":1,\"name\":\"Kafka Book\"}}"),
+                record(1, "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":2,\"name\":\"Duplicate Book\"}}"));
+        when(eventRepository.saveAll(anyList())).thenThrow(new DataIntegrityViolationException("duplicate book"));
+        when(eventRepository.save(any(Event.class))).then(invocation -> {
+            Event event = invocation.getArgument(0);
+            if (event.getBook().getId() == 2)
+                throw new DataIntegrityViolationException("duplicate book");
+            return event;
+        });
+
+        eventService.processEvents(records);
+
+        verify(eventRepository, times(2)).save(any(Event.class));
+        verify(failureRecordService).saveFailedRecord(eq(records.get(1)), isA(DataIntegrityViolationException.class), eq(EventConsumerConfig.DEAD));
+        verifyNoMoreInteractions(failureRecordService);
+    }
+
+    @Test
+    void processEvent_binaryFormat() {
+        Event event = Event.builder().type(EventType.NEW).book(Book.builder().id(1).name("Kafka Book").build()).build();
+        ConsumerRecord<Integer, byte[]> consumerRecord = new ConsumerRecord<>("library-events", 0, 0, null, new BinaryEventCodec().encode(event));
+        consumerRecord.headers().add(EventCodec.FORMAT_HEADER, BinaryEventCodec.FORMAT.getBytes(StandardCharsets.UTF_8));
+        consumerRecord.headers().add(EventHeaders.PRODUCED_AT, ByteBuffer.allocate(Long.BYTES).putLong(System.currentTimeMillis()).array());
+
+        eventService.processEvent(consumerRecord);
+
+        ArgumentCaptor<Event> saved = ArgumentCaptor.forClass(Event.class);
+        verify(eventRepository).save(saved.capture());
+        assertEquals("Kafka Book", saved.getValue().getBook().getName());
+
+        assertEquals(1, meterRegistry.get("events.consumer.process").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("events.e2e.latency").tag("topic", "library-events").timer().count());
+    }
+
+    @Test
+    void processEvent_exactlyOnce_skipsProcessedRecord() {
+        ConsumerRecord<Integer, byte[]> consumerRecord = record(3, "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":1,\"name\":\"Kafka Book\"}}");
+        when(processedOffsetService.isExactlyOnce()).thenReturn(true);
+        when(processedOffsetService.markProcessed(consumerRecord)).thenReturn(false);
+
+        eventService.processEvent(consumerRecord);
+
+        verify(eventRepository, never()).save(any(Event.class));
+        verify(eventCodecs, never()).decode(any());
+        assertEquals(1, meterRegistry.get("events.consumer.process").tag("outcome", "skipped").timer().count());
+    }
+
+    @Test
+    void processEvents_exactlyOnce_storesPositionWithTheBatch() {
+        List<ConsumerRecord<Integer, byte[]>> records = Arrays.asList(
+                record(0, "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":1,\"name\":\"Kafka Book\"}}"),
+                record(1, "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":2,\"name\":\"Kafka Book 2.0\"}}"));
+        List<ConsumerRecord<Integer, byte[]>> unprocessed = records.subList(1, 2);
+        when(processedOffsetService.isExactlyOnce()).thenReturn(true);
+        when(processedOffsetService.unprocessed(records)).thenReturn(unprocessed);
+
+        eventService.processEvents(records);
+
+        ArgumentCaptor<List<Event>> saved = ArgumentCaptor.forClass(List.class);
+        verify(eventRepository).saveAll(saved.capture());
+        assertEquals(1, saved.getValue().size());
+        assertEquals(2, saved.getValue().get(0).getBook().getId());
+        verify(processedOffsetService).markProcessed(unprocessed);
+    }
+
+    private ConsumerRecord<Integer, byte[]> record(long offset, String value) {
+        return new ConsumerRecord<>("library-events", 0, offset, null, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
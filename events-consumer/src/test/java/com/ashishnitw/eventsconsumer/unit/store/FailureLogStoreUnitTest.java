@@ -0,0 +1,251 @@
+package com.ashishnitw.eventsconsumer.unit.store;
+
+import com.ashishnitw.eventsconsumer.config.EventConsumerConfig;
+import com.ashishnitw.eventsconsumer.config.FailureLogProperties;
+import com.ashishnitw.eventsconsumer.model.FailureRecord;
+import com.ashishnitw.eventsconsumer.store.FailureLogStore;
+import com.ashishnitw.eventsconsumer.store.FailureRecordFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class FailureLogStoreUnitTest {
+
+    @TempDir
+    Path dir;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    FailureLogStore failureLogStore;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (failureLogStore != null)
+            failureLogStore.close();
+    }
+
+    @Test
+    void findDueRetryIds_pagesRetryRecordsByKeyset() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        IntStream.range(0, 5).forEach(i -> save(i, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)));
+        save(5, EventConsumerConfig.DEAD, Instant.now().minusSeconds(1));
+        save(6, EventConsumerConfig.RETRY, Instant.now().plusSeconds(60));
+
+        List<Integer> firstPage = failureLogStore.findDueRetryIds(Instant.now(), 0, 3);
+        List<Integer> secondPage = failureLogStore.findDueRetryIds(Instant.now(), firstPage.get(2), 3);
+
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), firstPage);
+        Assertions.assertEquals(Arrays.asList(4, 5), secondPage);
+    }
+
+    @Test
+    void claim_isExclusiveUntilReleased() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        List<Integer> ids = IntStream.range(0, 3)
+                .mapToObj(i -> save(i, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)).getBookId())
+                .collect(Collectors.toList());
+        Instant now = Instant.now();
+
+        List<FailureRecord> claimed = failureLogStore.claimDueRetries(ids, now, now.plusSeconds(60), "token");
+        List<FailureRecord> claimedAgain = failureLogStore.claimDueRetries(ids, now, now.plusSeconds(60), "other");
+
+        Assertions.assertEquals(3, claimed.size());
+        Assertions.assertEquals(1, claimed.get(1).getKey());
+        Assertions.assertEquals("{\"id\":1}", claimed.get(1).getErrorRecord());
+        Assertions.assertEquals("token", claimed.get(1).getClaimToken());
+        Assertions.assertTrue(claimedAgain.isEmpty());
+        Assertions.assertTrue(failureLogStore.findDueRetryIds(now, 0, 10).isEmpty());
+
+        Assertions.assertEquals(0, failureLogStore.updateStatus(ids, EventConsumerConfig.SUCCESS, "other"));
+        Assertions.assertEquals(1, failureLogStore.updateStatus(Collections.singletonList(ids.get(0)), EventConsumerConfig.SUCCESS, "token"));
+        Assertions.assertEquals(2, failureLogStore.reschedule(ids.subList(1, 3), now.minusSeconds(1), "token"));
+
+        Assertions.assertEquals(ids.subList(1, 3), failureLogStore.findDueRetryIds(now, 0, 10));
+        Assertions.assertEquals(0, failureLogStore.reschedule(ids.subList(1, 3), now.plusSeconds(60), "token"));
+    }
+
+    @Test
+    void release_skipsRecordsClaimedAgain() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        List<Integer> ids = Collections.singletonList(save(0, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)).getBookId());
+        Instant now = Instant.now();
+        failureLogStore.claimDueRetries(ids, now, now.minusMillis(1), "expired");
+        failureLogStore.claimDueRetries(ids, now, now.plusSeconds(60), "token");
+
+        Assertions.assertEquals(0, failureLogStore.updateStatus(ids, EventConsumerConfig.SUCCESS, "expired"));
+        Assertions.assertEquals(1, failureLogStore.pendingRetries());
+        Assertions.assertEquals(1, failureLogStore.updateStatus(ids, EventConsumerConfig.SUCCESS, "token"));
+        Assertions.assertEquals(0, failureLogStore.pendingRetries());
+    }
+
+    @Test
+    void findDueRetryIds_skipsUnscheduledRecords() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        save(0, EventConsumerConfig.RETRY, null);
+        int due = save(1, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)).getBookId();
+        Instant now = Instant.now();
+
+        Assertions.assertEquals(Collections.singletonList(due), failureLogStore.findDueRetryIds(now, 0, 10));
+
+        failureLogStore.close();
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+
+        Assertions.assertEquals(Collections.singletonList(due), failureLogStore.findDueRetryIds(now, 0, 10));
+    }
+
+    @Test
+    void open_recoversRetryRecordsAndIds() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        IntStream.range(0, 3).forEach(i -> save(i, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)));
+        failureLogStore.claimDueRetries(Arrays.asList(1, 2), Instant.now(), Instant.now().plusSeconds(60), "token");
+        failureLogStore.updateStatus(Collections.singletonList(1), EventConsumerConfig.SUCCESS, "token");
+        failureLogStore.reschedule(Collections.singletonList(2), Instant.now().plusSeconds(60), "token");
+        failureLogStore.close();
+
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+
+        Assertions.assertEquals(2, failureLogStore.pendingRetries());
+        Assertions.assertEquals(Collections.singletonList(3), failureLogStore.findDueRetryIds(Instant.now(), 0, 10));
+        Assertions.assertEquals(4, save(3, EventConsumerConfig.DEAD, Instant.now()).getBookId());
+    }
+
+    @Test
+    void open_discardsTornEntry() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        IntStream.range(0, 2).forEach(i -> save(i, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)));
+        failureLogStore.close();
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+
+        Assertions.assertEquals(Collections.singletonList(1), failureLogStore.findDueRetryIds(Instant.now(), 0, 10));
+        save(2, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1));
+        Assertions.assertEquals(Arrays.asList(1, 2), failureLogStore.findDueRetryIds(Instant.now(), 0, 10));
+    }
+
+    @Test
+    void compaction_keepsOnlyRetryRecords() throws IOException {
+        failureLogStore = open(1024, 4 * 1024);
+        save(0, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1));
+        for (int i = 1; i < 200; i++)
+            save(i, EventConsumerConfig.DEAD, Instant.now());
+
+        Assertions.assertTrue(failureLogStore.bytes() <= 4 * 1024);
+        Assertions.assertFalse(Files.exists(dir.resolve(String.format("failures-%020d.log", 0))));
+        List<FailureRecord> claimed = failureLogStore.claimDueRetries(Collections.singletonList(1), Instant.now(), Instant.now().plusSeconds(60), "token");
+        Assertions.assertEquals("{\"id\":0}", claimed.get(0).getErrorRecord());
+
+        failureLogStore.close();
+        failureLogStore = open(1024, 4 * 1024);
+        Assertions.assertEquals(1, failureLogStore.pendingRetries());
+    }
+
+    @Test
+    void open_keepsIdsOfCompactedRecords() throws IOException {
+        failureLogStore = open(1024, 4 * 1024);
+        List<Integer> retry = Collections.singletonList(save(0, EventConsumerConfig.RETRY, Instant.now().minusSeconds(1)).getBookId());
+        for (int i = 1; i <= 20; i++)
+            save(i, EventConsumerConfig.DEAD, Instant.now());
+        // updates of the RETRY record only, until the segments with the DEAD records are compacted away
+        for (int i = 0; i < 500; i++) {
+            failureLogStore.claimDueRetries(retry, Instant.now(), Instant.now().plusSeconds(60), "token");
+            failureLogStore.reschedule(retry, Instant.now().minusSeconds(1), "token");
+        }
+        Assertions.assertFalse(Files.exists(dir.resolve(String.format("failures-%020d.log", 0))));
+        failureLogStore.close();
+
+        failureLogStore = open(1024, 4 * 1024);
+
+        Assertions.assertEquals(22, save(21, EventConsumerConfig.DEAD, Instant.now()).getBookId());
+    }
+
+    @Test
+    void findIds_matchesRetryRecordsOnly() throws IOException {
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+        // the failure log keeps millis
+        Instant failedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS).minusSeconds(600);
+        save(0, EventConsumerConfig.RETRY, "org.springframework.dao.QueryTimeoutException", failedAt.minusSeconds(3600));
+        save(1, EventConsumerConfig.RETRY, "org.springframework.dao.QueryTimeoutException", failedAt);
+        save(2, EventConsumerConfig.RETRY, "java.lang.IllegalArgumentException", failedAt);
+        save(3, EventConsumerConfig.DEAD, "org.springframework.dao.QueryTimeoutException", failedAt);
+        FailureRecordFilter filter = FailureRecordFilter.builder()
+                .statuses(Collections.singletonList(EventConsumerConfig.RETRY))
+                .from(failedAt)
+                .exceptionType("QueryTimeoutException")
+                .build();
+
+        Assertions.assertEquals(Collections.singletonList(2), failureLogStore.findIds(filter, 0, 10));
+
+        // the index is rebuilt from the segments
+        failureLogStore.close();
+        failureLogStore = open(1024 * 1024, 4 * 1024 * 1024);
+
+        Assertions.assertEquals(Collections.singletonList(2), failureLogStore.findIds(filter, 0, 10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> failureLogStore.findIds(new FailureRecordFilter(), 0, 10));
+    }
+
+    private FailureLogStore open(int segmentBytes, long maxBytes) throws IOException {
+        FailureLogProperties properties = new FailureLogProperties();
+        properties.setType("log");
+        properties.setDir(dir.toString());
+        properties.setSegmentBytes(segmentBytes);
+        properties.setMaxBytes(maxBytes);
+        FailureLogStore store = new FailureLogStore(properties, meterRegistry);
+        store.open();
+        return store;
+    }
+
+    private FailureRecord save(int key, String status, Instant nextAttemptAt) {
+        return failureLogStore.save(FailureRecord.builder()
+                .topic("library-events")
+                .key(key)
+                .errorRecord("{\"id\":" + key + "}")
+                .format("json")
+                .partition(0)
+                .offset_value((long) key)
+                .exception("Not a valid event")
+                .status(status)
+                .nextAttemptAt(nextAttemptAt)
+                .build());
+    }
+
+    private FailureRecord save(int key, String status, String exceptionType, Instant failedAt) {
+        return failureLogStore.save(FailureRecord.builder()
+                .topic("library-events")
+                .key(key)
+                .errorRecord("{\"id\":" + key + "}")
+                .format("json")
+                .partition(0)
+                .offset_value((long) key)
+                .exception("Query timed out")
+                .exceptionType(exceptionType)
+                .status(status)
+                .failedAt(failedAt)
+                .nextAttemptAt(failedAt)
+                .build());
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+}
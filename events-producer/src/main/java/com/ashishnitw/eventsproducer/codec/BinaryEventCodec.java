@@ -0,0 +1,228 @@
+package com.ashishnitw.eventsproducer.codec;
+
+import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact schema based encoding of an {@link Event}, version 1 :
+ * <pre>
+ * byte    version     always 1
+ * byte    flags       bit 0 event id, bit 1 book, bit 2 book id, bit 3 book name present
+ * byte    type        0 none, 1 NEW, 2 UPDATE
+ * varint  event id    zig-zag, only when flagged
+ * varint  book id     zig-zag, only when flagged
+ * varint  name length followed by the UTF-8 bytes of the book name, only when flagged
+ * </pre>
+ * The consumer keeps an identical copy of this class, any change to the layout needs a new version byte.
+ */
+@Component
+public class BinaryEventCodec implements EventCodec {
+
+    public static final String FORMAT = "binary";
+
+    static final byte VERSION = 1;
+
+    private static final int EVENT_ID = 1;
+    private static final int BOOK = 1 << 1;
+    private static final int BOOK_ID = 1 << 2;
+    private static final int BOOK_NAME = 1 << 3;
+
+    @Override
+    public String format() {
+        return FORMAT;
+    }
+
+    @Override
+    public byte[] encode(Event event) {
+        Book book = event.getBook();
+        String name = book != null ? book.getName() : null;
+
+        int flags = 0;
+        int size = 3;
+        int nameLength = 0;
+        if (event.getId() != null) {
+            flags |= EVENT_ID;
+            size += varIntSize(zigZag(event.getId()));
+        }
+        if (book != null) {
+            flags |= BOOK;
+            if (book.getId() != null) {
+                flags |= BOOK_ID;
+                size += varIntSize(zigZag(book.getId()));
+            }
+            if (name != null) {
+                flags |= BOOK_NAME;
+                nameLength = utf8Length(name);
+                size += varIntSize(nameLength) + nameLength;
+            }
+        }
+
+        // sized exactly, the payload is the only allocation of the encoding
+        byte[] payload = new byte[size];
+        payload[0] = VERSION;
+        payload[1] = (byte) flags;
+        payload[2] = typeCode(event.getType());
+        int position = 3;
+        if ((flags & EVENT_ID) != 0)
+            position = writeVarInt(payload, position, zigZag(event.getId()));
+        if ((flags & BOOK_ID) != 0)
+            position = writeVarInt(payload, position, zigZag(book.getId()));
+        if ((flags & BOOK_NAME) != 0) {
+            position = writeVarInt(payload, position, nameLength);
+            writeUtf8(payload, position, name);
+        }
+        return payload;
+    }
+
+    @Override
+    public Event decode(byte[] payload) {
+        if (payload == null || payload.length < 3 || payload[0] != VERSION)
+            throw new SerializationException("Unsupported binary event payload");
+        try {
+            int flags = payload[1];
+            int[] position = {3};
+            Event event = new Event();
+            event.setType(typeOf(payload[2]));
+            if ((flags & EVENT_ID) != 0)
+                event.setId(unZigZag(readVarInt(payload, position)));
+            if ((flags & BOOK) != 0) {
+                Book book = new Book();
+                if ((flags & BOOK_ID) != 0)
+                    book.setId(unZigZag(readVarInt(payload, position)));
+                if ((flags & BOOK_NAME) != 0) {
+                    int length = readVarInt(payload, position);
+                    book.setName(new String(payload, position[0], length, StandardCharsets.UTF_8));
+                }
+                event.setBook(book);
+            }
+            return event;
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated binary event payload", e);
+        }
+    }
+
+    private static byte typeCode(EventType type) {
+        if (type == null)
+            return 0;
+        switch (type) {
+            case NEW:
+                return 1;
+            case UPDATE:
+                return 2;
+            default:
+                throw new SerializationException("No binary code for event type " + type);
+        }
+    }
+
+    private static EventType typeOf(byte code) {
+        switch (code) {
+            case 0:
+                return null;
+            case 1:
+                return EventType.NEW;
+            case 2:
+                return EventType.UPDATE;
+            default:
+                throw new SerializationException("Unknown binary event type " + code);
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarInt(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Number of bytes of {@code value} in UTF-8, an unpaired surrogate counts as the one byte {@code '?'} it is
+     * replaced with, like {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // writes value as UTF-8 without an intermediate byte[], the buffer must have room for utf8Length(value) bytes
+    static int writeUtf8(byte[] buffer, int position, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[position++] = '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private static int readVarInt(byte[] buffer, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28)
+                throw new SerializationException("Malformed varint in binary event payload");
+            b = buffer[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
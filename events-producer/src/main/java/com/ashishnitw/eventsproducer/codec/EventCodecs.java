@@ -0,0 +1,50 @@
+package com.ashishnitw.eventsproducer.codec;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the available {@link EventCodec}s. Events are written with the codec named by
+ * {@code events.codec.format}.
+ */
+@Component
+public class EventCodecs {
+
+    private final Map<String, EventCodec> codecs = new HashMap<>();
+
+    private final EventCodec writer;
+
+    private final Header writerFormatHeader;
+
+    public EventCodecs(List<EventCodec> codecs, @Value("${events.codec.format:json}") String format) {
+        codecs.forEach(codec -> this.codecs.put(codec.format(), codec));
+        this.writer = forFormat(format);
+        this.writerFormatHeader = new RecordHeader(EventCodec.FORMAT_HEADER, writer.format().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public EventCodec writer() {
+        return writer;
+    }
+
+    /**
+     * The {@link EventCodec#FORMAT_HEADER} of the records written with {@link #writer()}, encoded once and shared by
+     * all of them. Header values are never modified once the record is built.
+     */
+    public Header writerFormatHeader() {
+        return writerFormatHeader;
+    }
+
+    public EventCodec forFormat(String format) {
+        EventCodec codec = codecs.get(format);
+        if (codec == null)
+            throw new IllegalArgumentException("No event codec for format " + format);
+        return codec;
+    }
+}
@@ -0,0 +1,51 @@
+package com.ashishnitw.eventsproducer.codec;
+
+import com.ashishnitw.eventsproducer.model.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+@Component
+public class JsonEventCodec implements EventCodec {
+
+    public static final String FORMAT = "json";
+
+    // bound to Event once, the root serializer / deserializer is not looked up again per record
+    private final ObjectWriter writer;
+
+    private final ObjectReader reader;
+
+    public JsonEventCodec(ObjectMapper objectMapper) {
+        this.writer = objectMapper.writerFor(Event.class);
+        this.reader = objectMapper.readerFor(Event.class);
+    }
+
+    @Override
+    public String format() {
+        return FORMAT;
+    }
+
+    @Override
+    public byte[] encode(Event event) {
+        try {
+            // straight to UTF-8 bytes, no intermediate String. Jackson writes into its thread local recycled
+            // buffers, the only allocation that is kept is the returned array
+            return writer.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new SerializationException("Unable to encode event as json", e);
+        }
+    }
+
+    @Override
+    public Event decode(byte[] payload) {
+        try {
+            return reader.readValue(payload);
+        } catch (IOException e) {
+            throw new SerializationException("Unable to decode json event", e);
+        }
+    }
+}
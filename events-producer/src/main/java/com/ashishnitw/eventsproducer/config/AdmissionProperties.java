@@ -0,0 +1,34 @@
+package com.ashishnitw.eventsproducer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits of the admission control in front of the kafka producer ({@code events.producer.admission}), see
+ * {@link com.ashishnitw.eventsproducer.producer.SendAdmission}.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.producer.admission")
+@Data
+public class AdmissionProperties {
+
+    private boolean enabled = true;
+
+    // upper and lower bound of the adaptive in-flight limit
+    private int maxInFlight = 10000;
+
+    private int minInFlight = 100;
+
+    // a send acknowledged slower than this shrinks the limit, a faster one grows it again
+    private long targetLatencyMs = 500;
+
+    private double backoffRatio = 0.9;
+
+    // how long a request may wait for a free slot before it is rejected, 0 rejects right away
+    private long queueTimeoutMs = 0;
+
+    private int maxQueued = 0;
+
+    private int retryAfterSeconds = 1;
+}
@@ -0,0 +1,24 @@
+package com.ashishnitw.eventsproducer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named producer tuning presets ({@code events.producer.profiles}) and the profile each topic is sent with
+ * ({@code events.producer.topics}). A profile holds plain kafka producer properties that are applied on top of
+ * {@code spring.kafka.producer}.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.producer")
+@Data
+public class ProducerProfileProperties {
+
+    private Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+
+    private Map<String, String> topics = new HashMap<>();
+}
@@ -0,0 +1,49 @@
+package com.ashishnitw.eventsproducer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Local spool for records the cluster could not take ({@code events.spool}), see
+ * {@link com.ashishnitw.eventsproducer.producer.EventSpool}.
+ */
+@Component
+@ConfigurationProperties(prefix = "events.spool")
+@Data
+public class SpoolProperties {
+
+    private boolean enabled = true;
+
+    // one per producer instance, the spool locks it. application.yml scopes it by server.port, set it explicitly
+    // when instances share a port (server.port=0, containers) or to put it on a persistent volume
+    private String dir;
+
+    // every segment file is mapped with this size, max-bytes bounds the sum of all segment files
+    private int segmentBytes = 16 * 1024 * 1024;
+
+    private long maxBytes = 1024L * 1024 * 1024;
+
+    // msync every appended record, without it a record survives a crash of the process but not of the machine
+    private boolean forceOnAppend = true;
+
+    // failed sends waiting for the spool thread, beyond that they are dropped
+    private int queueCapacity = 10000;
+
+    private Replay replay = new Replay();
+
+    @Data
+    public static class Replay {
+
+        private long intervalMs = 5000;
+
+        private int batchSize = 100;
+
+        private int recordsPerSecond = 200;
+
+        // no replay while the live traffic uses more than this share of the admission limit
+        private double maxPressure = 0.5;
+
+        private long sendTimeoutMs = 10000;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ashishnitw.eventsproducer.constant;
+
+public enum AckMode {
+    // respond once the broker acknowledged the write
+    BROKER,
+    // respond as soon as the record is handed to the producer
+    NONE;
+
+    public static AckMode of(String value) {
+        for (AckMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value))
+                return mode;
+        }
+        return null;
+    }
+}
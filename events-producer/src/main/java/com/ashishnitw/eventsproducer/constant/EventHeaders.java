@@ -0,0 +1,13 @@
+package com.ashishnitw.eventsproducer.constant;
+
+public final class EventHeaders {
+
+    /**
+     * Wall clock time, epoch millis as an 8 byte big endian long, at which the producer built the record.
+     * The consumer uses it for the end to end latency, so it is only as accurate as the clock sync of the hosts.
+     */
+    public static final String PRODUCED_AT = "event-produced-at";
+
+    private EventHeaders() {
+    }
+}
@@ -0,0 +1,5 @@
+package com.ashishnitw.eventsproducer.constant;
+
+public enum SendStatus {
+    SENT, INVALID, FAILED, REJECTED, SPOOLED
+}
@@ -1,25 +1,66 @@
 package com.ashishnitw.eventsproducer.controller;
 
+import com.ashishnitw.eventsproducer.constant.AckMode;
 import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.constant.SendStatus;
 import com.ashishnitw.eventsproducer.model.Event;
+import com.ashishnitw.eventsproducer.model.EventResult;
 import com.ashishnitw.eventsproducer.producer.EventProducer;
+import com.ashishnitw.eventsproducer.producer.EventSpooledException;
+import com.ashishnitw.eventsproducer.producer.SendRejectedException;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @RestController
+@Slf4j
 public class EventController {
 
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     @Autowired
     EventProducer eventProducer;
 
+    @Autowired
+    Validator validator;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${events.batch.send-timeout-ms:10000}")
+    long batchSendTimeoutMs;
+
     @PostMapping("/event")
     public ResponseEntity<Event> postEvent(@RequestBody @Valid Event event) throws JsonProcessingException {
 
@@ -41,4 +82,197 @@ public class EventController {
         eventProducer.sendLibraryEvent_Approach2(event);  // Async
         return ResponseEntity.status(HttpStatus.OK).body(event);
     }
+
+    @PostMapping("/event/async")
+    public CompletableFuture<ResponseEntity<?>> postEventAsync(@RequestBody @Valid Event event,
+                                                               @RequestParam(defaultValue = "broker") String ack) throws JsonProcessingException {
+        event.setType(EventType.NEW);
+        return sendAsync(event, ack, HttpStatus.CREATED);
+    }
+
+    @PutMapping("/event/async")
+    public CompletableFuture<ResponseEntity<?>> putEventAsync(@RequestBody @Valid Event event,
+                                                              @RequestParam(defaultValue = "broker") String ack) throws JsonProcessingException {
+        if (event.getId() == null)
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Please pass the event id"));
+        event.setType(EventType.UPDATE);
+        return sendAsync(event, ack, HttpStatus.OK);
+    }
+
+    @PostMapping(value = "/events/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> postEvents(@RequestBody JsonNode body) {
+        if (!body.isArray())
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Please pass an array of events");
+        // bound element by element like the lines of the ndjson variant, an element that cannot be bound is INVALID
+        List<Event> events = new ArrayList<>(body.size());
+        List<String> parseErrors = new ArrayList<>(body.size());
+        for (JsonNode element : body) {
+            try {
+                events.add(objectMapper.treeToValue(element, Event.class));
+                parseErrors.add(null);
+            } catch (JsonProcessingException e) {
+                events.add(null);
+                parseErrors.add(e.getOriginalMessage());
+            }
+        }
+        return sendBatch(events, parseErrors);
+    }
+
+    @PostMapping(value = "/events/batch", consumes = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<List<EventResult>> postEventsNdjson(Reader body) throws IOException {
+        // one event per line, a line that cannot be parsed is reported as INVALID instead of failing the request
+        List<Event> events = new ArrayList<>();
+        List<String> parseErrors = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(body);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            try {
+                events.add(objectMapper.readValue(line, Event.class));
+                parseErrors.add(null);
+            } catch (JsonProcessingException e) {
+                events.add(null);
+                parseErrors.add(e.getOriginalMessage());
+            }
+        }
+        return sendBatch(events, parseErrors);
+    }
+
+    // the events that could not be parsed are null, reported with their parse error
+    private ResponseEntity<List<EventResult>> sendBatch(List<Event> events, List<String> parseErrors) {
+        ResponseEntity<List<EventResult>> response = sendBatch(events);
+        List<EventResult> results = response.getBody();
+        for (int i = 0; i < parseErrors.size(); i++) {
+            if (parseErrors.get(i) != null)
+                results.get(i).setError(parseErrors.get(i));
+        }
+        return ResponseEntity.status(statusOf(results)).headers(response.getHeaders()).body(results);
+    }
+
+    private ResponseEntity<List<EventResult>> sendBatch(List<Event> events) {
+
+        // first pass : validate and hand every event to the producer without waiting for the broker,
+        // with the exactly-once profile all sends of the request are committed in one transaction
+        List<EventResult> results = new ArrayList<>(events.size());
+        List<ListenableFuture<SendResult<Integer, byte[]>>> futures = new ArrayList<>(events.size());
+        AtomicInteger retryAfterSeconds = new AtomicInteger(-1);
+        try {
+            eventProducer.executeInTransaction(() -> {
+                for (int i = 0; i < events.size(); i++) {
+                    Event event = events.get(i);
+                    EventResult result = EventResult.builder().index(i).build();
+                    results.add(result);
+                    futures.add(null);
+
+                    String error = validate(event);
+                    if (error != null) {
+                        result.setStatus(SendStatus.INVALID);
+                        result.setError(error);
+                        continue;
+                    }
+                    try {
+                        futures.set(i, eventProducer.sendLibraryEvent_Approach2(event));
+                    } catch (SendRejectedException e) {
+                        result.setStatus(SendStatus.REJECTED);
+                        result.setError(e.getMessage());
+                        retryAfterSeconds.set(e.getRetryAfterSeconds());
+                    } catch (Exception e) {
+                        result.setStatus(SendStatus.FAILED);
+                        result.setError(e.getMessage());
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // the transaction was aborted, none of the records handed over is visible to read_committed consumers
+            log.error("Batch transaction failed : {}", e.getMessage());
+            for (int i = 0; i < futures.size(); i++) {
+                if (futures.get(i) != null) {
+                    futures.set(i, null);
+                    results.get(i).setStatus(SendStatus.FAILED);
+                    results.get(i).setError("Transaction aborted : " + e.getMessage());
+                }
+            }
+        }
+
+        // second pass : collect the acks, all sends share one deadline
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchSendTimeoutMs);
+        for (int i = 0; i < futures.size(); i++) {
+            ListenableFuture<SendResult<Integer, byte[]>> future = futures.get(i);
+            if (future == null)
+                continue;
+            EventResult result = results.get(i);
+            try {
+                RecordMetadata metadata = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                        .getRecordMetadata();
+                result.setStatus(SendStatus.SENT);
+                result.setPartition(metadata.partition());
+                result.setOffset(metadata.offset());
+            } catch (ExecutionException e) {
+                result.setStatus(e.getCause() instanceof EventSpooledException ? SendStatus.SPOOLED : SendStatus.FAILED);
+                result.setError(e.getCause().getMessage());
+            } catch (TimeoutException e) {
+                result.setStatus(SendStatus.FAILED);
+                result.setError("Timed out waiting for the broker acknowledgement");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.setStatus(SendStatus.FAILED);
+                result.setError("Interrupted while waiting for the broker acknowledgement");
+            }
+        }
+        log.info("Batch of {} events processed, {} sent", results.size(),
+                results.stream().filter(result -> result.getStatus() == SendStatus.SENT).count());
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(statusOf(results));
+        if (retryAfterSeconds.get() >= 0)
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds.get()));
+        return response.body(results);
+    }
+
+    /**
+     * The request thread is released as soon as the record is handed to the producer. With {@code ack=broker} the
+     * response is completed from the send callback, with {@code ack=none} it is completed right away. A record that
+     * went to the spool is answered with {@code 202}.
+     */
+    private CompletableFuture<ResponseEntity<?>> sendAsync(Event event, String ack, HttpStatus status) throws JsonProcessingException {
+        AckMode ackMode = AckMode.of(ack);
+        if (ackMode == null)
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("ack must be one of broker, none"));
+
+        ListenableFuture<SendResult<Integer, byte[]>> future = eventProducer.sendLibraryEvent_Approach2(event);
+        if (ackMode == AckMode.NONE)
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.ACCEPTED).body(event));
+        return future.completable()
+                .<ResponseEntity<?>>thenApply(result -> ResponseEntity.status(status).body(event))
+                .exceptionally(ex -> {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    // not acknowledged yet, but kept and sent once the cluster is back
+                    if (cause instanceof EventSpooledException)
+                        return ResponseEntity.status(HttpStatus.ACCEPTED).body(event);
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Event could not be sent : " + cause.getMessage());
+                });
+    }
+
+    private String validate(Event event) {
+        if (event == null)
+            return "Event could not be parsed";
+        if (event.getType() == null)
+            event.setType(EventType.NEW);
+        if (event.getType() == EventType.UPDATE && event.getId() == null)
+            return "Please pass the event id";
+        Set<ConstraintViolation<Event>> violations = validator.validate(event);
+        if (violations.isEmpty())
+            return null;
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + " - " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    private HttpStatus statusOf(List<EventResult> results) {
+        // a fully shed batch is answered like a single shed event, the caller retries it as a whole
+        if (!results.isEmpty() && results.stream().allMatch(result -> result.getStatus() == SendStatus.REJECTED))
+            return HttpStatus.TOO_MANY_REQUESTS;
+        boolean allSent = results.stream().allMatch(result -> result.getStatus() == SendStatus.SENT);
+        return allSent ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS;
+    }
 }
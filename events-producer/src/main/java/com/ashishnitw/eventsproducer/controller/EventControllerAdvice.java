@@ -1,6 +1,8 @@
 package com.ashishnitw.eventsproducer.controller;
 
+import com.ashishnitw.eventsproducer.producer.SendRejectedException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -24,4 +26,12 @@ public class EventControllerAdvice {
         log.info("Error Message : {}", errorMessage);
         return new ResponseEntity<>(errorMessage, HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(SendRejectedException.class)
+    public ResponseEntity<?> handleSendRejectedException(SendRejectedException ex) {
+        log.warn("Event rejected : {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ex.getMessage());
+    }
 }
@@ -0,0 +1,65 @@
+package com.ashishnitw.eventsproducer.logging;
+
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per record logging of the hot paths, split over two loggers whose levels can be changed at runtime through
+ * {@code /actuator/loggers} :
+ * <ul>
+ *     <li>{@code events.records} : one compact line per acknowledged record (topic, partition, offset, key, latency)
+ *     at INFO, WARN turns the summaries off.</li>
+ *     <li>{@code events.payloads} : the full event, at DEBUG for at most {@code events.logging.payloads-per-second}
+ *     records, at TRACE for every record.</li>
+ * </ul>
+ * Nothing is formatted for a record that is not logged. The consumer has its own copy for the records it processes,
+ * the two applications share no module, with the same loggers, fields and field order.
+ */
+@Component
+public class RecordLogger {
+
+    private static final Logger SUMMARY = LoggerFactory.getLogger("events.records");
+
+    private static final Logger PAYLOAD = LoggerFactory.getLogger("events.payloads");
+
+    private final int payloadsPerSecond;
+
+    private final AtomicLong second = new AtomicLong();
+
+    private final AtomicInteger sampled = new AtomicInteger();
+
+    public RecordLogger(@Value("${events.logging.payloads-per-second:1}") int payloadsPerSecond) {
+        this.payloadsPerSecond = payloadsPerSecond;
+    }
+
+    public void sent(RecordMetadata metadata, Integer key, long latencyNanos) {
+        if (SUMMARY.isInfoEnabled())
+            SUMMARY.info("sent topic={} partition={} offset={} key={} latencyUs={}", metadata.topic(), metadata.partition(),
+                    metadata.offset(), key, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    public void payload(RecordMetadata metadata, Integer key, Object event) {
+        if (PAYLOAD.isTraceEnabled())
+            PAYLOAD.trace("partition={} offset={} key={} event={}", metadata.partition(), metadata.offset(), key, event);
+        else if (PAYLOAD.isDebugEnabled() && sample())
+            PAYLOAD.debug("partition={} offset={} key={} event={}", metadata.partition(), metadata.offset(), key, event);
+    }
+
+    // at most payloads-per-second records per wall clock second, racing threads may let one or two more through
+    private boolean sample() {
+        if (payloadsPerSecond <= 0)
+            return false;
+        long now = System.currentTimeMillis() / 1000;
+        long current = second.get();
+        if (current != now && second.compareAndSet(current, now))
+            sampled.set(0);
+        return sampled.incrementAndGet() <= payloadsPerSecond;
+    }
+}
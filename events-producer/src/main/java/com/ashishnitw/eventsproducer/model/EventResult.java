@@ -0,0 +1,23 @@
+package com.ashishnitw.eventsproducer.model;
+
+import com.ashishnitw.eventsproducer.constant.SendStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of a single element of a batch request, in the same order as the request body.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+public class EventResult {
+
+    private int index;
+    private SendStatus status;
+    private Integer partition;
+    private Long offset;
+    private String error;
+}
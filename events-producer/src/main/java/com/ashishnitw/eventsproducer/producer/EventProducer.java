@@ -1,10 +1,16 @@
 package com.ashishnitw.eventsproducer.producer;
 
+import com.ashishnitw.eventsproducer.codec.EventCodecs;
+import com.ashishnitw.eventsproducer.constant.EventHeaders;
+import com.ashishnitw.eventsproducer.logging.RecordLogger;
 import com.ashishnitw.eventsproducer.model.Event;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,9 +19,9 @@ import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
-import java.util.Arrays;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -24,91 +30,241 @@ import java.util.concurrent.TimeoutException;
 @Slf4j
 public class EventProducer {
 
+    private static final Header EVENT_SOURCE_HEADER = new RecordHeader("event-source", "scanner".getBytes(StandardCharsets.UTF_8));
+
     String topic = "library-events";
 
     @Autowired
-    KafkaTemplate<Integer, String> kafkaTemplate;
+    KafkaTemplate<Integer, byte[]> kafkaTemplate;
+
+    @Autowired
+    EventCodecs eventCodecs;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ProducerProfiles producerProfiles;
+
+    @Autowired
+    SendAdmission sendAdmission;
 
     @Autowired
-    ObjectMapper objectMapper;
+    EventSpool eventSpool;
+
+    @Autowired
+    RecordLogger recordLogger;
 
     // APPROACH 1
     public void sendLibraryEvent(Event event) throws JsonProcessingException {
 
         Integer key = event.getId();
-        String value = objectMapper.writeValueAsString(event);
+        ProducerRecord<Integer, byte[]> producerRecord = buildProducerRecord(key, event, kafkaTemplate.getDefaultTopic());
 
         // Asynchronous Call that returns future object
-        ListenableFuture<SendResult<Integer, String>> listenableFuture = kafkaTemplate.sendDefault(key, value); // sends message to default topic that we mention in application.yml file
-        listenableFuture.addCallback(new ListenableFutureCallback<SendResult<Integer, String>>() {
+        long start = System.nanoTime();
+        ListenableFuture<SendResult<Integer, byte[]>> listenableFuture = send(producerRecord, null); // sends message to default topic that we mention in application.yml file
+        listenableFuture.addCallback(new ListenableFutureCallback<SendResult<Integer, byte[]>>() {
             @Override
             public void onFailure(Throwable ex) {
-                handleFailure(key, value, ex);
+                handleFailure(key, event, producerRecord.topic(), start, ex);
             }
 
             @Override
-            public void onSuccess(SendResult<Integer, String> result) {
-                handleSuccess(key, value, result);
+            public void onSuccess(SendResult<Integer, byte[]> result) {
+                handleSuccess(key, event, start, result);
             }
         });
     }
 
     // APPROACH 2 => to particular topic
-    public ListenableFuture<SendResult<Integer, String>> sendLibraryEvent_Approach2(Event event) throws JsonProcessingException {
+    public ListenableFuture<SendResult<Integer, byte[]>> sendLibraryEvent_Approach2(Event event) throws JsonProcessingException {
+        return sendLibraryEvent_Approach2(event, null);
+    }
+
+    // APPROACH 2 with a named producer profile, null for the profile configured for the topic
+    public ListenableFuture<SendResult<Integer, byte[]>> sendLibraryEvent_Approach2(Event event, String profile) throws JsonProcessingException {
 
         Integer key = event.getId();
-        String value = objectMapper.writeValueAsString(event);
 
-        ProducerRecord<Integer, String> producerRecord = buildProducerRecord(key, value, topic);
+        ProducerRecord<Integer, byte[]> producerRecord = buildProducerRecord(key, event, topic);
 
-        ListenableFuture<SendResult<Integer, String>> listenableFuture = kafkaTemplate.send(producerRecord);
+        long start = System.nanoTime();
+        ListenableFuture<SendResult<Integer, byte[]>> listenableFuture = send(producerRecord, profile);
 
-        listenableFuture.addCallback(new ListenableFutureCallback<SendResult<Integer, String>>() {
+        listenableFuture.addCallback(new ListenableFutureCallback<SendResult<Integer, byte[]>>() {
             @Override
             public void onFailure(Throwable ex) {
-                handleFailure(key, value, ex);
+                handleFailure(key, event, producerRecord.topic(), start, ex);
             }
 
             @Override
-            public void onSuccess(SendResult<Integer, String> result) {
-                handleSuccess(key, value, result);
+            public void onSuccess(SendResult<Integer, byte[]> result) {
+                handleSuccess(key, event, start, result);
             }
         });
 
         return listenableFuture;
     }
 
-    private ProducerRecord<Integer, String> buildProducerRecord(Integer key, String value, String topic) {
+    /**
+     * Runs {@code sends} in one kafka transaction when the template is transactional (exactly-once profile), so
+     * the records are committed together instead of one transaction per send. Otherwise it just runs them.
+     */
+    public void executeInTransaction(Runnable sends) {
+        KafkaTemplate<Integer, byte[]> template = templateFor(topic, null);
+        if (template.isTransactional() && !template.inTransaction()) {
+            template.executeInTransaction(operations -> {
+                sends.run();
+                return null;
+            });
+        } else {
+            sends.run();
+        }
+    }
 
-        // we can add additional info in headers
-        List<Header> recordHeaders = Arrays.asList(new RecordHeader("event-source", "scanner".getBytes()));
+    /**
+     * Sends a record taken from the {@link EventSpool} again. Outside of the admission control and without spooling
+     * it a second time when it fails, the spool keeps it until it was acknowledged.
+     */
+    public ListenableFuture<SendResult<Integer, byte[]>> resend(ProducerRecord<Integer, byte[]> producerRecord) {
+        return doSend(templateFor(producerRecord.topic(), null), producerRecord);
+    }
 
-        return new ProducerRecord<>(topic, null, key, value, recordHeaders);
+    private ListenableFuture<SendResult<Integer, byte[]>> send(ProducerRecord<Integer, byte[]> producerRecord, String profile) {
+        KafkaTemplate<Integer, byte[]> template = templateFor(producerRecord.topic(), profile);
+        // throws SendRejectedException when the producer is overloaded, the slot is given back once the send completes
+        sendAdmission.acquire();
+        // the records of a transaction are not spooled one by one, the caller sees the abort of the whole transaction
+        boolean spoolable = !template.inTransaction();
+        long start = System.nanoTime();
+        ListenableFuture<SendResult<Integer, byte[]>> future;
+        try {
+            future = doSend(template, producerRecord);
+        } catch (RuntimeException e) {
+            // e.g. no metadata or no buffer space within max.block.ms
+            sendAdmission.release(System.nanoTime() - start, false);
+            Throwable failure = spoolable ? spool(producerRecord, e) : e;
+            if (!(failure instanceof EventSpooledException))
+                throw e;
+            SettableListenableFuture<SendResult<Integer, byte[]>> spooled = new SettableListenableFuture<>();
+            spooled.setException(failure);
+            return spooled;
+        }
+        SettableListenableFuture<SendResult<Integer, byte[]>> outcome = new SettableListenableFuture<>();
+        future.addCallback(result -> {
+            sendAdmission.release(System.nanoTime() - start, true);
+            outcome.set(result);
+        }, ex -> {
+            sendAdmission.release(System.nanoTime() - start, false);
+            if (!spoolable || !isRetriable(ex)) {
+                outcome.setException(ex);
+                return;
+            }
+            // called back on the producer's I/O thread, the spool writes the record from its own thread
+            eventSpool.appendAsync(producerRecord)
+                    .whenComplete((spooled, e) -> outcome.setException(spooled(producerRecord, ex, Boolean.TRUE.equals(spooled))));
+        });
+        return outcome;
+    }
+
+    // a record the cluster could not take for a transient reason goes to the spool instead of being lost, the send
+    // then fails with an EventSpooledException. Anything else, or a full spool, keeps the original failure
+    private Throwable spool(ProducerRecord<Integer, byte[]> producerRecord, Throwable ex) {
+        return isRetriable(ex) ? spooled(producerRecord, ex, eventSpool.append(producerRecord)) : ex;
+    }
+
+    private static Throwable spooled(ProducerRecord<Integer, byte[]> producerRecord, Throwable ex, boolean spooled) {
+        if (!spooled)
+            return ex;
+        log.warn("Event with key {} spooled for replay : {}", producerRecord.key(), ex.getMessage());
+        return new EventSpooledException(ex);
+    }
+
+    private static boolean isRetriable(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriableException)
+                return true;
+        }
+        return false;
+    }
+
+    private ListenableFuture<SendResult<Integer, byte[]>> doSend(KafkaTemplate<Integer, byte[]> template, ProducerRecord<Integer, byte[]> producerRecord) {
+        if (template.isTransactional() && !template.inTransaction()) {
+            // a transactional template refuses sends outside a transaction, commit this one on its own
+            return template.executeInTransaction(operations -> operations.send(producerRecord));
+        }
+        return template.send(producerRecord);
+    }
+
+    // a profile given with the send wins over the one of the topic, without either the default template is used
+    private KafkaTemplate<Integer, byte[]> templateFor(String topic, String profile) {
+        String name = profile != null ? profile : producerProfiles.profileForTopic(topic);
+        return name == null ? kafkaTemplate : producerProfiles.template(name);
+    }
+
+    ProducerRecord<Integer, byte[]> buildProducerRecord(Integer key, Event event, String topic) {
+
+        byte[] value = eventCodecs.writer().encode(event);
+
+        // we can add additional info in headers. The constant ones are encoded once and shared by every record,
+        // they are added straight to the headers of the record instead of being copied from a list
+        ProducerRecord<Integer, byte[]> producerRecord = new ProducerRecord<>(topic, key, value);
+        producerRecord.headers()
+                .add(EVENT_SOURCE_HEADER)
+                .add(eventCodecs.writerFormatHeader())
+                .add(new RecordHeader(EventHeaders.PRODUCED_AT, encodeLong(System.currentTimeMillis())));
+        return producerRecord;
+    }
+
+    // big endian, what ByteBuffer.putLong writes, without the ByteBuffer
+    private static byte[] encodeLong(long value) {
+        byte[] bytes = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
     }
 
 
     // APPROACH 3 => ASYNCHRONOUS
-    public SendResult<Integer, String> sendLibraryEventSynchronous(Event event) throws JsonProcessingException, ExecutionException, InterruptedException, TimeoutException {
+    public SendResult<Integer, byte[]> sendLibraryEventSynchronous(Event event) throws JsonProcessingException, ExecutionException, InterruptedException, TimeoutException {
 
         Integer key = event.getId();
-        String value = objectMapper.writeValueAsString(event);
-        SendResult<Integer, String> sendResult = null;
+        ProducerRecord<Integer, byte[]> producerRecord = buildProducerRecord(key, event, kafkaTemplate.getDefaultTopic());
+        SendResult<Integer, byte[]> sendResult = null;
+        long start = System.nanoTime();
         try {
             // Asynchronous call => .get() waits for the result
-            //sendResult = kafkaTemplate.sendDefault(key, value).get();
-            sendResult = kafkaTemplate.sendDefault(key, value).get(1, TimeUnit.SECONDS); // with timeout
-        } catch (ExecutionException | InterruptedException e) {
-            log.error("ExecutionException/InterruptedException Sending the Message and the exception is {}", e.getMessage());
+            //sendResult = kafkaTemplate.send(producerRecord).get();
+            sendResult = send(producerRecord, null).get(1, TimeUnit.SECONDS); // with timeout
+        } catch (ExecutionException e) {
+            // not acknowledged yet, but kept and sent once the cluster is back, tagged like the asynchronous sends
+            if (e.getCause() instanceof EventSpooledException) {
+                log.warn("Event spooled, the broker did not acknowledge it : {}", e.getCause().getMessage());
+                recordSend(producerRecord.topic(), null, "spooled", start);
+                throw e;
+            }
+            log.error("ExecutionException Sending the Message and the exception is {}", e.getMessage());
+            recordSend(producerRecord.topic(), null, "failure", start);
+            throw e;
+        } catch (InterruptedException e) {
+            log.error("InterruptedException Sending the Message and the exception is {}", e.getMessage());
+            recordSend(producerRecord.topic(), null, "failure", start);
             throw e;
         } catch (Exception e) {
             log.error("Exception Sending the Message and the exception is {}", e.getMessage());
+            recordSend(producerRecord.topic(), null, "failure", start);
             throw e;
         }
-        System.out.println("Message Sent SuccessFully: " + sendResult);
+        recordSend(producerRecord.topic(), sendResult.getRecordMetadata().partition(), "success", start);
+        logSent(key, event, start, sendResult);
         return sendResult;
     }
 
-    private void handleFailure(Integer key, String value, Throwable ex) {
+    private void handleFailure(Integer key, Event event, String topic, long start, Throwable ex) {
+        recordSend(topic, null, ex instanceof EventSpooledException ? "spooled" : "failure", start);
         log.error("Error Sending the Message and the exception is {}", ex.getMessage());
         try {
             throw ex;
@@ -117,7 +273,28 @@ public class EventProducer {
         }
     }
 
-    private void handleSuccess(Integer key, String value, SendResult<Integer, String> result) {
-        log.info("Message Sent SuccessFully for the key : {} and the value is {} , partition is {}", key, value, result.getRecordMetadata().partition());
+    private void handleSuccess(Integer key, Event event, long start, SendResult<Integer, byte[]> result) {
+        recordSend(result.getRecordMetadata().topic(), result.getRecordMetadata().partition(), "success", start);
+        logSent(key, event, start, result);
+    }
+
+    private void logSent(Integer key, Event event, long start, SendResult<Integer, byte[]> result) {
+        RecordMetadata metadata = result.getRecordMetadata();
+        recordLogger.sent(metadata, key, System.nanoTime() - start);
+        recordLogger.payload(metadata, key, event);
+    }
+
+    /**
+     * Time from handing the record to the template until the broker acknowledged it (or the send failed).
+     * A failed send has no partition assigned, it is tagged as {@code none}.
+     */
+    private void recordSend(String topic, Integer partition, String outcome, long start) {
+        Timer.builder("events.producer.send")
+                .description("Time until the broker acknowledged the record")
+                .tag("topic", topic)
+                .tag("partition", partition == null ? "none" : String.valueOf(partition))
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
 }
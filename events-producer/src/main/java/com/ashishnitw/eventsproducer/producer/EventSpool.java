@@ -0,0 +1,458 @@
+package com.ashishnitw.eventsproducer.producer;
+
+import com.ashishnitw.eventsproducer.config.SpoolProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local spool for records the cluster could not take. Records are appended to memory mapped segment files
+ * ({@code spool-<sequence>.seg}, {@code segment-bytes} each) and read back in the order they were written.
+ * <p>
+ * Every entry is {@code int length, int crc32, body}. The length is written last, so an entry torn by a crash reads
+ * as the end of the segment, and the crc catches pages that did not reach the disk. On startup the segments are
+ * scanned and the spool continues after the last intact entry. The read position is kept in {@code spool.checkpoint}
+ * and only advanced after the replayed records were acknowledged, so a record is replayed at least once. Fully
+ * replayed segments are deleted, and no new segment is created once {@code max-bytes} would be exceeded.
+ * <p>
+ * Failed sends come back on the producer's I/O thread, {@link #appendAsync} writes them from a thread of the spool
+ * instead, so an msync never holds up the sends of the other records. At most {@code queue-capacity} records wait
+ * for it, beyond that they are dropped.
+ */
+@Component
+@Slf4j
+public class EventSpool {
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT = "spool.checkpoint";
+    private static final String LOCK = "spool.lock";
+
+    // length and crc in front of every entry
+    private static final int ENTRY_HEADER = 2 * Integer.BYTES;
+
+    private final SpoolProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private Path directory;
+
+    private FileChannel lockChannel;
+
+    private FileLock lock;
+
+    private long readSegment;
+
+    private int readPosition;
+
+    private long pending;
+
+    private Counter appended;
+
+    private Counter replayed;
+
+    private Counter dropped;
+
+    private ThreadPoolExecutor appender;
+
+    public EventSpool(SpoolProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isEnabled())
+            return;
+        if (properties.getSegmentBytes() < 1024 || properties.getMaxBytes() < properties.getSegmentBytes())
+            throw new IllegalStateException("events.spool.segment-bytes must be at least 1024 and not above events.spool.max-bytes");
+        if (!StringUtils.hasText(properties.getDir()))
+            throw new IllegalStateException("events.spool.dir must be set when the spool is enabled");
+
+        directory = Files.createDirectories(Paths.get(properties.getDir()));
+        lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Spool directory " + directory + " is used by another producer");
+        }
+        recover();
+        appender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(properties.getQueueCapacity()),
+                new CustomizableThreadFactory("event-spool-"));
+
+        appended = Counter.builder("events.spool.appended").description("Records written to the spool").register(meterRegistry);
+        replayed = Counter.builder("events.spool.replayed").description("Spooled records acknowledged by the broker").register(meterRegistry);
+        dropped = Counter.builder("events.spool.dropped").description("Records that could not be spooled and are lost").register(meterRegistry);
+        Gauge.builder("events.spool.pending", this, EventSpool::pending).description("Records waiting for replay").register(meterRegistry);
+        Gauge.builder("events.spool.bytes", this, EventSpool::bytes).description("Size of the segment files").baseUnit("bytes").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        if (appender != null) {
+            // the records still queued are written before the segments are closed
+            appender.shutdown();
+            if (!appender.awaitTermination(properties.getReplay().getSendTimeoutMs(), TimeUnit.MILLISECONDS))
+                log.warn("Spool closed with {} records not written", appender.shutdownNow().size());
+        }
+        synchronized (this) {
+            if (lock == null)
+                return;
+            segments.values().forEach(segment -> segment.buffer.force());
+            segments.clear();
+            lock.release();
+            lockChannel.close();
+            lock = null;
+        }
+    }
+
+    /**
+     * Appends the record from the thread of the spool, see {@link #append}.
+     *
+     * @return completes with false when the record is lost, also when too many records wait to be spooled
+     */
+    public CompletableFuture<Boolean> appendAsync(ProducerRecord<Integer, byte[]> record) {
+        if (appender == null)
+            return CompletableFuture.completedFuture(false);
+        try {
+            return CompletableFuture.supplyAsync(() -> append(record), appender);
+        } catch (RejectedExecutionException e) {
+            log.error("{} records wait to be spooled, record for topic {} dropped", appender.getQueue().size(), record.topic());
+            dropped.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Appends the record after all records spooled so far.
+     *
+     * @return false when the spool is disabled, full or cannot be written, the record is lost then
+     */
+    public synchronized boolean append(ProducerRecord<Integer, byte[]> record) {
+        if (lock == null)
+            return false;
+        try {
+            byte[] body = encode(record);
+            Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (segment == null || segment.writePosition + ENTRY_HEADER + body.length > segment.buffer.capacity()) {
+                if (ENTRY_HEADER + body.length > properties.getSegmentBytes()) {
+                    log.error("Record of {} bytes does not fit into a spool segment, dropped", body.length);
+                    dropped.increment();
+                    return false;
+                }
+                if (bytes() + properties.getSegmentBytes() > properties.getMaxBytes()) {
+                    log.error("Spool is full ({} bytes), record for topic {} dropped", bytes(), record.topic());
+                    dropped.increment();
+                    return false;
+                }
+                segment = createSegment(segment == null ? readSegment : segments.lastKey() + 1);
+            }
+
+            int position = segment.writePosition;
+            ByteBuffer buffer = segment.buffer;
+            buffer.putInt(position + Integer.BYTES, crc(ByteBuffer.wrap(body)));
+            view(buffer, position + ENTRY_HEADER, body.length).put(body);
+            // the length goes last, until then the entry reads as the end of the segment
+            buffer.putInt(position, body.length);
+            if (properties.isForceOnAppend())
+                segment.buffer.force();
+            segment.writePosition = position + ENTRY_HEADER + body.length;
+            pending++;
+            appended.increment();
+            return true;
+        } catch (IOException e) {
+            log.error("Unable to spool record for topic {} : {}", record.topic(), e.getMessage());
+            dropped.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Up to {@code max} of the oldest spooled records, without removing them.
+     */
+    public synchronized List<ProducerRecord<Integer, byte[]>> peek(int max) {
+        List<ProducerRecord<Integer, byte[]>> records = new ArrayList<>();
+        Position position = new Position(readSegment, readPosition);
+        while (records.size() < max && position.advance()) {
+            Segment segment = segments.get(position.segment);
+            records.add(decode(segment.buffer, position.offset));
+            position.offset += ENTRY_HEADER + segment.buffer.getInt(position.offset);
+        }
+        return records;
+    }
+
+    /**
+     * Removes the {@code count} oldest records once they were acknowledged and deletes the segments that were
+     * fully replayed.
+     */
+    public synchronized void commit(int count) throws IOException {
+        if (count <= 0)
+            return;
+        Position position = new Position(readSegment, readPosition);
+        for (int i = 0; i < count && position.advance(); i++) {
+            Segment segment = segments.get(position.segment);
+            position.offset += ENTRY_HEADER + segment.buffer.getInt(position.offset);
+            pending--;
+            replayed.increment();
+        }
+        position.advance();
+        readSegment = position.segment;
+        readPosition = position.offset;
+
+        // a drained last segment is deleted as well, the next append starts a new one
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last != null && readSegment == segments.lastKey() && readPosition >= last.writePosition) {
+            readSegment++;
+            readPosition = 0;
+        }
+        while (!segments.isEmpty() && segments.firstKey() < readSegment)
+            deleteSegment(segments.pollFirstEntry());
+        writeCheckpoint();
+    }
+
+    public synchronized long pending() {
+        return pending;
+    }
+
+    public synchronized long bytes() {
+        return segments.values().stream().mapToLong(segment -> segment.buffer.capacity()).sum();
+    }
+
+    private void recover() throws IOException {
+        long[] checkpoint = readCheckpoint();
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        readSegment = checkpoint != null ? checkpoint[0] : files.isEmpty() ? 0 : files.firstKey();
+        readPosition = checkpoint != null ? (int) checkpoint[1] : 0;
+
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            if (file.getKey() < readSegment) {
+                // replayed before the crash, the delete did not happen anymore
+                Files.deleteIfExists(file.getValue());
+                continue;
+            }
+            Segment segment = mapSegment(file.getValue(), 0);
+            int position = 0;
+            int next;
+            while ((next = next(segment.buffer, position)) != -1) {
+                if (file.getKey() > readSegment || position >= readPosition)
+                    pending++;
+                position = next;
+            }
+            segment.writePosition = position;
+            if (position + Integer.BYTES <= segment.buffer.capacity() && segment.buffer.getInt(position) != 0) {
+                log.warn("Discarding torn spool entry at {} of {}", position, file.getValue());
+                for (int i = position; i < segment.buffer.capacity(); i++)
+                    segment.buffer.put(i, (byte) 0);
+                segment.buffer.force();
+            }
+            segments.put(file.getKey(), segment);
+        }
+        Segment first = segments.get(readSegment);
+        if (first != null && readPosition > first.writePosition)
+            readPosition = first.writePosition;
+        if (pending > 0)
+            log.info("Recovered {} spooled records from {}", pending, directory);
+    }
+
+    // position after the intact entry at position, -1 when there is none
+    private static int next(MappedByteBuffer buffer, int position) {
+        if (position + ENTRY_HEADER > buffer.capacity())
+            return -1;
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.capacity() - position - ENTRY_HEADER)
+            return -1;
+        return crc(view(buffer, position + ENTRY_HEADER, length)) == buffer.getInt(position + Integer.BYTES) ? position + ENTRY_HEADER + length : -1;
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = mapSegment(file, properties.getSegmentBytes());
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    private Segment mapSegment(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // an existing segment keeps its size, even when segment-bytes was changed since
+            long length = channel.size() > 0 ? channel.size() : size;
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+        }
+    }
+
+    private void deleteSegment(Map.Entry<Long, Segment> segment) {
+        try {
+            Files.deleteIfExists(segment.getValue().file);
+        } catch (IOException e) {
+            log.warn("Unable to delete replayed spool segment {} : {}", segment.getValue().file, e.getMessage());
+        }
+    }
+
+    private long[] readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file))
+            return null;
+        String[] parts = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(" ");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        Files.write(temporary, (readSegment + " " + readPosition).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // through Buffer, the ByteBuffer overloads of position and limit only exist from java 9 on
+    private static ByteBuffer view(ByteBuffer buffer, int position, int length) {
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).limit(position + length);
+        ((Buffer) view).position(position);
+        return view;
+    }
+
+    private static int crc(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    // topic, key, value and headers, the timestamp is assigned again when the record is replayed
+    private static byte[] encode(ProducerRecord<Integer, byte[]> record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + (record.value() != null ? record.value().length : 0));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(record.topic());
+        out.writeBoolean(record.key() != null);
+        if (record.key() != null)
+            out.writeInt(record.key());
+        writeBytes(out, record.value());
+        Header[] headers = record.headers().toArray();
+        out.writeShort(headers.length);
+        for (Header header : headers) {
+            out.writeUTF(header.key());
+            writeBytes(out, header.value());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ProducerRecord<Integer, byte[]> decode(MappedByteBuffer buffer, int position) {
+        byte[] body = new byte[buffer.getInt(position)];
+        view(buffer, position + ENTRY_HEADER, body.length).get(body);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            String topic = in.readUTF();
+            Integer key = in.readBoolean() ? in.readInt() : null;
+            ProducerRecord<Integer, byte[]> record = new ProducerRecord<>(topic, key, readBytes(in));
+            int headers = in.readShort();
+            for (int i = 0; i < headers; i++)
+                record.headers().add(in.readUTF(), readBytes(in));
+            return record;
+        } catch (IOException e) {
+            // the crc matched, the entry was written by an incompatible version
+            throw new IllegalStateException("Unreadable spool entry at " + position, e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value == null ? -1 : value.length);
+        if (value != null)
+            out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private static class Segment {
+
+        final Path file;
+
+        final MappedByteBuffer buffer;
+
+        int writePosition;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    // walks the entries from the read position, moving on to the next segment at the end of one
+    private class Position {
+
+        long segment;
+
+        int offset;
+
+        Position(long segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        // true when there is an entry at the position
+        boolean advance() {
+            while (true) {
+                Segment current = segments.get(segment);
+                if (current != null && offset < current.writePosition)
+                    return true;
+                Long next = segments.higherKey(segment);
+                if (next == null)
+                    return false;
+                segment = next;
+                offset = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.ashishnitw.eventsproducer.producer;
+
+/**
+ * Completes the future of a send the cluster could not take when the record was written to the {@link EventSpool}
+ * instead. The record is not lost, it is sent again once the cluster is back.
+ */
+public class EventSpooledException extends RuntimeException {
+
+    public EventSpooledException(Throwable cause) {
+        super("Event spooled for replay : " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,77 @@
+package com.ashishnitw.eventsproducer.producer;
+
+import com.ashishnitw.eventsproducer.config.ProducerProfileProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.IntegerSerializer;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One {@link KafkaTemplate} per producer profile, each with its own producer so the batching and compression
+ * settings of one profile do not affect the others.
+ */
+@Component
+@Slf4j
+public class ProducerProfiles {
+
+    private final Map<String, DefaultKafkaProducerFactory<Integer, byte[]>> factories = new LinkedHashMap<>();
+
+    private final Map<String, KafkaTemplate<Integer, byte[]>> templates = new LinkedHashMap<>();
+
+    private final Map<String, String> topics;
+
+    public ProducerProfiles(KafkaProperties kafkaProperties, ProducerProfileProperties producerProfileProperties) {
+        this.topics = producerProfileProperties.getTopics();
+        String transactionIdPrefix = kafkaProperties.getProducer().getTransactionIdPrefix();
+        producerProfileProperties.getProfiles().forEach((name, overrides) -> {
+            Map<String, Object> configs = new LinkedHashMap<>(kafkaProperties.buildProducerProperties());
+            // the templates are typed, whatever spring.kafka.producer says
+            configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, IntegerSerializer.class);
+            configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+            configs.putAll(overrides);
+            configs.put(ProducerConfig.CLIENT_ID_CONFIG, "library-events-producer-" + name);
+
+            DefaultKafkaProducerFactory<Integer, byte[]> factory = new DefaultKafkaProducerFactory<>(configs);
+            if (transactionIdPrefix != null)
+                factory.setTransactionIdPrefix(transactionIdPrefix + name + "-");
+            KafkaTemplate<Integer, byte[]> template = new KafkaTemplate<>(factory);
+            template.setDefaultTopic(kafkaProperties.getTemplate().getDefaultTopic());
+            factories.put(name, factory);
+            templates.put(name, template);
+            log.info("Producer profile {} : {}", name, overrides);
+        });
+        topics.forEach((topic, profile) -> template(profile));
+    }
+
+    public Set<String> names() {
+        return templates.keySet();
+    }
+
+    /**
+     * The profile configured for {@code topic}, null when sends to it use {@code spring.kafka.producer} as is.
+     */
+    public String profileForTopic(String topic) {
+        return topics.get(topic);
+    }
+
+    public KafkaTemplate<Integer, byte[]> template(String profile) {
+        KafkaTemplate<Integer, byte[]> template = templates.get(profile);
+        if (template == null)
+            throw new IllegalArgumentException("Unknown producer profile " + profile + ", expected one of " + templates.keySet());
+        return template;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        factories.values().forEach(DefaultKafkaProducerFactory::destroy);
+    }
+}
@@ -0,0 +1,151 @@
+package com.ashishnitw.eventsproducer.producer;
+
+import com.ashishnitw.eventsproducer.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for the sends of {@link EventProducer}. Every record holds a slot from the moment it is handed
+ * to the template until the broker acknowledged it or the send failed. The number of slots adapts to the send
+ * latency (AIMD) : a send slower than {@code target-latency-ms}, or a failed one, shrinks the limit by
+ * {@code backoff-ratio}, a faster one grows it by one, always between {@code min-in-flight} and
+ * {@code max-in-flight}. Once the limit is reached a send waits up to {@code queue-timeout-ms} for a free slot and is
+ * then rejected with a {@link SendRejectedException}, so a slow cluster shows up as fast 429s instead of requests
+ * piling up in {@code buffer.memory}.
+ */
+@Component
+public class SendAdmission {
+
+    private final AdmissionProperties properties;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private final Counter rejected;
+
+    private volatile double limit;
+
+    // exponentially weighted send latency, only for the metrics
+    private volatile double latencyMs;
+
+    public SendAdmission(AdmissionProperties properties, MeterRegistry meterRegistry) {
+        if (properties.getMinInFlight() < 1 || properties.getMinInFlight() > properties.getMaxInFlight())
+            throw new IllegalStateException("events.producer.admission.min-in-flight must be between 1 and max-in-flight");
+        this.properties = properties;
+        this.limit = properties.getMaxInFlight();
+
+        Gauge.builder("events.producer.admission.in-flight", inFlight, AtomicInteger::get)
+                .description("Sends handed to the producer and not acknowledged yet").register(meterRegistry);
+        Gauge.builder("events.producer.admission.queued", queued, AtomicInteger::get)
+                .description("Sends waiting for a free slot").register(meterRegistry);
+        Gauge.builder("events.producer.admission.limit", this, SendAdmission::limit)
+                .description("Current adaptive in-flight limit").register(meterRegistry);
+        Gauge.builder("events.producer.admission.max-in-flight", properties, AdmissionProperties::getMaxInFlight)
+                .description("Configured upper bound of the in-flight limit").register(meterRegistry);
+        Gauge.builder("events.producer.admission.pressure", this, SendAdmission::pressure)
+                .description("In-flight sends relative to the current limit, 1 and above sheds load").register(meterRegistry);
+        Gauge.builder("events.producer.admission.latency", this, admission -> admission.latencyMs)
+                .description("Weighted send latency in ms").baseUnit("milliseconds").register(meterRegistry);
+        Gauge.builder("events.producer.admission.target-latency", properties, AdmissionProperties::getTargetLatencyMs)
+                .description("Send latency above which the limit shrinks").baseUnit("milliseconds").register(meterRegistry);
+        this.rejected = Counter.builder("events.producer.admission.rejected")
+                .description("Sends rejected because the producer is overloaded").register(meterRegistry);
+    }
+
+    /**
+     * Takes a slot for one send, waiting up to {@code queue-timeout-ms} for one to be released.
+     *
+     * @throws SendRejectedException when no slot is free
+     */
+    public void acquire() {
+        if (!properties.isEnabled() || tryAcquire() || awaitSlot())
+            return;
+        rejected.increment();
+        throw new SendRejectedException("Producer is overloaded, " + inFlight.get() + " sends in flight",
+                properties.getRetryAfterSeconds());
+    }
+
+    /**
+     * Gives the slot of a finished send back and adapts the limit to how long it took.
+     */
+    public void release(long latencyNanos, boolean success) {
+        if (!properties.isEnabled())
+            return;
+        double millis = latencyNanos / 1_000_000.0;
+        synchronized (this) {
+            latencyMs = latencyMs == 0 ? millis : latencyMs * 0.9 + millis * 0.1;
+            if (!success || millis > properties.getTargetLatencyMs())
+                limit = Math.max(properties.getMinInFlight(), limit * properties.getBackoffRatio());
+            else if (limit < properties.getMaxInFlight())
+                limit = Math.min(properties.getMaxInFlight(), limit + 1);
+        }
+        inFlight.decrementAndGet();
+        if (queued.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public double limit() {
+        return limit;
+    }
+
+    public double pressure() {
+        return inFlight.get() / limit;
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= (int) limit)
+                return false;
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private boolean awaitSlot() {
+        if (properties.getQueueTimeoutMs() <= 0)
+            return false;
+        if (queued.incrementAndGet() > properties.getMaxQueued()) {
+            queued.decrementAndGet();
+            return false;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(properties.getQueueTimeoutMs());
+        lock.lock();
+        try {
+            while (!tryAcquire()) {
+                if (remaining <= 0)
+                    return false;
+                remaining = released.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+            queued.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.ashishnitw.eventsproducer.producer;
+
+/**
+ * Thrown instead of handing a record to the producer when {@link SendAdmission} sheds load. Answered with a
+ * {@code 429} and a {@code Retry-After} header.
+ */
+public class SendRejectedException extends RuntimeException {
+
+    private final int retryAfterSeconds;
+
+    public SendRejectedException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
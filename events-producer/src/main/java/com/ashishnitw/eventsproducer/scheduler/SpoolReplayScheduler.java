@@ -0,0 +1,102 @@
+package com.ashishnitw.eventsproducer.scheduler;
+
+import com.ashishnitw.eventsproducer.config.SpoolProperties;
+import com.ashishnitw.eventsproducer.producer.EventProducer;
+import com.ashishnitw.eventsproducer.producer.EventSpool;
+import com.ashishnitw.eventsproducer.producer.SendAdmission;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends the spooled records again in the order they were spooled. The replay is paced to
+ * {@code events.spool.replay.records-per-second} and pauses while the live traffic is under pressure, so a drained
+ * outage does not compete with new requests. A run stops at the first record that still cannot be sent.
+ */
+@Component
+@Slf4j
+public class SpoolReplayScheduler {
+
+    @Autowired
+    EventSpool eventSpool;
+
+    @Autowired
+    EventProducer eventProducer;
+
+    @Autowired
+    SendAdmission sendAdmission;
+
+    @Autowired
+    SpoolProperties spoolProperties;
+
+    @Scheduled(fixedDelayString = "${events.spool.replay.interval-ms:5000}")
+    public void replaySpooledEvents() {
+        SpoolProperties.Replay replay = spoolProperties.getReplay();
+        int total = 0;
+        while (eventSpool.pending() > 0 && sendAdmission.pressure() < replay.getMaxPressure()) {
+            List<ProducerRecord<Integer, byte[]>> records = eventSpool.peek(replay.getBatchSize());
+            if (records.isEmpty())
+                break;
+            int acknowledged = replay(records, replay);
+            try {
+                eventSpool.commit(acknowledged);
+            } catch (IOException e) {
+                // the records are sent once more after a restart
+                log.error("Unable to write the spool checkpoint : {}", e.getMessage());
+            }
+            total += acknowledged;
+            if (acknowledged < records.size())
+                break;
+        }
+        if (total > 0)
+            log.info("Replayed {} spooled records, {} pending", total, eventSpool.pending());
+    }
+
+    // number of records from the start of the list that were acknowledged
+    private int replay(List<ProducerRecord<Integer, byte[]>> records, SpoolProperties.Replay replay) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, replay.getRecordsPerSecond());
+        List<ListenableFuture<SendResult<Integer, byte[]>>> futures = new ArrayList<>(records.size());
+        long next = System.nanoTime();
+        try {
+            for (ProducerRecord<Integer, byte[]> record : records) {
+                long wait = next - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                next = Math.max(next, System.nanoTime()) + interval;
+                futures.add(eventProducer.resend(record));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Replay of spooled records interrupted : {}", e.getMessage());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replay.getSendTimeoutMs());
+        int acknowledged = 0;
+        for (ListenableFuture<SendResult<Integer, byte[]>> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                acknowledged++;
+            } catch (ExecutionException | TimeoutException e) {
+                // the records after this one may have been sent, they are sent again with it (at least once)
+                log.warn("Replay of spooled records stopped : {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return acknowledged;
+    }
+}
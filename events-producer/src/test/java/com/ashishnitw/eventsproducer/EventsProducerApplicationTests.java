@@ -1,11 +1,24 @@
 package com.ashishnitw.eventsproducer;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
 
 @SpringBootTest
 class EventsProducerApplicationTests {
 
+	@TempDir
+	static Path spoolDir;
+
+	@DynamicPropertySource
+	static void spoolProperties(DynamicPropertyRegistry registry) {
+		registry.add("events.spool.dir", spoolDir::toString);
+	}
+
 	@Test
 	void contextLoads() {
 	}
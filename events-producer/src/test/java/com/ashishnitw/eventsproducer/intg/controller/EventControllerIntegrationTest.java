@@ -8,6 +8,7 @@ import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.common.serialization.IntegerDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
@@ -16,8 +17,11 @@ import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.test.EmbeddedKafkaBroker;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.context.TestPropertySource;
 
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,6 +35,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 })
 public class EventControllerIntegrationTest {
 
+    // a fresh spool per run, records spooled by a previous run are not replayed into this one
+    @TempDir
+    static Path spoolDir;
+
+    @DynamicPropertySource
+    static void spoolProperties(DynamicPropertyRegistry registry) {
+        registry.add("events.spool.dir", spoolDir::toString);
+    }
+
     @Autowired
     TestRestTemplate testRestTemplate;
 
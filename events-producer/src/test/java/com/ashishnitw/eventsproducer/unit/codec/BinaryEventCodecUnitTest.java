@@ -0,0 +1,69 @@
+package com.ashishnitw.eventsproducer.unit.codec;
+
+import com.ashishnitw.eventsproducer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsproducer.codec.JsonEventCodec;
+import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.model.Book;
+import com.ashishnitw.eventsproducer.model.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryEventCodecUnitTest {
+
+    BinaryEventCodec codec = new BinaryEventCodec();
+
+    @Test
+    void roundTrip() {
+        Event event = Event.builder().id(123456).type(EventType.UPDATE)
+                .book(Book.builder().id(-7).name("Kafka Bücher").build()).build();
+
+        assertEquals(event, codec.decode(codec.encode(event)));
+    }
+
+    @Test
+    void roundTrip_nullFields() {
+        Event event = Event.builder().id(null).type(EventType.NEW).book(Book.builder().id(1).name(null).build()).build();
+        Event noBook = Event.builder().id(1).type(null).book(null).build();
+
+        assertEquals(event, codec.decode(codec.encode(event)));
+        assertEquals(noBook, codec.decode(codec.encode(noBook)));
+    }
+
+    @Test
+    void encode_nameBytesMatchStringGetBytes() {
+        // 1, 2, 3 and 4 byte characters plus an unpaired surrogate, which String#getBytes replaces with '?'
+        for (String name : new String[]{"Kafka", "Kafka Bücher", "カフカ", "Kafka \uD83D\uDCDA", "broken \uD83D end", "\uDCDA"}) {
+            Event event = Event.builder().type(EventType.NEW).book(Book.builder().name(name).build()).build();
+            byte[] payload = codec.encode(event);
+            byte[] expected = name.getBytes(StandardCharsets.UTF_8);
+
+            assertArrayEquals(expected, Arrays.copyOfRange(payload, payload.length - expected.length, payload.length), name);
+            assertEquals(new String(expected, StandardCharsets.UTF_8), codec.decode(payload).getBook().getName());
+        }
+    }
+
+    @Test
+    void smallerThanJson() {
+        Event event = Event.builder().id(12).type(EventType.UPDATE).book(Book.builder().id(1).name("Kafka Book").build()).build();
+
+        byte[] json = new JsonEventCodec(new ObjectMapper()).encode(event);
+
+        assertTrue(codec.encode(event).length * 3 < json.length);
+    }
+
+    @Test
+    void decode_truncatedPayload() {
+        Event event = Event.builder().id(12).type(EventType.UPDATE).book(Book.builder().id(1).name("Kafka Book").build()).build();
+        byte[] payload = codec.encode(event);
+        byte[] truncated = new byte[payload.length - 3];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+
+        assertThrows(SerializationException.class, () -> codec.decode(truncated));
+    }
+}
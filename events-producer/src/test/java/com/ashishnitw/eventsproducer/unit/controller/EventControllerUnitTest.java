@@ -5,18 +5,32 @@ import com.ashishnitw.eventsproducer.controller.EventController;
 import com.ashishnitw.eventsproducer.model.Book;
 import com.ashishnitw.eventsproducer.model.Event;
 import com.ashishnitw.eventsproducer.producer.EventProducer;
+import com.ashishnitw.eventsproducer.producer.EventSpooledException;
+import com.ashishnitw.eventsproducer.producer.SendRejectedException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 @WebMvcTest(EventController.class)
@@ -31,6 +45,14 @@ public class EventControllerUnitTest {
 
     ObjectMapper objectMapper = new ObjectMapper();
 
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(eventProducer).executeInTransaction(any(Runnable.class));
+    }
+
     @Test
     void postEvent() throws Exception {
         Book book = Book.builder().id(1).name("Kafka Book").build();
@@ -91,4 +113,152 @@ public class EventControllerUnitTest {
                 .andExpect(MockMvcResultMatchers.content().string("Please pass the event id"));
     }
 
+    @Test
+    void postEventAsync_brokerAck() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(null).book(book).build();
+
+        SettableListenableFuture<SendResult<Integer, byte[]>> future = new SettableListenableFuture<>();
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class))).thenReturn(future);
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.post("/event/async")
+                .content(objectMapper.writeValueAsString(event))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        future.setException(new RuntimeException("broker unavailable"));
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(mvcResult))
+                .andExpect(MockMvcResultMatchers.status().isServiceUnavailable())
+                .andExpect(MockMvcResultMatchers.content().string("Event could not be sent : broker unavailable"));
+    }
+
+    @Test
+    void postEventAsync_spooled() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(null).book(book).build();
+
+        SettableListenableFuture<SendResult<Integer, byte[]>> future = new SettableListenableFuture<>();
+        future.setException(new EventSpooledException(new RuntimeException("broker unavailable")));
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class))).thenReturn(future);
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.post("/event/async")
+                .content(objectMapper.writeValueAsString(event))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(mvcResult))
+                .andExpect(MockMvcResultMatchers.status().isAccepted());
+    }
+
+    @Test
+    void postEventAsync_fireAndForget() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(null).book(book).build();
+
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class))).thenReturn(new SettableListenableFuture<>());
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.post("/event/async?ack=none")
+                .content(objectMapper.writeValueAsString(event))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(mvcResult))
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.type").value("NEW"));
+    }
+
+    @Test
+    void postEvents() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event valid = Event.builder().id(null).book(book).build();
+        Event invalid = Event.builder().id(null).book(Book.builder().id(null).name("").build()).build();
+
+        String json = objectMapper.writeValueAsString(Arrays.asList(valid, invalid));
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class))).thenReturn(sentFuture(2, 42L));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
+                .content(json)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isMultiStatus())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value("SENT"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].partition").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].offset").value(42))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value("INVALID"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].error").value("book.id - must not be null, book.name - must not be blank"));
+    }
+
+    @Test
+    void postEvents_unreadableElement() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event valid = Event.builder().id(null).book(book).build();
+
+        String json = "[" + objectMapper.writeValueAsString(valid) + ", {\"id\": \"not a number\"}]";
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class))).thenReturn(sentFuture(2, 42L));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
+                .content(json)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isMultiStatus())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value("SENT"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value("INVALID"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].error").isNotEmpty());
+    }
+
+    @Test
+    void postEvents_ndjson() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(12).type(EventType.UPDATE).book(book).build();
+
+        String ndjson = objectMapper.writeValueAsString(event) + "\n" + objectMapper.writeValueAsString(event) + "\n";
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class))).thenReturn(sentFuture(1, 7L));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
+                .content(ndjson)
+                .contentType("application/x-ndjson"))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].index").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value("SENT"));
+    }
+
+    @Test
+    void postEvent_overloaded() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(null).book(book).build();
+
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class)))
+                .thenThrow(new SendRejectedException("Producer is overloaded, 100 sends in flight", 2));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/event")
+                .content(objectMapper.writeValueAsString(event))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isTooManyRequests())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.RETRY_AFTER, "2"));
+    }
+
+    @Test
+    void postEvents_overloaded() throws Exception {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(null).book(book).build();
+
+        when(eventProducer.sendLibraryEvent_Approach2(isA(Event.class)))
+                .thenThrow(new SendRejectedException("Producer is overloaded, 100 sends in flight", 1));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
+                .content(objectMapper.writeValueAsString(Arrays.asList(event, event)))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isTooManyRequests())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value("REJECTED"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value("REJECTED"));
+    }
+
+    private SettableListenableFuture<SendResult<Integer, byte[]>> sentFuture(int partition, long offset) {
+        SettableListenableFuture<SendResult<Integer, byte[]>> future = new SettableListenableFuture<>();
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("library-events", partition), offset, 0, System.currentTimeMillis(), 1, 2);
+        future.set(new SendResult<>(new ProducerRecord<>("library-events", "value".getBytes()), recordMetadata));
+        return future;
+    }
+
 }
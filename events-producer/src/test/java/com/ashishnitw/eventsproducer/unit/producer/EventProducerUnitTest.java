@@ -1,27 +1,46 @@
 package com.ashishnitw.eventsproducer.unit.producer;
 
+import com.ashishnitw.eventsproducer.codec.BinaryEventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodec;
+import com.ashishnitw.eventsproducer.codec.EventCodecs;
+import com.ashishnitw.eventsproducer.codec.JsonEventCodec;
+import com.ashishnitw.eventsproducer.config.AdmissionProperties;
+import com.ashishnitw.eventsproducer.constant.EventHeaders;
 import com.ashishnitw.eventsproducer.constant.EventType;
+import com.ashishnitw.eventsproducer.logging.RecordLogger;
 import com.ashishnitw.eventsproducer.model.Book;
 import com.ashishnitw.eventsproducer.model.Event;
 import com.ashishnitw.eventsproducer.producer.EventProducer;
+import com.ashishnitw.eventsproducer.producer.EventSpool;
+import com.ashishnitw.eventsproducer.producer.EventSpooledException;
+import com.ashishnitw.eventsproducer.producer.ProducerProfiles;
+import com.ashishnitw.eventsproducer.producer.SendAdmission;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaProducerException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.SettableListenableFuture;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import static org.mockito.ArgumentMatchers.isA;
@@ -31,11 +50,29 @@ import static org.mockito.Mockito.when;
 public class EventProducerUnitTest {
     
     @Mock
-    KafkaTemplate<Integer, String> kafkaTemplate;
+    KafkaTemplate<Integer, byte[]> kafkaTemplate;
 
     @Spy
     ObjectMapper objectMapper = new ObjectMapper();
 
+    @Spy
+    EventCodecs eventCodecs = new EventCodecs(Arrays.asList(new JsonEventCodec(objectMapper), new BinaryEventCodec()), "json");
+
+    @Spy
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    ProducerProfiles producerProfiles;
+
+    @Mock
+    EventSpool eventSpool;
+
+    @Spy
+    SendAdmission sendAdmission = new SendAdmission(new AdmissionProperties(), new SimpleMeterRegistry());
+
+    @Spy
+    RecordLogger recordLogger = new RecordLogger(1);
+
     @InjectMocks
     EventProducer eventProducer;
 
@@ -51,6 +88,9 @@ public class EventProducerUnitTest {
                 .thenReturn(future);
 
         Assertions.assertThrows(Exception.class, () -> eventProducer.sendLibraryEvent_Approach2(event).get());
+        Assertions.assertEquals(1, meterRegistry.get("events.producer.send")
+                .tags("topic", "library-events", "partition", "none", "outcome", "failure").timer().count());
+        Assertions.assertEquals(0, sendAdmission.inFlight());
     }
 
     @Test
@@ -63,14 +103,77 @@ public class EventProducerUnitTest {
         SettableListenableFuture future = new SettableListenableFuture();
         ProducerRecord producerRecord = new ProducerRecord("library-events", event);
         RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("library-events", 1), 1, 1, System.currentTimeMillis(), 1, 2);
-        SendResult<Integer, String> sendResult = new SendResult<>(producerRecord, recordMetadata);
+        SendResult<Integer, byte[]> sendResult = new SendResult<>(producerRecord, recordMetadata);
 
         future.set(sendResult);
         when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
 
-        ListenableFuture<SendResult<Integer,String>> listenableFuture = eventProducer.sendLibraryEvent_Approach2(event);
+        ListenableFuture<SendResult<Integer, byte[]>> listenableFuture = eventProducer.sendLibraryEvent_Approach2(event);
 
-        SendResult<Integer, String> sendResult1 = listenableFuture.get();
+        SendResult<Integer, byte[]> sendResult1 = listenableFuture.get();
         assert sendResult1.getRecordMetadata().partition()==1;
+
+        ArgumentCaptor<ProducerRecord<Integer, byte[]>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        Mockito.verify(kafkaTemplate).send(sent.capture());
+        Assertions.assertEquals(record, new String(sent.getValue().value(), StandardCharsets.UTF_8));
+        Assertions.assertEquals("json", new String(sent.getValue().headers().lastHeader(EventCodec.FORMAT_HEADER).value(), StandardCharsets.UTF_8));
+        Assertions.assertEquals("scanner", new String(sent.getValue().headers().lastHeader("event-source").value(), StandardCharsets.UTF_8));
+        long producedAt = ByteBuffer.wrap(sent.getValue().headers().lastHeader(EventHeaders.PRODUCED_AT).value()).getLong();
+        Assertions.assertTrue(Math.abs(System.currentTimeMillis() - producedAt) < 60_000);
+        Assertions.assertEquals(1, meterRegistry.get("events.producer.send")
+                .tags("topic", "library-events", "partition", "1", "outcome", "success").timer().count());
+    }
+
+    @Test
+    void sendLibraryEvent_Approach2_spooled() {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(1).type(EventType.NEW).book(book).build();
+
+        SettableListenableFuture<SendResult<Integer, byte[]>> future = new SettableListenableFuture<>();
+        future.setException(new KafkaProducerException(null, "Send failed", new TimeoutException("Expiring 1 record(s)")));
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
+        when(eventSpool.appendAsync(isA(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(true));
+
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> eventProducer.sendLibraryEvent_Approach2(event).get());
+
+        Assertions.assertTrue(ex.getCause() instanceof EventSpooledException);
+        ArgumentCaptor<ProducerRecord<Integer, byte[]>> spooled = ArgumentCaptor.forClass(ProducerRecord.class);
+        Mockito.verify(eventSpool).appendAsync(spooled.capture());
+        Assertions.assertEquals(1, spooled.getValue().key());
+        Assertions.assertEquals(1, meterRegistry.get("events.producer.send")
+                .tags("topic", "library-events", "partition", "none", "outcome", "spooled").timer().count());
+    }
+
+    @Test
+    void sendLibraryEventSynchronous_spooled() {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(1).type(EventType.NEW).book(book).build();
+
+        SettableListenableFuture<SendResult<Integer, byte[]>> future = new SettableListenableFuture<>();
+        future.setException(new KafkaProducerException(null, "Send failed", new TimeoutException("Expiring 1 record(s)")));
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
+        when(eventSpool.appendAsync(isA(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(true));
+
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> eventProducer.sendLibraryEventSynchronous(event));
+
+        Assertions.assertTrue(ex.getCause() instanceof EventSpooledException);
+        Assertions.assertEquals(1, meterRegistry.get("events.producer.send")
+                .tags("topic", "library-events", "partition", "none", "outcome", "spooled").timer().count());
+        Assertions.assertNull(meterRegistry.find("events.producer.send").tags("outcome", "failure").timer());
+    }
+
+    @Test
+    void sendLibraryEvent_Approach2_withProfile() throws JsonProcessingException {
+        Book book = Book.builder().id(1).name("Kafka Book").build();
+        Event event = Event.builder().id(1).type(EventType.NEW).book(book).build();
+        KafkaTemplate<Integer, byte[]> lowLatencyTemplate = Mockito.mock(KafkaTemplate.class);
+        when(producerProfiles.template("low-latency")).thenReturn(lowLatencyTemplate);
+        when(lowLatencyTemplate.send(isA(ProducerRecord.class))).thenReturn(new SettableListenableFuture<>());
+
+        eventProducer.sendLibraryEvent_Approach2(event, "low-latency");
+
+        Mockito.verify(lowLatencyTemplate).send(isA(ProducerRecord.class));
+        Mockito.verifyNoInteractions(kafkaTemplate);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,159 @@
+package com.ashishnitw.eventsproducer.unit.producer;
+
+import com.ashishnitw.eventsproducer.config.SpoolProperties;
+import com.ashishnitw.eventsproducer.producer.EventSpool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class EventSpoolUnitTest {
+
+    @TempDir
+    Path dir;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    EventSpool eventSpool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (eventSpool != null)
+            eventSpool.close();
+    }
+
+    @Test
+    void appendPeekCommit_inOrderAcrossSegments() throws IOException {
+        eventSpool = open(1024, 1024 * 1024);
+
+        for (int i = 0; i < 30; i++)
+            Assertions.assertTrue(eventSpool.append(record(i)));
+        Assertions.assertTrue(segmentFiles().size() > 1);
+
+        List<ProducerRecord<Integer, byte[]>> records = eventSpool.peek(50);
+        Assertions.assertEquals(30, records.size());
+        for (int i = 0; i < 30; i++) {
+            Assertions.assertEquals(i, records.get(i).key());
+            Assertions.assertEquals("event-" + i, new String(records.get(i).value(), StandardCharsets.UTF_8));
+            Assertions.assertEquals("scanner", new String(records.get(i).headers().lastHeader("event-source").value(), StandardCharsets.UTF_8));
+        }
+
+        eventSpool.commit(20);
+        Assertions.assertEquals(10, eventSpool.pending());
+        Assertions.assertEquals(20, eventSpool.peek(1).get(0).key());
+
+        eventSpool.commit(10);
+        Assertions.assertEquals(0, eventSpool.pending());
+        Assertions.assertTrue(segmentFiles().isEmpty());
+        Assertions.assertEquals(30, meterRegistry.get("events.spool.replayed").counter().count());
+    }
+
+    @Test
+    void open_recoversAfterCommittedRecords() throws Exception {
+        eventSpool = open(1024, 1024 * 1024);
+        for (int i = 0; i < 3; i++)
+            eventSpool.append(record(i));
+        eventSpool.commit(1);
+        eventSpool.close();
+
+        eventSpool = open(1024, 1024 * 1024);
+
+        Assertions.assertEquals(2, eventSpool.pending());
+        List<ProducerRecord<Integer, byte[]>> records = eventSpool.peek(10);
+        Assertions.assertEquals(1, records.get(0).key());
+        Assertions.assertEquals(2, records.get(1).key());
+    }
+
+    @Test
+    void open_discardsTornEntry() throws Exception {
+        eventSpool = open(1024, 1024 * 1024);
+        eventSpool.append(record(0));
+        eventSpool.append(record(1));
+        eventSpool.close();
+
+        // flip a byte of the second entry, as if its page never reached the disk
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            long position = file.length() - 1;
+            file.seek(position);
+            while (file.read() == 0)
+                file.seek(--position);
+            file.seek(position);
+            file.write(0xFF);
+        }
+
+        eventSpool = open(1024, 1024 * 1024);
+
+        Assertions.assertEquals(1, eventSpool.pending());
+        Assertions.assertTrue(eventSpool.append(record(2)));
+        List<ProducerRecord<Integer, byte[]>> records = eventSpool.peek(10);
+        Assertions.assertEquals(0, records.get(0).key());
+        Assertions.assertEquals(2, records.get(1).key());
+    }
+
+    @Test
+    void append_boundedDiskUsage() throws IOException {
+        eventSpool = open(1024, 2048);
+
+        int appended = 0;
+        while (eventSpool.append(record(appended)))
+            appended++;
+
+        Assertions.assertTrue(appended > 0);
+        Assertions.assertEquals(2, segmentFiles().size());
+        Assertions.assertEquals(2048, eventSpool.bytes());
+        Assertions.assertEquals(1, meterRegistry.get("events.spool.dropped").counter().count());
+    }
+
+    @Test
+    void appendAsync_writesOnSpoolThread() throws Exception {
+        eventSpool = open(1024, 1024 * 1024);
+
+        for (int i = 0; i < 10; i++)
+            Assertions.assertTrue(eventSpool.appendAsync(record(i)).get(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(10, eventSpool.pending());
+        Assertions.assertEquals(0, eventSpool.peek(1).get(0).key());
+    }
+
+    @Test
+    void open_lockedDirectory() throws IOException {
+        eventSpool = open(1024, 1024 * 1024);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> open(1024, 1024 * 1024));
+    }
+
+    private EventSpool open(int segmentBytes, long maxBytes) throws IOException {
+        SpoolProperties properties = new SpoolProperties();
+        properties.setDir(dir.toString());
+        properties.setSegmentBytes(segmentBytes);
+        properties.setMaxBytes(maxBytes);
+        properties.setForceOnAppend(false);
+        EventSpool spool = new EventSpool(properties, meterRegistry);
+        spool.open();
+        return spool;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private ProducerRecord<Integer, byte[]> record(int key) {
+        ProducerRecord<Integer, byte[]> record = new ProducerRecord<>("library-events", key, ("event-" + key).getBytes(StandardCharsets.UTF_8));
+        record.headers().add("event-source", "scanner".getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+}
@@ -0,0 +1,46 @@
+package com.ashishnitw.eventsproducer.unit.producer;
+
+import com.ashishnitw.eventsproducer.config.ProducerProfileProperties;
+import com.ashishnitw.eventsproducer.producer.ProducerProfiles;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ProducerProfilesUnitTest {
+
+    @Test
+    void template_appliesTheProfileOnTopOfSpringKafkaProducer() {
+        KafkaProperties kafkaProperties = new KafkaProperties();
+        kafkaProperties.getProducer().setAcks("all");
+        ProducerProfileProperties producerProfileProperties = new ProducerProfileProperties();
+        producerProfileProperties.getProfiles().put("balanced", Collections.singletonMap("compression.type", "lz4"));
+        producerProfileProperties.getTopics().put("library-events", "balanced");
+
+        ProducerProfiles producerProfiles = new ProducerProfiles(kafkaProperties, producerProfileProperties);
+
+        Map<String, Object> configs = producerProfiles.template("balanced").getProducerFactory().getConfigurationProperties();
+        assertEquals("lz4", configs.get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+        assertEquals("all", configs.get(ProducerConfig.ACKS_CONFIG));
+        assertEquals(ByteArraySerializer.class, configs.get(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG));
+        assertEquals("balanced", producerProfiles.profileForTopic("library-events"));
+        assertNull(producerProfiles.profileForTopic("library-events-retry"));
+        assertThrows(IllegalArgumentException.class, () -> producerProfiles.template("max-throughput"));
+        producerProfiles.destroy();
+    }
+
+    @Test
+    void topicWithUnknownProfileFailsAtStartup() {
+        ProducerProfileProperties producerProfileProperties = new ProducerProfileProperties();
+        producerProfileProperties.getTopics().put("library-events", "balanced");
+
+        assertThrows(IllegalArgumentException.class, () -> new ProducerProfiles(new KafkaProperties(), producerProfileProperties));
+    }
+}
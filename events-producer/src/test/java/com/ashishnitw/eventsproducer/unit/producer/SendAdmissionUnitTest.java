@@ -0,0 +1,93 @@
+package com.ashishnitw.eventsproducer.unit.producer;
+
+import com.ashishnitw.eventsproducer.config.AdmissionProperties;
+import com.ashishnitw.eventsproducer.producer.SendAdmission;
+import com.ashishnitw.eventsproducer.producer.SendRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SendAdmissionUnitTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void acquire_rejectsBeyondLimit() {
+        SendAdmission sendAdmission = new SendAdmission(properties(2, 1), meterRegistry);
+
+        sendAdmission.acquire();
+        sendAdmission.acquire();
+        SendRejectedException ex = Assertions.assertThrows(SendRejectedException.class, sendAdmission::acquire);
+
+        Assertions.assertEquals(3, ex.getRetryAfterSeconds());
+        Assertions.assertEquals(1, meterRegistry.get("events.producer.admission.rejected").counter().count());
+        Assertions.assertEquals(1.0, meterRegistry.get("events.producer.admission.pressure").gauge().value());
+
+        sendAdmission.release(TimeUnit.MILLISECONDS.toNanos(1), true);
+        sendAdmission.acquire();
+        Assertions.assertEquals(2, sendAdmission.inFlight());
+    }
+
+    @Test
+    void release_limitAdaptsToLatency() {
+        SendAdmission sendAdmission = new SendAdmission(properties(100, 10), meterRegistry);
+
+        for (int i = 0; i < 50; i++) {
+            sendAdmission.acquire();
+            sendAdmission.release(TimeUnit.SECONDS.toNanos(2), true);
+        }
+        Assertions.assertEquals(10.0, sendAdmission.limit());
+
+        sendAdmission.acquire();
+        sendAdmission.release(TimeUnit.MILLISECONDS.toNanos(1), false);
+        Assertions.assertEquals(10.0, sendAdmission.limit());
+
+        for (int i = 0; i < 5; i++) {
+            sendAdmission.acquire();
+            sendAdmission.release(TimeUnit.MILLISECONDS.toNanos(1), true);
+        }
+        Assertions.assertEquals(15.0, sendAdmission.limit());
+        Assertions.assertEquals(15.0, meterRegistry.get("events.producer.admission.limit").gauge().value());
+    }
+
+    @Test
+    void acquire_queuedUntilReleased() throws Exception {
+        AdmissionProperties properties = properties(1, 1);
+        properties.setQueueTimeoutMs(10_000);
+        properties.setMaxQueued(1);
+        SendAdmission sendAdmission = new SendAdmission(properties, meterRegistry);
+        sendAdmission.acquire();
+
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(sendAdmission::acquire);
+        while (meterRegistry.get("events.producer.admission.queued").gauge().value() < 1)
+            Thread.sleep(10);
+        // the queue is full, a third send is rejected right away
+        Assertions.assertThrows(SendRejectedException.class, sendAdmission::acquire);
+
+        sendAdmission.release(TimeUnit.MILLISECONDS.toNanos(1), true);
+        queued.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, sendAdmission.inFlight());
+    }
+
+    @Test
+    void acquire_disabled() {
+        AdmissionProperties properties = properties(1, 1);
+        properties.setEnabled(false);
+        SendAdmission sendAdmission = new SendAdmission(properties, meterRegistry);
+
+        for (int i = 0; i < 10; i++)
+            sendAdmission.acquire();
+        Assertions.assertEquals(0, sendAdmission.inFlight());
+    }
+
+    private AdmissionProperties properties(int maxInFlight, int minInFlight) {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setMaxInFlight(maxInFlight);
+        properties.setMinInFlight(minInFlight);
+        properties.setRetryAfterSeconds(3);
+        return properties;
+    }
+}